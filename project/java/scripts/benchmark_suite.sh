@@ -0,0 +1,15 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+source $DIR/java_env.sh
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#run the throughput/latency suite against the loaded database
+#settings: THREADS, WARMUP and MEASURE (seconds), SCALE (label of the loaded data), CSV (results file)
+#any arguments name the benchmarks to run, e.g. viewRooms bookRooms
+#Use your database name, port number and login
+java -Dhotel.bench.threads=${THREADS:-1} -Dhotel.bench.warmup=${WARMUP:-5} -Dhotel.bench.measure=${MEASURE:-10} \
+     -Dhotel.bench.scale=${SCALE:-1} -Dhotel.bench.csv=${CSV:-$DIR/../benchmark.csv} \
+     -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar HotelBenchmarkSuite $USER"_DB" $PGPORT $USER "$@"
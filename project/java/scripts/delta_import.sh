@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+source $DIR/java_env.sh
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#merge the hotels.csv, rooms.csv and bookings.csv found in the given directory into the database
+#settings: BATCH (rows per transaction)
+#Use your database name, port number and login
+java -Dhotel.delta.batch=${BATCH:-10000} \
+     -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar DeltaImport $USER"_DB" $PGPORT $USER "$@"
@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+source $DIR/java_env.sh
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#write the project/data CSVs at a larger scale
+#settings: SCALE (1 = the shipped data), SEED, OUT (output directory)
+java -cp $DIR/../classes DataGenerator ${OUT:-$DIR/../../data/scale_${SCALE:-1}} ${SCALE:-1} ${SEED:-166}
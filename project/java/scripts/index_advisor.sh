@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+source $DIR/java_env.sh
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#measure candidate indexes against a synthetic workload, or the workload file given as argument, and print the recommended ones
+#run it against a copy of the database: the candidates lock their tables while they are measured
+#settings: ROUNDS (replays per measurement), SAMPLES (rooms in the synthetic workload), MIN_GAIN (percent), SAVE (file to write the workload to)
+#Use your database name, port number and login
+java -Dhotel.advisor.rounds=${ROUNDS:-3} -Dhotel.advisor.samples=${SAMPLES:-200} -Dhotel.advisor.minGain=${MIN_GAIN:-5} ${SAVE:+-Dhotel.advisor.save=$SAVE} \
+     -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar IndexAdvisor $USER"_DB" $PGPORT $USER "$@"
@@ -0,0 +1,13 @@
+#!/bin/bash
+#sourced by the other scripts here: the sources need Java 8 or newer
+#set JAVA_HOME to pick a JDK, otherwise the javac on the PATH is used
+if [ -n "$JAVA_HOME" ]; then
+   export PATH=$JAVA_HOME/bin:$PATH
+fi
+JAVAC_VERSION=$(javac -version 2>&1 | sed -n 's/^javac \([0-9]*\)\.\{0,1\}\([0-9]*\).*/\1 \2/p')
+JAVA_MAJOR=${JAVAC_VERSION%% *}
+[ "$JAVA_MAJOR" = 1 ] && JAVA_MAJOR=${JAVAC_VERSION##* }
+if [ -z "$JAVA_MAJOR" ] || [ "$JAVA_MAJOR" -lt 8 ]; then
+   echo "Java 8 or newer is required, found: $(javac -version 2>&1)" >&2
+   exit 1
+fi
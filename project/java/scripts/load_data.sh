@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+source $DIR/java_env.sh
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#load the CSVs of DATA (project/data unless given) into the tables, then build the indexes
+#settings: THREADS (parallel connections), TRUNCATE=true to empty the tables first
+#Use your database name, port number and login
+java -Dhotel.load.threads=${THREADS:-4} -Dhotel.load.truncate=${TRUNCATE:-false} \
+     -Dhotel.load.indexes=$DIR/../../sql/src/create_indexes.sql \
+     -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $USER"_DB" $PGPORT $USER ${DATA:-$DIR/../../data}
@@ -1 +1,121 @@
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
+/**
+ * The session of one logged in user: who they are and what kind of user
+ * they are. HotelService takes the session explicitly on every call, so
+ * any number of sessions can be served by one Hotel at the same time.
+ *
+ * For a manager the session also holds the hotels they manage, loaded by
+ * HotelService at login, so that role and ownership checks cost no round
+ * trip. HotelService reloads them when they are older than its time to
+ * live or than the last ownership change it was told about.
+ */
+public class AuthorizedUser {
+   private int userId;
+   private String username;
+   private String usertype;
+   private boolean _authenticated;
+
+   // the managed hotels, as of _loadedGeneration and _loadedAtNanos
+   private boolean _contextLoaded;
+   private ResultTable _managedHotels;
+   private Set<Integer> _managedHotelIDs = Collections.emptySet();
+   private long _loadedGeneration;
+   private long _loadedAtNanos;
+
+   public AuthorizedUser(){
+      _authenticated = false;
+   }
+
+   public AuthorizedUser(int id, String user, String utype){
+      SetInfo(id, user, utype);
+   }
+
+   public boolean isAuthenticated(){
+      return _authenticated;
+   }
+
+   public int getUserID(){
+      return userId;
+   }
+
+   public String getUserName(){
+      return username;
+   }
+   public String getUserType(){
+      return usertype;
+   }
+   public void SetInfo(int id,String user,String utype){
+      username = user;
+      userId = id;
+      usertype = utype;
+      _authenticated = true;
+   }
+
+   public void UnAuthenticate(){
+       _authenticated = false;
+       synchronized (this){
+          _contextLoaded = false;
+          _managedHotels = null;
+          _managedHotelIDs = Collections.emptySet();
+       }
+   }
+
+   /**
+    * Replaces the role and the managed hotels with the ones just read.
+    *
+    * @param hotels hotelID, hotelName and dateEstablished of each hotel;
+    *        null for a user who is not a manager
+    * @param generation HotelService's ownership generation before the read
+    */
+   synchronized void setContext(String utype, ResultTable hotels, long generation){
+      Set<Integer> ids = new HashSet<Integer>();
+      for (int i = 0; hotels != null && i < hotels.size(); ++i){
+         ids.add(hotels.getInt(i, "hotelID"));
+      }
+      usertype = utype;
+      _managedHotels = hotels;
+      _managedHotelIDs = ids;
+      _loadedGeneration = generation;
+      _loadedAtNanos = System.nanoTime();
+      _contextLoaded = true;
+   }
+
+   /**
+    * @return whether the context must be read again: never loaded, loaded
+    *         before the given generation or longer than ttlNanos ago
+    */
+   synchronized boolean isContextStale(long generation, long ttlNanos){
+      return !_contextLoaded || _loadedGeneration < generation || System.nanoTime() - _loadedAtNanos > ttlNanos;
+   }
+
+   /**
+    * @return the hotels the user manages, as of the last load; null for
+    *         a user who is not a manager
+    */
+   public synchronized ResultTable getManagedHotels(){
+      return _managedHotels;
+   }
+
+   /**
+    * @return whether the user manages the hotel, as of the last load
+    */
+   public synchronized boolean manages(int hotelID){
+      return _managedHotelIDs.contains(hotelID);
+   }
+
+   public boolean isAdmin(){
+      return _authenticated && "admin".equals(usertype);
+   }
+
+   public boolean isManager(){
+      return _authenticated && "manager".equals(usertype);
+   }
+
+   public boolean HasElevatedRights(){
+      return isAdmin() || isManager();
+   }
+
+}//end AuthorizedUser
@@ -0,0 +1,113 @@
+import java.sql.SQLException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reserves a room for a day and inserts the booking as one atomic step.
+ *
+ * A booking is a single round trip: the book_room() function defined in
+ * create_tables.sql validates the room, checks the day and inserts the
+ * booking under an ID taken from the IdAllocator, returning a status code
+ * with the ID and price.
+ *
+ * Two layers keep a (hotelID, roomNumber, bookingDate) from being booked
+ * twice. Inside this process, bookings of the same room and day are
+ * serialized on one of a fixed set of striped locks, so unrelated bookings
+ * never wait for each other and no global lock is needed. Across processes,
+ * the UNIQUE(hotelID, roomNumber, bookingDate) constraint on RoomBookings
+ * rejects the losing insert, which book_room() reports as already booked
+ * rather than an error. The RoomAvailabilityIndex is told of the outcome
+ * but never consulted: it can be behind the database, and only the
+ * database decides whether a room is taken.
+ */
+public class BookingEngine {
+
+   public enum Status {
+      BOOKED, NO_SUCH_ROOM, ALREADY_BOOKED
+   }
+
+   /**
+    * The outcome of a booking attempt. bookingID and price are only set
+    * when the status is BOOKED.
+    */
+   public static class Booking {
+      public final Status status;
+      public final int bookingID;
+      public final int price;
+
+      Booking(Status status, int bookingID, int price){
+         this.status = status;
+         this.bookingID = bookingID;
+         this.price = price;
+      }
+   }//end Booking
+
+   // status codes returned by book_room()
+   private static final int BOOKED = 0;
+   private static final int NO_SUCH_ROOM = 1;
+   private static final int ALREADY_BOOKED = 2;
+
+   private final Hotel _esql;
+   private final ReentrantLock[] _stripes;
+
+   public BookingEngine(Hotel esql){
+      this(esql, Integer.getInteger("hotel.booking.stripes", 64));
+   }
+
+   /**
+    * @param esql the database access layer
+    * @param stripes number of locks; rounded up to a power of two
+    */
+   public BookingEngine(Hotel esql, int stripes){
+      this._esql = esql;
+      int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+      this._stripes = new ReentrantLock[size];
+      for (int i = 0; i < size; ++i){
+         _stripes[i] = new ReentrantLock();
+      }
+   }//end BookingEngine
+
+   private ReentrantLock stripe(int hotelID, int roomNumber, long epochDay){
+      long h = hotelID * 0x9E3779B97F4A7C15L;
+      h = (h ^ roomNumber) * 0x9E3779B97F4A7C15L;
+      h = (h ^ epochDay) * 0x9E3779B97F4A7C15L;
+      return _stripes[(int) (h >>> 40) & (_stripes.length - 1)];
+   }
+
+   /**
+    * Books the room for the customer on the given day, unless the room does
+    * not exist or is already taken.
+    *
+    * @param date the booking date, MM/DD/YYYY or YYYY-MM-DD
+    * @throws java.sql.SQLException when the database fails for any other reason
+    */
+   public Booking book(int customerID, int hotelID, int roomNumber, String date) throws SQLException {
+      long epochDay = RoomAvailabilityIndex.epochDay(date);
+      RoomAvailabilityIndex availability = _esql.getAvailabilityIndex();
+
+      ReentrantLock lock = stripe(hotelID, roomNumber, epochDay);
+      lock.lock();
+      try{
+         int bookingID = _esql.getIdAllocator().next(IdAllocator.Sequence.BOOKING);
+         ResultTable result = _esql.executeQueryAndReturnTable(HotelQuery.BOOK_ROOM, bookingID, customerID, hotelID, roomNumber, date);
+         // book_room() writes through a SELECT, which Hotel does not see as an update
+         _esql.getResultCache().invalidate(HotelQuery.BOOK_ROOM);
+         switch (result.getInt(0, "status")){
+            case BOOKED:
+               availability.markBooked(hotelID, roomNumber, epochDay);
+               _esql.getTopCustomers().recordBooking(hotelID, customerID, bookingID);
+               return new Booking(Status.BOOKED, result.getInt(0, "booking_id"), result.getInt(0, "room_price"));
+            case ALREADY_BOOKED:
+               // booked by another process; listings should not offer it either
+               availability.markBooked(hotelID, roomNumber, epochDay);
+               return new Booking(Status.ALREADY_BOOKED, -1, -1);
+            case NO_SUCH_ROOM:
+               return new Booking(Status.NO_SUCH_ROOM, -1, -1);
+            default:
+               throw new SQLException("unexpected book_room status " + result.getInt(0, "status"));
+         }
+      }finally{
+         lock.unlock();
+      }
+   }//end book
+
+}//end BookingEngine
@@ -0,0 +1,483 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the project/data CSVs into the tables of create_tables.sql, in
+ * place of load_data.sql.
+ *
+ * Files are read by the client and streamed to the server with COPY FROM
+ * STDIN, so they may live anywhere and no server-side file access is
+ * needed. The COPY API is looked up by reflection since the bundled
+ * pg73jdbc3 driver predates it; with that driver, or whenever the API is
+ * missing, rows are sent as batched INSERTs instead.
+ *
+ * Tables are loaded in stages that respect the foreign keys, with the
+ * tables of a stage loaded in parallel, each on its own connection. The
+ * secondary indexes of create_indexes.sql are dropped before the load and
+ * built afterwards, in parallel, also when the load failed. The triggers
+ * that tell running servers of catalog and booking changes are off during
+ * the load, which instead ends with a single notification per channel.
+ * Finally each serial sequence is set past the largest ID loaded and the
+ * tables are analyzed.
+ *
+ * Settings, as system properties:
+ *  - hotel.load.threads: connections used at once (default: processors, at most 8);
+ *  - hotel.load.indexes: path of create_indexes.sql (default: the one next to the data
+ *    directory in the project tree);
+ *  - hotel.load.batch: rows per batch when falling back to INSERT (default 1000);
+ *  - hotel.load.truncate: empty the tables first (default false).
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> <dataDir>
+ */
+public class BulkLoader {
+
+   /**
+    * The tables, their CSV files and the sequence behind their serial key,
+    * in load order. Tables of the same stage do not refer to each other.
+    */
+   enum Table {
+      USERS("Users", "users.csv", 0, IdAllocator.Sequence.USER, "userID"),
+      COMPANY("MaintenanceCompany", "company.csv", 0, null, null),
+      HOTEL("Hotel", "hotels.csv", 1, null, null),
+      ROOMS("Rooms", "rooms.csv", 2, null, null),
+      BOOKINGS("RoomBookings", "bookings.csv", 3, IdAllocator.Sequence.BOOKING, "bookingID"),
+      REPAIRS("RoomRepairs", "roomRepairs.csv", 3, IdAllocator.Sequence.REPAIR, "repairID"),
+      UPDATES("RoomUpdatesLog", "roomUpdatesLog.csv", 3, IdAllocator.Sequence.ROOM_UPDATE, "updateNumber"),
+      REQUESTS("RoomRepairRequests", "roomRepairRequests.csv", 4, IdAllocator.Sequence.REPAIR_REQUEST, "requestNumber");
+
+      final String tableName;
+      final String fileName;
+      final int stage;
+      final IdAllocator.Sequence sequence;
+      final String idColumn;
+
+      Table(String tableName, String fileName, int stage, IdAllocator.Sequence sequence, String idColumn){
+         this.tableName = tableName;
+         this.fileName = fileName;
+         this.stage = stage;
+         this.sequence = sequence;
+         this.idColumn = idColumn;
+      }
+   }//end Table
+
+   /**
+    * Rows and time of one table's load.
+    */
+   static class Load {
+      final Table table;
+      final long rows;
+      final long nanos;
+      final boolean copy;
+
+      Load(Table table, long rows, long nanos, boolean copy){
+         this.table = table;
+         this.rows = rows;
+         this.nanos = nanos;
+         this.copy = copy;
+      }
+
+      double rowsPerSecond(){
+         return nanos == 0 ? 0 : rows * 1e9 / nanos;
+      }
+   }//end Load
+
+   private final ConnectionPool _pool;
+   private final File _dataDir;
+   private final File _indexFile;
+   private final int _batchSize;
+   private final ExecutorService _workers;
+
+   public BulkLoader(ConnectionPool pool, File dataDir, File indexFile, int threads, int batchSize){
+      this._pool = pool;
+      this._dataDir = dataDir;
+      this._indexFile = indexFile;
+      this._batchSize = batchSize;
+      this._workers = Executors.newFixedThreadPool(threads);
+   }
+
+   // ------------------------------------------------------------------
+   // loading one table
+
+   /**
+    * Loads one CSV file into its table, by COPY when the driver supports
+    * it and by batched INSERTs otherwise.
+    *
+    * @throws java.sql.SQLException when the server rejects a row
+    */
+   Load load(Table table) throws SQLException, IOException {
+      File file = new File(_dataDir, table.fileName);
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         Connection connection = pc.getConnection();
+         Object copyApi = copyApi(connection);
+         long rows;
+         if (copyApi != null){
+            rows = copy(copyApi, table.tableName, null, file);
+         }else{
+            rows = insert(connection, table.tableName, null, file, _batchSize);
+         }
+         return new Load(table, rows, System.nanoTime() - start, copyApi != null);
+      }catch (SQLException e){
+         pc.markBroken();
+         throw new SQLException(table.tableName + ": " + e.getMessage());
+      }finally{
+         _pool.release(pc);
+      }
+   }//end load
+
+   private static BufferedReader open(File file) throws IOException {
+      return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+   }
+
+   // the driver's CopyManager, or null when it has none
+   static Object copyApi(Connection connection){
+      try{
+         return connection.getClass().getMethod("getCopyAPI").invoke(connection);
+      }catch (NoSuchMethodException e){
+         return null;
+      }catch (IllegalAccessException e){
+         return null;
+      }catch (InvocationTargetException e){
+         return null;
+      }
+   }
+
+   // columns are matched by position, as the headers do not always match the
+   // column names (company.csv has address, MaintenanceCompany addrress);
+   // columns null means all of the table's
+   static long copy(Object copyApi, String tableName, String columns, File file) throws SQLException, IOException {
+      String sql = "COPY " + tableName + (columns == null ? "" : " (" + columns + ")") + " FROM STDIN WITH (FORMAT csv, HEADER true)";
+      try (Reader in = open(file)){
+         Method copyIn = copyApi.getClass().getMethod("copyIn", String.class, Reader.class);
+         return ((Number) copyIn.invoke(copyApi, sql, in)).longValue();
+      }catch (InvocationTargetException e){
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException) throw (SQLException) cause;
+         if (cause instanceof IOException) throw (IOException) cause;
+         throw new SQLException("COPY failed: " + cause);
+      }catch (ReflectiveOperationException e){
+         throw new SQLException("COPY failed: " + e);
+      }
+   }//end copy
+
+   /**
+    * The fallback: one prepared INSERT, executed in batches of batchSize
+    * rows with one commit per batch. Values are sent as text and cast to
+    * the column types on the server, as COPY would parse them.
+    */
+   static long insert(Connection connection, String tableName, String columns, File file, int batchSize) throws SQLException, IOException {
+      String[] types = columnTypes(connection, tableName, columns);
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName)
+         .append(columns == null ? "" : " (" + columns + ")").append(" VALUES (");
+      for (int i = 0; i < types.length; ++i){
+         sql.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(types[i]).append(')');
+      }
+      sql.append(')');
+
+      boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      long rows = 0;
+      try (BufferedReader in = open(file);
+           PreparedStatement insert = connection.prepareStatement(sql.toString())){
+         in.readLine();
+         String line;
+         int pending = 0;
+         while ((line = in.readLine()) != null){
+            if (line.trim().isEmpty()) continue;
+            List<String> fields = parseCsv(line, types.length);
+            for (int i = 0; i < types.length; ++i){
+               insert.setString(i + 1, fields.get(i));
+            }
+            insert.addBatch();
+            rows++;
+            if (++pending == batchSize){
+               insert.executeBatch();
+               connection.commit();
+               pending = 0;
+            }
+         }
+         if (pending > 0){
+            insert.executeBatch();
+            connection.commit();
+         }
+      }catch (SQLException e){
+         connection.rollback();
+         throw e;
+      }finally{
+         connection.setAutoCommit(autoCommit);
+      }
+      return rows;
+   }//end insert
+
+   private static String[] columnTypes(Connection connection, String tableName, String columns) throws SQLException {
+      try (Statement stmt = connection.createStatement();
+           ResultSet rs = stmt.executeQuery("SELECT " + (columns == null ? "*" : columns) + " FROM " + tableName + " WHERE false")){
+         ResultSetMetaData meta = rs.getMetaData();
+         String[] types = new String[meta.getColumnCount()];
+         for (int i = 0; i < types.length; ++i){
+            types[i] = meta.getColumnTypeName(i + 1);
+         }
+         return types;
+      }
+   }
+
+   /**
+    * @return the table's column names, comma separated, in table order
+    */
+   static String columnNames(Connection connection, String tableName) throws SQLException {
+      try (Statement stmt = connection.createStatement();
+           ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName + " WHERE false")){
+         ResultSetMetaData meta = rs.getMetaData();
+         StringBuilder names = new StringBuilder();
+         for (int i = 1; i <= meta.getColumnCount(); ++i){
+            names.append(i == 1 ? "" : ",").append(meta.getColumnName(i));
+         }
+         return names.toString();
+      }
+   }
+
+   /**
+    * Splits one CSV line as COPY's csv format does: fields may be quoted,
+    * a doubled quote is a literal quote, and an unquoted empty field is
+    * NULL.
+    */
+   static List<String> parseCsv(String line, int expected){
+      List<String> fields = new ArrayList<String>(expected);
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false, wasQuoted = false;
+      int end = line.endsWith("\r") ? line.length() - 1 : line.length();
+      for (int i = 0; i < end; ++i){
+         char c = line.charAt(i);
+         if (quoted){
+            if (c == '"' && i + 1 < end && line.charAt(i + 1) == '"'){
+               field.append('"');
+               i++;
+            }else if (c == '"'){
+               quoted = false;
+            }else{
+               field.append(c);
+            }
+         }else if (c == '"'){
+            quoted = wasQuoted = true;
+         }else if (c == ','){
+            fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+            field.setLength(0);
+            wasQuoted = false;
+         }else{
+            field.append(c);
+         }
+      }
+      fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+      while (fields.size() < expected) fields.add(null);
+      return fields;
+   }//end parseCsv
+
+   // ------------------------------------------------------------------
+   // before and after the load
+
+   /**
+    * Reads the statements of a SQL script, without its comments.
+    */
+   static List<String> statements(File script) throws IOException {
+      String sql = new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8);
+      sql = sql.replaceAll("(?s)/\\*.*?\\*/", " ").replaceAll("--[^\n]*", " ");
+      List<String> statements = new ArrayList<String>();
+      for (String s : sql.split(";")){
+         if (!s.trim().isEmpty()) statements.add(s.trim());
+      }
+      return statements;
+   }
+
+   private void execute(String sql) throws SQLException {
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try (Statement stmt = pc.getConnection().createStatement()){
+         stmt.execute(sql);
+      }catch (SQLException e){
+         pc.markBroken();
+         throw new SQLException(sql + ": " + e.getMessage());
+      }finally{
+         _pool.release(pc);
+      }
+   }
+
+   // runs the statements on the workers and waits for all of them
+   private void executeAll(List<String> sql) throws Exception {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (final String s : sql){
+         tasks.add(() -> { execute(s); return null; });
+      }
+      await(tasks);
+   }
+
+   private <T> List<T> await(List<Callable<T>> tasks) throws Exception {
+      List<Future<T>> futures = new ArrayList<Future<T>>();
+      for (Callable<T> task : tasks){
+         futures.add(_workers.submit(task));
+      }
+      List<T> results = new ArrayList<T>();
+      try{
+         for (Future<T> future : futures){
+            results.add(future.get());
+         }
+      }catch (ExecutionException e){
+         for (Future<T> future : futures) future.cancel(true);
+         Throwable cause = e.getCause();
+         throw cause instanceof Exception ? (Exception) cause : e;
+      }
+      return results;
+   }//end await
+
+   /**
+    * Sets each serial sequence so that its next value follows the largest
+    * ID in its table, or starts at 1 for an empty table.
+    */
+   void resetSequences() throws SQLException {
+      for (Table table : Table.values()){
+         if (table.sequence == null) continue;
+         execute("SELECT setval('" + table.sequence.getSequenceName() + "', COALESCE(MAX(" + table.idColumn + "), 0) + 1, false) FROM " + table.tableName);
+      }
+   }
+
+   // ------------------------------------------------------------------
+
+   /**
+    * Runs the whole load and prints rows per second for each table.
+    */
+   public List<Load> run(boolean truncate) throws Exception {
+      List<String> indexScript = _indexFile.isFile() ? statements(_indexFile) : new ArrayList<String>();
+      List<String> drops = new ArrayList<String>();
+      List<String> creates = new ArrayList<String>();
+      for (String s : indexScript){
+         (s.toUpperCase().startsWith("DROP") ? drops : creates).add(s);
+      }
+      if (!_indexFile.isFile()){
+         System.out.println("no index script at " + _indexFile + ", indexes left as they are");
+      }
+
+      long start = System.nanoTime();
+      if (truncate){
+         StringBuilder all = new StringBuilder();
+         for (Table table : Table.values()) all.append(all.length() == 0 ? "" : ", ").append(table.tableName);
+         execute("TRUNCATE " + all);
+      }
+      executeAll(drops);
+
+      List<Load> loads = new ArrayList<Load>();
+      boolean loaded = false;
+      try{
+         // running servers hear of the load once, at the end, instead of once per row
+         List<String> quiet = new ArrayList<String>();
+         for (Table table : Table.values()){
+            if (CatalogCache.alterTrigger(table.tableName, false) != null) quiet.add(table.tableName);
+         }
+         for (String tableName : quiet) execute(CatalogCache.alterTrigger(tableName, false));
+
+         try{
+            int lastStage = Table.values()[Table.values().length - 1].stage;
+            for (int stage = 0; stage <= lastStage; ++stage){
+               List<Callable<Load>> tasks = new ArrayList<Callable<Load>>();
+               for (final Table table : Table.values()){
+                  if (table.stage == stage) tasks.add(() -> load(table));
+               }
+               for (Load load : await(tasks)){
+                  loads.add(load);
+                  System.out.println(String.format("%-20s %,12d rows %9.2f s %,12.0f rows/s  (%s)", load.table.tableName,
+                     load.rows, load.nanos / 1e9, load.rowsPerSecond(), load.copy ? "COPY" : "INSERT"));
+               }
+            }
+         }finally{
+            Set<String> channels = new LinkedHashSet<String>();
+            for (String tableName : quiet){
+               execute(CatalogCache.alterTrigger(tableName, true));
+               channels.add(CatalogCache.notifyChannel(tableName));
+            }
+            for (String channel : channels) execute("NOTIFY " + channel);
+         }
+         loaded = true;
+      }finally{
+         // a failed load must not leave the tables without their indexes
+         long indexStart = System.nanoTime();
+         if (loaded){
+            executeAll(creates);
+         }else{
+            try{
+               executeAll(creates);
+            }catch (Exception e){
+               // the load's own failure is the one to report
+               System.err.println("could not rebuild the indexes after the failed load: " + e.getMessage());
+            }
+         }
+         System.out.println(String.format("%-20s %,12d built %8.2f s", "indexes", creates.size(), (System.nanoTime() - indexStart) / 1e9));
+      }
+
+      resetSequences();
+      List<String> analyze = new ArrayList<String>();
+      for (Table table : Table.values()) analyze.add("ANALYZE " + table.tableName);
+      executeAll(analyze);
+
+      long rows = 0;
+      for (Load load : loads) rows += load.rows;
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("%-20s %,12d rows %9.2f s %,12.0f rows/s", "total", rows, seconds, rows / seconds));
+      return loads;
+   }//end run
+
+   public void close(){
+      _workers.shutdown();
+      _pool.close();
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <dataDir>");
+         return;
+      }//end if
+
+      File dataDir = new File(args[3]);
+      File indexFile = new File(System.getProperty("hotel.load.indexes",
+         new File(dataDir.getAbsoluteFile().getParentFile(), "sql/src/create_indexes.sql").getPath()));
+      int threads = Integer.getInteger("hotel.load.threads", Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      ConnectionPool.Config config = new ConnectionPool.Config();
+      config.minSize = 1;
+      config.maxSize = Math.max(1, threads);
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      BulkLoader loader = new BulkLoader(new ConnectionPool(url, args[2], "", config), dataDir, indexFile,
+         config.maxSize, Integer.getInteger("hotel.load.batch", 1000));
+      try{
+         loader.run(Boolean.getBoolean("hotel.load.truncate"));
+      }finally{
+         loader.close();
+      }
+   }//end main
+
+}//end BulkLoader
@@ -0,0 +1,405 @@
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Read-through cache of the hotel catalog: the name of each hotel and the
+ * number, price and image URL of its rooms.
+ *
+ * A hotel is loaded with all its rooms in one query the first time it is
+ * asked for, and kept in a LongObjectMap by hotelID, its rooms in parallel
+ * arrays sorted by room number, so a lookup allocates nothing. Hotels that
+ * do not exist are cached as such too.
+ *
+ * Triggers on Hotel and Rooms (see create_tables.sql) send a notification
+ * on the hotel_catalog channel naming the hotel that changed, when the
+ * changing transaction commits. A background thread of each Hotel LISTENs
+ * on its own connection and drops the hotel from the cache, so no instance
+ * serves a price for longer than hotel.catalog.pollMillis (default 200)
+ * after another changed it. Notifications sent by the connections of this
+ * Hotel's own pool are ignored, since whatever made the change through it
+ * already dropped what it changed. The same notification drops the
+ * HotelSpatialIndex and the managed hotels of every session (see
+ * HotelService.invalidateSessions()) on a change to Hotel, marks the hotel
+ * out of date in the RoomAvailabilityIndex on a change to Rooms, and drops
+ * the table's results from the QueryResultCache. The
+ * same thread listens on room_bookings, which a trigger on RoomBookings
+ * notifies with the hotelID of every hotel a transaction booked or deleted
+ * bookings at, and marks those hotels out of date in the
+ * RoomAvailabilityIndex and TopKCustomers, which read them again on next
+ * use.
+ * The bundled driver only sees
+ * notifications while it reads a response, so the listener polls with an
+ * empty query; with a driver or server without payloads, or after the
+ * listening connection failed, every hotel is dropped or marked instead.
+ * hotel.catalog.listen=false turns the listener off, leaving changes made
+ * in this process as the only invalidations.
+ */
+public class CatalogCache {
+
+   public static final String CHANNEL = "hotel_catalog";
+   public static final String BOOKINGS_CHANNEL = "room_bookings";
+
+   // the triggers of create_tables.sql that notify a channel: table, trigger, channel
+   private static final String[][] TRIGGERS = {
+      {"Hotel", "hotel_catalog_notify", CHANNEL},
+      {"Rooms", "rooms_catalog_notify", CHANNEL},
+      {"RoomBookings", "roombookings_notify", BOOKINGS_CHANNEL},
+   };
+
+   /**
+    * Bulk loads turn the table's trigger off, which every session sees,
+    * and NOTIFY its channel once when done, so listeners drop their caches
+    * once instead of once per row or batch. That one notification also
+    * covers the changes others made while the trigger was off.
+    *
+    * @return the ALTER TABLE that turns the table's notifying trigger off
+    *         or back on, or null when it has none
+    */
+   static String alterTrigger(String tableName, boolean enable){
+      for (String[] trigger : TRIGGERS){
+         if (trigger[0].equalsIgnoreCase(tableName)){
+            return "ALTER TABLE " + trigger[0] + (enable ? " ENABLE" : " DISABLE") + " TRIGGER " + trigger[1];
+         }
+      }
+      return null;
+   }
+
+   /**
+    * @return the channel the table's trigger notifies, or null when it has none
+    */
+   static String notifyChannel(String tableName){
+      for (String[] trigger : TRIGGERS){
+         if (trigger[0].equalsIgnoreCase(tableName)) return trigger[2];
+      }
+      return null;
+   }
+
+   /**
+    * A room of the catalog.
+    */
+   public static class Room {
+      public final int hotelID;
+      public final int roomNumber;
+      public final int price;
+      public final String imageURL;
+
+      Room(int hotelID, int roomNumber, int price, String imageURL){
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.price = price;
+         this.imageURL = imageURL;
+      }
+   }//end Room
+
+   // one hotel and its rooms, sorted by room number; never changed once built
+   private static class HotelEntry {
+      final String hotelName;
+      final int[] numbers;
+      final int[] prices;
+      final String[] imageURLs;
+
+      HotelEntry(String hotelName, int[] numbers, int[] prices, String[] imageURLs){
+         this.hotelName = hotelName;
+         this.numbers = numbers;
+         this.prices = prices;
+         this.imageURLs = imageURLs;
+      }
+   }//end HotelEntry
+
+   // drivers since 9.0 have PGNotification.getParameter(); the bundled one has no payloads
+   private static final Method PAYLOAD = payloadMethod();
+
+   private static final HotelEntry MISSING = new HotelEntry(null, new int[0], new int[0], new String[0]);
+
+   private final Hotel _esql;
+   private final LongObjectMap<HotelEntry> _hotels = new LongObjectMap<HotelEntry>();
+   // bumped by every invalidation, so that a load racing with one is not kept
+   private long _version = 0;
+   private final AtomicLong _hits = new AtomicLong();
+   private final AtomicLong _misses = new AtomicLong();
+   private final AtomicLong _invalidations = new AtomicLong();
+
+   private final long _pollMillis = Long.getLong("hotel.catalog.pollMillis", 200);
+   private volatile Thread _listener;
+   private volatile boolean _closed = false;
+
+   public CatalogCache(Hotel esql){
+      this._esql = esql;
+   }
+
+   // ------------------------------------------------------------------
+   // lookups
+
+   private HotelEntry entry(int hotelID) throws SQLException {
+      long version;
+      synchronized (this){
+         HotelEntry entry = _hotels.get(hotelID);
+         if (entry != null){
+            _hits.incrementAndGet();
+            return entry;
+         }
+         version = _version;
+      }
+      _misses.incrementAndGet();
+      HotelEntry entry = load(hotelID);
+      synchronized (this){
+         if (_version == version){
+            _hotels.put(hotelID, entry);
+         }
+      }
+      return entry;
+   }//end entry
+
+   private HotelEntry load(int hotelID) throws SQLException {
+      ResultTable rows = _esql.executeQueryAndReturnTable(HotelQuery.HOTEL_CATALOG, hotelID);
+      if (rows.isEmpty()){
+         return MISSING;
+      }
+      int count = rows.isNull(0, "roomNumber") ? 0 : rows.size();
+      int[] numbers = new int[count];
+      int[] prices = new int[count];
+      String[] imageURLs = new String[count];
+      for (int i = 0; i < count; ++i){
+         numbers[i] = rows.getInt(i, "roomNumber");
+         prices[i] = rows.getInt(i, "price");
+         imageURLs[i] = rows.getString(i, "imageURL");
+      }
+      return new HotelEntry(rows.getString(0, "hotelName"), numbers, prices, imageURLs);
+   }//end load
+
+   /**
+    * @return the room, or null when there is no such room
+    * @throws java.sql.SQLException when the hotel is not cached and failed to load
+    */
+   public Room room(int hotelID, int roomNumber) throws SQLException {
+      HotelEntry hotel = entry(hotelID);
+      int i = Arrays.binarySearch(hotel.numbers, roomNumber);
+      return i < 0 ? null : new Room(hotelID, roomNumber, hotel.prices[i], hotel.imageURLs[i]);
+   }
+
+   /**
+    * @return the hotel's name, or null when there is no such hotel
+    * @throws java.sql.SQLException when the hotel is not cached and failed to load
+    */
+   public String hotelName(int hotelID) throws SQLException {
+      return entry(hotelID).hotelName;
+   }
+
+   // ------------------------------------------------------------------
+   // invalidation
+
+   /**
+    * Drops one hotel; it is loaded again on next use.
+    */
+   public synchronized void invalidate(int hotelID){
+      _version++;
+      _hotels.remove(hotelID);
+      _invalidations.incrementAndGet();
+   }
+
+   /**
+    * Drops every hotel, and the spatial index with them.
+    */
+   public void invalidateAll(){
+      synchronized (this){
+         _version++;
+         _hotels.clear();
+         _invalidations.incrementAndGet();
+      }
+      _esql.getHotelIndex().invalidate();
+   }
+
+   /**
+    * Applies a change announced on the channel, '<table>:<hotelID>' or
+    * '<table>:*'; anything else, such as no payload, stands for a change to
+    * any hotel of Hotel and Rooms. Besides the catalog it drops the
+    * HotelSpatialIndex and the sessions' hotels on a change to Hotel, marks the hotel out of date in
+    * the RoomAvailabilityIndex on a change to Rooms, and drops the cached
+    * query results of the table.
+    */
+   void changed(String payload){
+      int colon = payload == null ? -1 : payload.indexOf(':');
+      String table = colon < 0 ? null : payload.substring(0, colon);
+      int hotelID;
+      try{
+         hotelID = colon < 0 ? -1 : Integer.parseInt(payload.substring(colon + 1));
+      }catch (NumberFormatException e){
+         hotelID = -1;
+      }
+      if (hotelID < 0){
+         invalidateAll();
+      }else{
+         invalidate(hotelID);
+         if (table.equalsIgnoreCase("Hotel")){
+            _esql.getHotelIndex().invalidate();
+         }
+      }
+      if (table == null || table.equalsIgnoreCase("Hotel")){
+         // the hotel may have a new manager
+         _esql.getService().invalidateSessions();
+      }
+      if (table == null || table.equalsIgnoreCase("Rooms")){
+         if (hotelID < 0){
+            _esql.getAvailabilityIndex().invalidate();
+         }else{
+            _esql.getAvailabilityIndex().invalidate(hotelID);
+         }
+      }
+      _esql.getResultCache().invalidate(table == null ? "Hotel Rooms" : table);
+   }//end changed
+
+   // ------------------------------------------------------------------
+   // listening
+
+   /**
+    * Starts the listener thread, unless hotel.catalog.listen is false. Once
+    * it listens, it starts the build of TopKCustomers, which then misses no
+    * booking made meanwhile.
+    *
+    * @return whether the listener is running
+    */
+   public synchronized boolean startListening(){
+      if (_listener != null || !Boolean.parseBoolean(System.getProperty("hotel.catalog.listen", "true"))){
+         return _listener != null;
+      }
+      _listener = new Thread(this::listen, "catalog-listener");
+      _listener.setDaemon(true);
+      _listener.start();
+      return true;
+   }
+
+   private void listen(){
+      boolean started = false;
+      while (!_closed){
+         try (Connection connection = _esql.getPool().openUnpooled();
+              Statement stmt = connection.createStatement()){
+            stmt.execute("LISTEN " + CHANNEL);
+            stmt.execute("LISTEN " + BOOKINGS_CHANNEL);
+            // whatever changed before the LISTEN was not heard
+            changed(null);
+            bookingsChanged(null);
+            if (!started){
+               started = true;
+               _esql.getTopCustomers().startLoading();
+            }
+            while (!_closed){
+               // only to read the notifications that came with the response
+               ResultSet rs = stmt.executeQuery("SELECT 1");
+               rs.close();
+               PGNotification[] notifications = ((PGConnection) connection).getNotifications();
+               boolean catalog = false;
+               boolean bookings = false;
+               for (int i = 0; notifications != null && i < notifications.length; ++i){
+                  // changes made through our own pool were applied when they were made
+                  if (_esql.getPool().isPooledBackend(notifications[i].getPID())) continue;
+                  if (BOOKINGS_CHANNEL.equals(notifications[i].getName())){
+                     if (PAYLOAD != null){
+                        bookingsChanged((String) PAYLOAD.invoke(notifications[i]));
+                     }else{
+                        // without payloads, one mark of every hotel covers all of them
+                        bookings = true;
+                     }
+                  }else if (PAYLOAD != null){
+                     changed((String) PAYLOAD.invoke(notifications[i]));
+                  }else{
+                     // without payloads, one drop covers all of them
+                     catalog = true;
+                  }
+               }
+               if (catalog) changed(null);
+               if (bookings) bookingsChanged(null);
+               Thread.sleep(_pollMillis);
+            }
+         }catch (InterruptedException e){
+            return;
+         }catch (Exception e){
+            if (_closed) return;
+            System.err.println("catalog cache: listener failed, retrying: " + e.getMessage());
+            changed(null);
+            bookingsChanged(null);
+            try{
+               Thread.sleep(Math.max(1000L, _pollMillis));
+            }catch (InterruptedException e2){
+               return;
+            }
+         }
+      }
+   }//end listen
+
+   /**
+    * Applies bookings another process made or deleted, announced on
+    * room_bookings as the hotelID; anything else, such as '*' or no
+    * payload, stands for any hotel. Only the hotels named are read again,
+    * on their next use, by the RoomAvailabilityIndex and TopKCustomers.
+    */
+   private void bookingsChanged(String payload){
+      int hotelID;
+      try{
+         hotelID = payload == null ? -1 : Integer.parseInt(payload);
+      }catch (NumberFormatException e){
+         hotelID = -1;
+      }
+      if (hotelID < 0){
+         _esql.getAvailabilityIndex().invalidate();
+         _esql.getTopCustomers().invalidate();
+      }else{
+         _esql.getAvailabilityIndex().invalidate(hotelID);
+         _esql.getTopCustomers().invalidate(hotelID);
+      }
+      _esql.getResultCache().invalidate("RoomBookings");
+   }
+
+   private static Method payloadMethod(){
+      try{
+         return PGNotification.class.getMethod("getParameter");
+      }catch (NoSuchMethodException e){
+         return null;
+      }
+   }
+
+   public synchronized int size(){
+      return _hotels.size();
+   }
+
+   public long getHitCount(){
+      return _hits.get();
+   }
+
+   public long getMissCount(){
+      return _misses.get();
+   }
+
+   public double getHitRatio(){
+      long hits = _hits.get(), total = hits + _misses.get();
+      return total == 0 ? 0 : hits / (double) total;
+   }
+
+   public long getInvalidationCount(){
+      return _invalidations.get();
+   }
+
+   /**
+    * Stops the listener thread.
+    */
+   public void close(){
+      _closed = true;
+      Thread listener = _listener;
+      if (listener != null){
+         listener.interrupt();
+      }
+   }
+
+   @Override
+   public String toString(){
+      return String.format("catalog cache: %d hotels, %d hits, %d misses, %.1f%% hit ratio, %d invalidations",
+         size(), getHitCount(), getMissCount(), getHitRatio() * 100, getInvalidationCount());
+   }
+
+}//end CatalogCache
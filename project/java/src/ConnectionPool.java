@@ -0,0 +1,368 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of physical connections to Postgres.
+ *
+ * At most maxSize connections exist at once; borrowers beyond that wait up
+ * to borrowTimeoutMillis for one to be returned. A connection that has been
+ * idle longer than validateAfterIdleMillis is validated before it is handed
+ * out; one used more recently is handed out as is, since a connection that
+ * failed in use was marked broken and closed on release. Idle connections
+ * are closed by a background evictor once they have been idle longer than
+ * idleTimeoutMillis, down to minSize.
+ * Every pooled connection carries its own StatementCache.
+ */
+public class ConnectionPool {
+
+   /**
+    * Pool settings. The defaults can be overridden with the system
+    * properties hotel.pool.min, hotel.pool.max, hotel.pool.idleTimeout,
+    * hotel.pool.borrowTimeout and hotel.pool.validateAfterIdle (all three
+    * in milliseconds).
+    */
+   public static class Config {
+      public int minSize = Integer.getInteger("hotel.pool.min", 1);
+      public int maxSize = Integer.getInteger("hotel.pool.max", 8);
+      public long idleTimeoutMillis = Long.getLong("hotel.pool.idleTimeout", 5 * 60 * 1000L);
+      public long borrowTimeoutMillis = Long.getLong("hotel.pool.borrowTimeout", 30 * 1000L);
+      public long validateAfterIdleMillis = Long.getLong("hotel.pool.validateAfterIdle", 30 * 1000L);
+      public String validationQuery = "SELECT 1";
+   }//end Config
+
+   /**
+    * A physical connection together with the statements prepared on it.
+    */
+   public static class PooledConnection {
+      private final Connection _connection;
+      private final StatementCache _statements;
+      private final int _pid;
+      private long lastUsed;
+      private boolean broken;
+
+      PooledConnection(Connection connection, int pid){
+         this._connection = connection;
+         this._statements = new StatementCache(connection);
+         this._pid = pid;
+         this.lastUsed = System.currentTimeMillis();
+      }
+
+      public Connection getConnection(){
+         return _connection;
+      }
+
+      public StatementCache getStatements(){
+         return _statements;
+      }
+
+      /**
+       * Flags the connection so that it is closed instead of being returned
+       * to the pool, e.g. after a connection-level SQLException.
+       */
+      public void markBroken(){
+         broken = true;
+      }
+
+      void close(){
+         _statements.close();
+         try{
+            _connection.close();
+         }catch (SQLException e){
+            // ignored.
+         }
+      }
+   }//end PooledConnection
+
+   private final String _url;
+   private final String _user;
+   private final String _password;
+   private final Config _config;
+
+   private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+   private final Semaphore _permits;
+   private final AtomicInteger _open = new AtomicInteger();
+   // backend process IDs of the open connections, to tell our own notifications apart
+   private final ConcurrentHashMap<Integer, Boolean> _pids = new ConcurrentHashMap<Integer, Boolean>();
+   private final ScheduledExecutorService _evictor;
+   private volatile boolean _closed = false;
+
+   // wait time metrics
+   private final AtomicLong _borrows = new AtomicLong();
+   private final AtomicLong _waitNanos = new AtomicLong();
+   private final AtomicLong _maxWaitNanos = new AtomicLong();
+   private final AtomicLong _timeouts = new AtomicLong();
+   private final AtomicLong _created = new AtomicLong();
+   private final AtomicLong _evicted = new AtomicLong();
+   private final AtomicLong _invalid = new AtomicLong();
+
+   /**
+    * Creates the pool and opens minSize connections up front so that a bad
+    * URL or a stopped server is reported immediately; the connections
+    * already opened are closed again when one fails.
+    *
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public ConnectionPool(String url, String user, String password, Config config) throws SQLException {
+      if (config.minSize < 0 || config.maxSize < 1 || config.minSize > config.maxSize){
+         throw new IllegalArgumentException("invalid pool size: min=" + config.minSize + " max=" + config.maxSize);
+      }
+      this._url = url;
+      this._user = user;
+      this._password = password;
+      this._config = config;
+      this._permits = new Semaphore(config.maxSize, true);
+
+      try{
+         for (int i = 0; i < config.minSize; ++i){
+            _idle.offerFirst(open());
+         }
+      }catch (SQLException e){
+         closeIdle();
+         throw e;
+      }catch (RuntimeException e){
+         closeIdle();
+         throw e;
+      }
+
+      this._evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+         public Thread newThread(Runnable r){
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      long period = Math.max(1000L, config.idleTimeoutMillis / 2);
+      _evictor.scheduleWithFixedDelay(new Runnable(){
+         public void run(){
+            evictIdle();
+         }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Takes a connection from the pool, opening a new one if none is idle and
+    * the pool is below maxSize. Must be paired with release().
+    *
+    * @return a usable connection
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public PooledConnection borrow() throws SQLException {
+      if (_closed){
+         throw new SQLException("connection pool is closed");
+      }
+      long start = System.nanoTime();
+      try{
+         if (!_permits.tryAcquire(_config.borrowTimeoutMillis, TimeUnit.MILLISECONDS)){
+            _timeouts.incrementAndGet();
+            throw new SQLException("timed out after " + _config.borrowTimeoutMillis + " ms waiting for a database connection");
+         }
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("interrupted while waiting for a database connection");
+      }
+      recordWait(System.nanoTime() - start);
+
+      try{
+         PooledConnection pc;
+         while ((pc = _idle.pollFirst()) != null){
+            // a round trip per borrow would double the cost of every query
+            if (System.currentTimeMillis() - pc.lastUsed < _config.validateAfterIdleMillis || validate(pc)){
+               return pc;
+            }
+            _invalid.incrementAndGet();
+            destroy(pc);
+         }
+         return open();
+      }catch (SQLException e){
+         _permits.release();
+         throw e;
+      }catch (RuntimeException e){
+         _permits.release();
+         throw e;
+      }
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection. Broken or closed connections are
+    * discarded rather than pooled.
+    */
+   public void release(PooledConnection pc){
+      try{
+         if (_closed || pc.broken || pc._connection.isClosed()){
+            destroy(pc);
+         }else{
+            pc.lastUsed = System.currentTimeMillis();
+            // most recently used first keeps the hot connections (and their plans) busy
+            _idle.offerFirst(pc);
+         }
+      }catch (SQLException e){
+         destroy(pc);
+      }finally{
+         _permits.release();
+      }
+   }//end release
+
+   /**
+    * Opens a connection to the same database that is not part of the pool,
+    * for a long-lived use such as LISTEN. The caller closes it.
+    */
+   public Connection openUnpooled() throws SQLException {
+      return DriverManager.getConnection(_url, _user, _password);
+   }
+
+   private PooledConnection open() throws SQLException {
+      Connection connection = DriverManager.getConnection(_url, _user, _password);
+      int pid;
+      try{
+         pid = backendPid(connection);
+      }catch (SQLException e){
+         connection.close();
+         throw e;
+      }
+      _open.incrementAndGet();
+      _created.incrementAndGet();
+      _pids.put(pid, Boolean.TRUE);
+      return new PooledConnection(connection, pid);
+   }
+
+   private void destroy(PooledConnection pc){
+      _open.decrementAndGet();
+      _pids.remove(pc._pid);
+      pc.close();
+   }
+
+   /**
+    * @return the process ID of the server backend serving the connection
+    * @throws java.sql.SQLException when failed to ask the server
+    */
+   public static int backendPid(Connection connection) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()");
+         rs.next();
+         int pid = rs.getInt(1);
+         rs.close();
+         return pid;
+      }finally{
+         stmt.close();
+      }
+   }
+
+   /**
+    * @return whether the backend is one of the pool's connections, such as
+    *         the sender of a notification
+    */
+   public boolean isPooledBackend(int pid){
+      return _pids.containsKey(pid);
+   }
+
+   private boolean validate(PooledConnection pc){
+      Statement stmt = null;
+      try{
+         if (pc._connection.isClosed()){
+            return false;
+         }
+         stmt = pc._connection.createStatement();
+         ResultSet rs = stmt.executeQuery(_config.validationQuery);
+         rs.close();
+         return true;
+      }catch (SQLException e){
+         return false;
+      }finally{
+         if (stmt != null){
+            try{
+               stmt.close();
+            }catch (SQLException e){
+               // ignored.
+            }
+         }
+      }
+   }//end validate
+
+   private void recordWait(long nanos){
+      _borrows.incrementAndGet();
+      _waitNanos.addAndGet(nanos);
+      long max;
+      while (nanos > (max = _maxWaitNanos.get())){
+         if (_maxWaitNanos.compareAndSet(max, nanos)) break;
+      }
+   }
+
+   /**
+    * Closes connections idle for longer than the idle timeout, oldest first,
+    * while more than minSize connections are open.
+    */
+   void evictIdle(){
+      long cutoff = System.currentTimeMillis() - _config.idleTimeoutMillis;
+      Iterator<PooledConnection> it = _idle.descendingIterator();
+      while (it.hasNext() && _open.get() > _config.minSize){
+         PooledConnection pc = it.next();
+         if (pc.lastUsed < cutoff && _idle.removeLastOccurrence(pc)){
+            _evicted.incrementAndGet();
+            destroy(pc);
+         }
+      }
+   }//end evictIdle
+
+   public int getOpenCount(){
+      return _open.get();
+   }
+
+   public int getIdleCount(){
+      return _idle.size();
+   }
+
+   public long getBorrowCount(){
+      return _borrows.get();
+   }
+
+   public double getMeanWaitMillis(){
+      long borrows = _borrows.get();
+      return borrows == 0 ? 0.0 : _waitNanos.get() / 1e6 / borrows;
+   }
+
+   public double getMaxWaitMillis(){
+      return _maxWaitNanos.get() / 1e6;
+   }
+
+   public long getTimeoutCount(){
+      return _timeouts.get();
+   }
+
+   public String toString(){
+      return String.format("open=%d idle=%d borrows=%d meanWait=%.3fms maxWait=%.3fms timeouts=%d created=%d evicted=%d invalid=%d",
+         getOpenCount(), getIdleCount(), getBorrowCount(), getMeanWaitMillis(), getMaxWaitMillis(),
+         getTimeoutCount(), _created.get(), _evicted.get(), _invalid.get());
+   }
+
+   /**
+    * Closes every idle connection and stops the evictor. Connections still
+    * borrowed are closed when they are released.
+    */
+   public void close(){
+      _closed = true;
+      _evictor.shutdownNow();
+      closeIdle();
+   }//end close
+
+   private void closeIdle(){
+      PooledConnection pc;
+      while ((pc = _idle.pollFirst()) != null){
+         destroy(pc);
+      }
+   }
+
+}//end ConnectionPool
@@ -0,0 +1,418 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the CSVs of project/data at any scale factor, with the same
+ * columns and headers, for load and benchmark runs.
+ *
+ * Scale factor 1 gives the size of the shipped data: 20 hotels, about 200
+ * rooms, 100 users, 500 bookings, 5 companies, 10 repairs and requests and
+ * 50 room updates. Every count grows linearly with the scale.
+ *
+ * The output is a function of the seed alone. Attributes of hotels, rooms
+ * and users (coordinates, number of rooms, manager, type) are derived
+ * from a hash of the seed and the entity's ID, so any table can refer to
+ * them without keeping other tables in memory, and foreign keys are always
+ * valid. Every file is written as a stream, one table per thread; the only
+ * per-table state is a bitset of one hotel's (room, day) slots.
+ *
+ * The data is skewed like real bookings:
+ *  - hotel popularity and repeat customers follow Zipf distributions, and
+ *    some managers run many hotels;
+ *  - hotels cluster around a few dozen cities;
+ *  - booking dates are denser in summer and December and grow year over
+ *    year, from 2000 to 2018;
+ *  - no room is booked twice for a day, as the unique key on RoomBookings
+ *    requires; a hotel whose share would exceed half of its slots passes
+ *    the rest on to the next hotel in popularity order.
+ *
+ * Usage: java DataGenerator <outputDir> [scale] [seed]
+ */
+public class DataGenerator {
+
+   // table salts, so each table's random stream is independent of the others
+   private static final long USERS = 1, HOTELS = 2, ROOMS = 3, COMPANIES = 4, BOOKINGS = 5,
+      REPAIRS = 6, UPDATES = 8, ROOM_COUNT = 9, MANAGER = 10, CITY = 11, PRICE = 12;
+
+   private static final LocalDate FIRST_BOOKING_DAY = LocalDate.of(2000, 1, 1);
+   private static final LocalDate LAST_BOOKING_DAY = LocalDate.of(2018, 12, 31);
+   private static final double[] MONTH_WEIGHTS = {0.6, 0.6, 0.8, 0.9, 1.0, 1.4, 1.6, 1.5, 1.0, 0.9, 0.8, 1.3};
+   private static final String[] FIRST_NAMES = {"Amy", "Paige", "Karianne", "Luz", "Aubrey", "Rozella", "Clotilde",
+      "Noah", "Mateo", "Olivia", "Liam", "Emma", "Ava", "Lucas", "Mia", "Ethan", "Zoe", "Omar", "Priya", "Chen"};
+
+   /**
+    * Samples ranks 1..n with probability falling as rank^-s, by inverting
+    * the continuous power law; rank 1 is the most likely.
+    */
+   static class Zipf {
+      final long n;
+      final double s;
+      final double top;
+
+      Zipf(long n, double s){
+         this.n = n;
+         this.s = s;
+         this.top = s == 1.0 ? Math.log(n + 1) : (Math.pow(n + 1, 1 - s) - 1) / (1 - s);
+      }
+
+      // share of the distribution below rank x (continuous), 0 at 1 and 1 at n + 1
+      double cdf(double x){
+         return s == 1.0 ? Math.log(x) / top : (Math.pow(x, 1 - s) - 1) / (1 - s) / top;
+      }
+
+      long sample(double u){
+         double x = s == 1.0 ? Math.exp(u * top) : Math.pow(u * top * (1 - s) + 1, 1 / (1 - s));
+         return Math.min(n, Math.max(1, (long) x));
+      }
+   }//end Zipf
+
+   /**
+    * A bijection of 1..n that spreads popular ranks over the ID range, so
+    * the most popular hotel or customer is not simply ID 1.
+    */
+   static class Scramble {
+      final long n;
+      final long p;
+
+      Scramble(long n, long seed){
+         this.n = n;
+         long p = (Math.abs(seed % 1000003L) + 1000003L) | 1;
+         while (gcd(p, n) != 1) p += 2;
+         this.p = p;
+      }
+
+      long id(long rank){
+         return rank % n * (p % n) % n + 1;
+      }
+
+      static long gcd(long a, long b){
+         return b == 0 ? a : gcd(b, a % b);
+      }
+   }//end Scramble
+
+   private final File _dir;
+   private final long _seed;
+   private final long _hotels, _users, _managers, _companies, _bookings, _repairs, _updates;
+   private final int _cities;
+   private final Zipf _managerZipf;
+
+   // booking days with their cumulative seasonal weights
+   private final LocalDate[] _days;
+   private final String[] _dayText;
+   private final double[] _dayWeights;
+
+   public DataGenerator(File dir, double scale, long seed){
+      this._dir = dir;
+      this._seed = seed;
+      this._hotels = count(20, scale);
+      this._users = Math.max(3, count(100, scale));
+      this._managers = Math.max(1, _users * 6 / 100);
+      this._companies = count(5, scale);
+      this._bookings = count(500, scale);
+      this._repairs = count(10, scale);
+      this._updates = count(50, scale);
+      this._cities = (int) Math.max(1, Math.min(64, _hotels / 4));
+      this._managerZipf = new Zipf(_managers, 0.9);
+
+      int n = (int) (LAST_BOOKING_DAY.toEpochDay() - FIRST_BOOKING_DAY.toEpochDay() + 1);
+      _days = new LocalDate[n];
+      _dayText = new String[n];
+      _dayWeights = new double[n];
+      double total = 0;
+      for (int i = 0; i < n; ++i){
+         LocalDate day = FIRST_BOOKING_DAY.plusDays(i);
+         _days[i] = day;
+         _dayText[i] = usDate(day);
+         // later years see more bookings
+         total += MONTH_WEIGHTS[day.getMonthValue() - 1] * (1 + 0.1 * (day.getYear() - FIRST_BOOKING_DAY.getYear()));
+         _dayWeights[i] = total;
+      }
+      for (int i = 0; i < n; ++i){
+         _dayWeights[i] /= total;
+      }
+   }//end DataGenerator
+
+   private static long count(long base, double scale){
+      return Math.max(1, Math.round(base * scale));
+   }
+
+   private static String usDate(LocalDate day){
+      return day.getMonthValue() + "/" + day.getDayOfMonth() + "/" + day.getYear();
+   }
+
+   // ------------------------------------------------------------------
+   // attributes derived from IDs
+
+   // SplitMix64 finalizer: a well mixed 64 bit hash
+   static long mix(long z){
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return z ^ (z >>> 31);
+   }
+
+   // a uniform double in [0, 1) for an entity and an attribute
+   private double uniform(long salt, long id){
+      return (mix(_seed * 0x9E3779B97F4A7C15L + salt * 0xC2B2AE3D27D4EB4FL + id) >>> 11) * 0x1.0p-53;
+   }
+
+   /** Rooms of a hotel, 5 to 15, 10 on average. */
+   int roomsOf(long hotelID){
+      return 5 + (int) (uniform(ROOM_COUNT, hotelID) * 11);
+   }
+
+   /** The manager of a hotel; a few managers run many hotels. */
+   long managerOf(long hotelID){
+      return managerID(_managerZipf.sample(uniform(MANAGER, hotelID)));
+   }
+
+   // users: 1 is the admin, 2..managers+1 are managers, the rest are customers
+   long managerID(long k){
+      return 1 + k;
+   }
+
+   long customers(){
+      return Math.max(1, _users - _managers - 1);
+   }
+
+   long customerID(long k){
+      return Math.min(_users, _managers + 1 + k);
+   }
+
+   private String userType(long userID){
+      if (userID == 1) return "admin";
+      return userID <= _managers + 1 ? "manager" : "customer";
+   }
+
+   private int bookingDay(double u){
+      int i = java.util.Arrays.binarySearch(_dayWeights, u);
+      return Math.min(_days.length - 1, i < 0 ? -i - 1 : i);
+   }
+
+   // standard normal, by Box-Muller; SplittableRandom has no nextGaussian()
+   private static double gaussian(SplittableRandom random){
+      return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+   }
+
+   private static String word(SplittableRandom random, int length){
+      char[] c = new char[length];
+      for (int i = 0; i < length; ++i){
+         c[i] = (char) ('a' + random.nextInt(26));
+      }
+      return new String(c);
+   }
+
+   // ------------------------------------------------------------------
+   // tables
+
+   private Writer open(String name, String header) throws IOException {
+      Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(_dir, name)), StandardCharsets.UTF_8), 1 << 16);
+      out.write(header);
+      out.write('\n');
+      return out;
+   }
+
+   long writeUsers() throws IOException {
+      SplittableRandom random = new SplittableRandom(_seed ^ USERS);
+      try (Writer out = open("users.csv", "userID,name,password,userType")){
+         for (long id = 1; id <= _users; ++id){
+            String name = id == 1 ? "Admin" : FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + id;
+            out.write(id + "," + name + "," + word(random, 5 + random.nextInt(6)) + "," + userType(id) + "\n");
+         }
+      }
+      return _users;
+   }//end writeUsers
+
+   long writeHotels() throws IOException {
+      SplittableRandom random = new SplittableRandom(_seed ^ HOTELS);
+      try (Writer out = open("hotels.csv", "hotelID,hotelName,latitude,longitude,dateEstablished,managerUserID")){
+         for (long id = 1; id <= _hotels; ++id){
+            // hotels gather around cities
+            int city = (int) (uniform(CITY, id) * _cities);
+            double cityLat = 5 + uniform(CITY, -city - 1) * 90;
+            double cityLon = 5 + uniform(CITY, -city - 1000) * 90;
+            double lat = Math.min(99.99999, Math.max(0, cityLat + gaussian(random) * 3));
+            double lon = Math.min(99.99999, Math.max(0, cityLon + gaussian(random) * 3));
+            LocalDate established = LocalDate.of(1900, 1, 1).plusDays(random.nextInt(110 * 365));
+            out.write(id + "," + word(random, 4) + "," + String.format(Locale.ROOT, "%.5f,%.5f", lat, lon)
+               + "," + usDate(established) + "," + managerOf(id) + "\n");
+         }
+      }
+      return _hotels;
+   }//end writeHotels
+
+   long writeRooms() throws IOException {
+      SplittableRandom random = new SplittableRandom(_seed ^ ROOMS);
+      long rows = 0;
+      try (Writer out = open("rooms.csv", "hotelID,roomNumber,price,imageURL")){
+         for (long hotel = 1; hotel <= _hotels; ++hotel){
+            // a hotel's rooms are priced around its own level
+            int level = 100 + (int) (uniform(PRICE, hotel) * 1500);
+            int rooms = roomsOf(hotel);
+            for (int room = 1; room <= rooms; ++room){
+               int price = Math.max(15, level + (int) (gaussian(random) * level / 5));
+               out.write(hotel + "," + room + "," + price + "," + word(random, 4) + "\n");
+               rows++;
+            }
+         }
+      }
+      return rows;
+   }//end writeRooms
+
+   long writeCompanies() throws IOException {
+      SplittableRandom random = new SplittableRandom(_seed ^ COMPANIES);
+      try (Writer out = open("company.csv", "companyID,name,address")){
+         for (long id = 1; id <= _companies; ++id){
+            out.write(id + "," + word(random, 1).toUpperCase() + "-com" + (id > 26 ? id : "") + "," + word(random, 4) + "\n");
+         }
+      }
+      return _companies;
+   }//end writeCompanies
+
+   /**
+    * Bookings are written hotel by hotel in order of popularity; each hotel
+    * gets its Zipf share of the total, capped at half of its (room, day)
+    * slots, with any excess carried over to the next hotel.
+    */
+   long writeBookings() throws IOException {
+      SplittableRandom random = new SplittableRandom(_seed ^ BOOKINGS);
+      Zipf popularity = new Zipf(_hotels, 0.8);
+      Scramble hotels = new Scramble(_hotels, _seed ^ HOTELS);
+      Zipf loyalty = new Zipf(customers(), 1.0);
+      Scramble customers = new Scramble(customers(), _seed ^ USERS);
+
+      long[] slots = new long[1];
+      int[] used = new int[1024];
+      long written = 0;
+      try (Writer out = open("bookings.csv", "bookingID,customerID,hotelID,roomNumber,bookingDate")){
+         for (long rank = 1; rank <= _hotels && written < _bookings; ++rank){
+            long hotel = hotels.id(rank);
+            int rooms = roomsOf(hotel);
+            int capacity = rooms * _days.length;
+            long target = rank == _hotels ? _bookings : Math.round(_bookings * popularity.cdf(rank + 1));
+            long count = Math.min(capacity / 2, Math.max(0, target - written));
+
+            if (slots.length < (capacity + 63) >>> 6){
+               slots = new long[(capacity + 63) >>> 6];
+            }
+            int usedCount = 0;
+            for (long b = 0; b < count; ++b){
+               int day = bookingDay(random.nextDouble());
+               int room = random.nextInt(rooms);
+               int slot = day * rooms + room;
+               // taken: move on to the next free slot, which at most half full is close by
+               while ((slots[slot >>> 6] & (1L << slot)) != 0){
+                  slot = slot + 1 == capacity ? 0 : slot + 1;
+               }
+               slots[slot >>> 6] |= 1L << slot;
+               if (usedCount == used.length) used = java.util.Arrays.copyOf(used, used.length * 2);
+               used[usedCount++] = slot;
+
+               long customer = customerID(customers.id(loyalty.sample(random.nextDouble())));
+               written++;
+               out.write(written + "," + customer + "," + hotel + "," + (slot % rooms + 1) + "," + _dayText[slot / rooms] + "\n");
+            }
+            // clear only the bits this hotel set
+            for (int i = 0; i < usedCount; ++i){
+               slots[used[i] >>> 6] = 0;
+            }
+         }
+      }
+      return written;
+   }//end writeBookings
+
+   long writeRepairs() throws IOException {
+      SplittableRandom random = new SplittableRandom(_seed ^ REPAIRS);
+      LocalDate first = LocalDate.of(2020, 1, 1);
+      try (Writer out = open("roomRepairs.csv", "repairID,companyID,hotelID,roomNumber,repairDate");
+           Writer req = open("roomRepairRequests.csv", "requestNumber,managerID,repairID")){
+         for (long id = 1; id <= _repairs; ++id){
+            long hotel = 1 + random.nextLong(_hotels);
+            int room = 1 + random.nextInt(roomsOf(hotel));
+            long company = 1 + random.nextLong(_companies);
+            out.write(id + "," + company + "," + hotel + "," + room + "," + usDate(first.plusDays(random.nextInt(3 * 365))) + "\n");
+            // the request comes from the hotel's manager
+            req.write(id + "," + managerOf(hotel) + "," + id + "\n");
+         }
+      }
+      return _repairs;
+   }//end writeRepairs
+
+   long writeRoomUpdates() throws IOException {
+      SplittableRandom random = new SplittableRandom(_seed ^ UPDATES);
+      LocalDateTime first = LocalDateTime.of(2016, 1, 1, 0, 0);
+      java.time.format.DateTimeFormatter format = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+      try (Writer out = open("roomUpdatesLog.csv", "updateNumber,managerID,hotelID,roomNumber,updatedOn")){
+         for (long id = 1; id <= _updates; ++id){
+            long hotel = 1 + random.nextLong(_hotels);
+            int room = 1 + random.nextInt(roomsOf(hotel));
+            LocalDateTime on = first.plusMinutes(random.nextInt(3 * 365 * 24 * 60));
+            out.write(id + "," + managerOf(hotel) + "," + hotel + "," + room + "," + format.format(on) + "\n");
+         }
+      }
+      return _updates;
+   }//end writeRoomUpdates
+
+   /**
+    * Writes every table, one per thread, and prints the rows and time of
+    * each.
+    */
+   public void generate() throws Exception {
+      if (!_dir.isDirectory() && !_dir.mkdirs()){
+         throw new IOException("cannot create " + _dir);
+      }
+      List<String> names = new ArrayList<String>();
+      List<Callable<Long>> tables = new ArrayList<Callable<Long>>();
+      names.add("users");          tables.add(this::writeUsers);
+      names.add("hotels");         tables.add(this::writeHotels);
+      names.add("rooms");          tables.add(this::writeRooms);
+      names.add("companies");      tables.add(this::writeCompanies);
+      names.add("bookings");       tables.add(this::writeBookings);
+      names.add("repairs");        tables.add(this::writeRepairs);
+      names.add("room updates");   tables.add(this::writeRoomUpdates);
+
+      ExecutorService workers = Executors.newFixedThreadPool(Math.min(tables.size(), Runtime.getRuntime().availableProcessors()));
+      try{
+         long start = System.nanoTime();
+         List<Future<Long>> rows = new ArrayList<Future<Long>>();
+         for (Callable<Long> table : tables){
+            rows.add(workers.submit(table));
+         }
+         for (int i = 0; i < rows.size(); ++i){
+            System.out.println(String.format("%-14s %,14d rows", names.get(i), rows.get(i).get()));
+         }
+         System.out.println(String.format("done in %.1f s", (System.nanoTime() - start) / 1e9));
+      }finally{
+         workers.shutdown();
+      }
+   }//end generate
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1 || args.length > 3){
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <outputDir> [scale] [seed]");
+         return;
+      }//end if
+      double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+      long seed = args.length > 2 ? Long.parseLong(args[2]) : 166;
+      new DataGenerator(new File(args[0]), scale, seed).generate();
+   }//end main
+
+}//end DataGenerator
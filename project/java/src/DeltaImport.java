@@ -0,0 +1,232 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Merges a daily delta of new hotels, room changes and new bookings into a
+ * loaded database, without reloading it.
+ *
+ * A delta directory holds any of hotels.csv, rooms.csv and bookings.csv, in
+ * the formats of project/data. Each file is first streamed into a
+ * temporary staging table, the same way BulkLoader loads (COPY when the
+ * driver supports it, batched INSERTs otherwise), so the real tables are
+ * not touched while the file is read. The staged rows are then merged in
+ * batches of hotel.delta.batch rows (default 10000), one short transaction
+ * each, so locks are held briefly and readers are never blocked:
+ *  - hotels are upserted on hotelID;
+ *  - rooms are upserted on (hotelID, roomNumber); every price change is
+ *    logged in RoomUpdatesLog in the same transaction, under the hotel's
+ *    manager, as a manager's own update would be;
+ *  - bookings are inserted unless their bookingID or their room and day
+ *    are already taken. Bookings are history, so a repeated bookingID is
+ *    a row imported before, not a change; this also makes a delta safe to
+ *    import twice.
+ *
+ * Within a batch the last row of the file wins for a key; rows of the same
+ * key in later batches are applied after it. Rows that are unchanged are
+ * not rewritten.
+ *
+ * The triggers that tell running servers of hotel, room and booking changes
+ * are off while those are merged; one notification at the end stands for
+ * all rows.
+ *
+ * Usage: java DeltaImport <dbname> <port> <user> <deltaDir>
+ */
+public class DeltaImport {
+
+   /**
+    * The kinds of delta, in the order they are applied.
+    */
+   enum Delta {
+      HOTELS("Hotel", "hotels.csv",
+         "WITH d AS (SELECT DISTINCT ON (hotelID) * FROM delta_hotel WHERE delta_row > ? AND delta_row <= ? ORDER BY hotelID, delta_row DESC), " +
+         "merged AS (INSERT INTO Hotel (hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID) " +
+         "SELECT hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID FROM d " +
+         "ON CONFLICT (hotelID) DO UPDATE SET hotelName = EXCLUDED.hotelName, latitude = EXCLUDED.latitude, " +
+         "longitude = EXCLUDED.longitude, dateEstablished = EXCLUDED.dateEstablished, managerUserID = EXCLUDED.managerUserID " +
+         "WHERE (Hotel.hotelName, Hotel.latitude, Hotel.longitude, Hotel.dateEstablished, Hotel.managerUserID) " +
+         "IS DISTINCT FROM (EXCLUDED.hotelName, EXCLUDED.latitude, EXCLUDED.longitude, EXCLUDED.dateEstablished, EXCLUDED.managerUserID) " +
+         "RETURNING (xmax = 0) AS inserted) " +
+         "SELECT (SELECT count(*) FROM d), count(*) FILTER (WHERE inserted), count(*) FILTER (WHERE NOT inserted) FROM merged"),
+
+      // the log rows are written from the prices before the upsert, by the same statement
+      ROOMS("Rooms", "rooms.csv",
+         "WITH d AS (SELECT DISTINCT ON (hotelID, roomNumber) * FROM delta_rooms WHERE delta_row > ? AND delta_row <= ? ORDER BY hotelID, roomNumber, delta_row DESC), " +
+         "logged AS (INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) " +
+         "SELECT h.managerUserID, d.hotelID, d.roomNumber, now() FROM d " +
+         "JOIN Rooms r ON r.hotelID = d.hotelID AND r.roomNumber = d.roomNumber JOIN Hotel h ON h.hotelID = d.hotelID " +
+         "WHERE r.price <> d.price RETURNING 1), " +
+         "merged AS (INSERT INTO Rooms (hotelID, roomNumber, price, imageURL) SELECT hotelID, roomNumber, price, imageURL FROM d " +
+         "ON CONFLICT (hotelID, roomNumber) DO UPDATE SET price = EXCLUDED.price, imageURL = EXCLUDED.imageURL " +
+         "WHERE (Rooms.price, Rooms.imageURL) IS DISTINCT FROM (EXCLUDED.price, EXCLUDED.imageURL) " +
+         "RETURNING (xmax = 0) AS inserted) " +
+         "SELECT (SELECT count(*) FROM d), count(*) FILTER (WHERE inserted), count(*) FILTER (WHERE NOT inserted), " +
+         "(SELECT count(*) FROM logged) FROM merged"),
+
+      BOOKINGS("RoomBookings", "bookings.csv",
+         "WITH d AS (SELECT DISTINCT ON (hotelID, roomNumber, bookingDate) * FROM " +
+         "(SELECT DISTINCT ON (bookingID) * FROM delta_roombookings WHERE delta_row > ? AND delta_row <= ? ORDER BY bookingID, delta_row DESC) b " +
+         "ORDER BY hotelID, roomNumber, bookingDate, delta_row DESC), " +
+         "merged AS (INSERT INTO RoomBookings (bookingID, customerID, hotelID, roomNumber, bookingDate) " +
+         "SELECT bookingID, customerID, hotelID, roomNumber, bookingDate FROM d ON CONFLICT DO NOTHING RETURNING 1) " +
+         "SELECT (SELECT count(*) FROM d), count(*), 0 FROM merged");
+
+      final String tableName;
+      final String fileName;
+      final String merge;
+
+      Delta(String tableName, String fileName, String merge){
+         this.tableName = tableName;
+         this.fileName = fileName;
+         this.merge = merge;
+      }
+
+      String staging(){
+         return "delta_" + tableName.toLowerCase();
+      }
+   }//end Delta
+
+   /**
+    * What one delta file did.
+    */
+   static class Result {
+      long staged, merged, inserted, updated, logged, batches;
+      long nanos;
+
+      @Override
+      public String toString(){
+         return String.format("%,d rows staged, %,d inserted, %,d updated, %,d unchanged or skipped, %,d price changes logged, %,d batches, %.2f s, %,.0f rows/s",
+            staged, inserted, updated, merged - inserted - updated, logged, batches, nanos / 1e9, nanos == 0 ? 0 : staged * 1e9 / nanos);
+      }
+   }//end Result
+
+   private final Connection _connection;
+   private final int _batchSize;
+
+   public DeltaImport(Connection connection, int batchSize){
+      if (batchSize < 1){
+         throw new IllegalArgumentException("batch size must be at least 1");
+      }
+      this._connection = connection;
+      this._batchSize = batchSize;
+   }
+
+   private void execute(String sql) throws SQLException {
+      try (Statement stmt = _connection.createStatement()){
+         stmt.execute(sql);
+      }
+   }
+
+   /**
+    * Copies the file into a fresh staging table shaped like the target
+    * table, plus a delta_row column numbering the rows in file order.
+    *
+    * @return the number of rows staged
+    */
+   long stage(Delta delta, File file) throws SQLException, IOException {
+      String staging = delta.staging();
+      execute("DROP TABLE IF EXISTS " + staging);
+      execute("CREATE TEMP TABLE " + staging + " (LIKE " + delta.tableName + ")");
+      execute("ALTER TABLE " + staging + " ADD COLUMN delta_row bigserial");
+
+      String columns = BulkLoader.columnNames(_connection, delta.tableName);
+      Object copyApi = BulkLoader.copyApi(_connection);
+      long rows = copyApi != null
+         ? BulkLoader.copy(copyApi, staging, columns, file)
+         : BulkLoader.insert(_connection, staging, columns, file, _batchSize);
+
+      execute("CREATE INDEX ON " + staging + " (delta_row)");
+      execute("ANALYZE " + staging);
+      return rows;
+   }//end stage
+
+   /**
+    * Stages and merges one delta file.
+    *
+    * @throws java.sql.SQLException when a batch is rejected, e.g. for a
+    *         hotel whose manager does not exist; earlier batches stay
+    *         committed, so a fixed file can simply be imported again
+    */
+   public Result apply(Delta delta, File file) throws SQLException, IOException {
+      long start = System.nanoTime();
+      Result result = new Result();
+      result.staged = stage(delta, file);
+
+      long last;
+      try (Statement stmt = _connection.createStatement();
+           ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(delta_row), 0) FROM " + delta.staging())){
+         rs.next();
+         last = rs.getLong(1);
+      }
+
+      // running servers hear of the merge once, at the end, instead of once per row
+      String quiet = CatalogCache.alterTrigger(delta.tableName, false);
+      if (quiet != null) execute(quiet);
+
+      boolean autoCommit = _connection.getAutoCommit();
+      _connection.setAutoCommit(false);
+      try (PreparedStatement merge = _connection.prepareStatement(delta.merge)){
+         for (long from = 0; from < last; from += _batchSize){
+            merge.setLong(1, from);
+            merge.setLong(2, Math.min(last, from + _batchSize));
+            try (ResultSet rs = merge.executeQuery()){
+               rs.next();
+               result.merged += rs.getLong(1);
+               result.inserted += rs.getLong(2);
+               result.updated += rs.getLong(3);
+               if (delta == Delta.ROOMS) result.logged += rs.getLong(4);
+            }
+            _connection.commit();
+            result.batches++;
+         }
+      }catch (SQLException e){
+         _connection.rollback();
+         throw new SQLException(delta.tableName + " batch " + (result.batches + 1) + ": " + e.getMessage());
+      }finally{
+         _connection.setAutoCommit(autoCommit);
+         if (quiet != null){
+            execute(CatalogCache.alterTrigger(delta.tableName, true));
+            execute("NOTIFY " + CatalogCache.notifyChannel(delta.tableName));
+         }
+      }
+
+      if (delta == Delta.BOOKINGS){
+         // imported bookingIDs must not be handed out again by the sequence
+         execute("SELECT setval('" + IdAllocator.Sequence.BOOKING.getSequenceName() + "', GREATEST(MAX(bookingID), "
+            + "(SELECT last_value FROM " + IdAllocator.Sequence.BOOKING.getSequenceName() + "))) FROM RoomBookings");
+      }
+      execute("DROP TABLE " + delta.staging());
+      execute("ANALYZE " + delta.tableName);
+      result.nanos = System.nanoTime() - start;
+      return result;
+   }//end apply
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DeltaImport.class.getName () +
+            " <dbname> <port> <user> <deltaDir>");
+         return;
+      }//end if
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      File dir = new File(args[3]);
+      try (Connection connection = DriverManager.getConnection(url, args[2], "")){
+         DeltaImport importer = new DeltaImport(connection, Integer.getInteger("hotel.delta.batch", 10000));
+         for (Delta delta : Delta.values()){
+            File file = new File(dir, delta.fileName);
+            if (!file.isFile()) continue;
+            System.out.println(String.format("%-14s %s", delta.tableName, importer.apply(delta, file)));
+         }
+      }
+   }//end main
+
+}//end DeltaImport
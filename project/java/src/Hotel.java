@@ -9,18 +9,20 @@
  * Target DBMS: 'Postgres'
  *
  */
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 import java.lang.Math;
 import java.util.Date;
 import java.util.Calendar;
@@ -40,59 +42,44 @@ import java.time.Instant;
 
 public class Hotel {
 
+   // the session of the user at this terminal; HotelService itself keeps no session
+   private static AuthorizedUser authenticatedUser=null;
 
+   // reference to the pool of physical database connections.
+   private ConnectionPool _pool = null;
 
-public class AuthorizedUser{
-   private int userId;
-   private String username;
-   private String usertype;
-   private boolean _authenticated;
+   // hotel coordinates, answers radius searches without a round trip
+   private final HotelSpatialIndex _hotelIndex = new HotelSpatialIndex(this);
 
-   public AuthorizedUser(){
-      _authenticated = false;
-   }
+   // booked rooms per hotel and day, answers room availability listings
+   private final RoomAvailabilityIndex _availability = new RoomAvailabilityIndex(this);
 
-   public boolean isAuthenticated(){
-      return _authenticated;
-   }
+   // hotels and rooms with their prices, kept current by LISTEN/NOTIFY
+   private final CatalogCache _catalog = new CatalogCache(this);
 
-   public int getUserID(){
-      return userId;
-   }
+   // short-lived results of read queries, dropped by updates of their tables
+   private final QueryResultCache _results = new QueryResultCache();
 
-   public String getUserName(){
-      return username;
-   }
-   public String getUserType(){
-      return usertype;
-   }
-   public void SetInfo(int id,String user,String utype){
-      username = user;
-      userId = id;
-      usertype = utype;
-      _authenticated = true;
-   }
-    /* bs method i have to implemented because its a static class that i cant pass around varibles*/
-   public void UnAuthenticate(){
-       _authenticated = false;
-   }
+   // the customers with the most bookings at each hotel
+   private final TopKCustomers _topCustomers = new TopKCustomers(this);
 
-   public boolean HasElevatedRights(){
+   // reserve-and-insert for bookings, safe under concurrent callers
+   private final BookingEngine _bookings = new BookingEngine(this);
 
-       if(usertype.equals("admin")|| usertype.equals("manager")){
-         return true;
-       }
-       return false;
-   }
-   
-}
+   // primary keys for new rows, reserved from the sequences in blocks
+   private final IdAllocator _ids = new IdAllocator(this);
 
+   // latency and errors of every operation and query, for JMX and Prometheus
+   private final HotelMetrics _metrics = new HotelMetrics();
 
+   // queries over hotel.slowlog.threshold ms, with their plans
+   private final SlowQueryLog _slowLog = new SlowQueryLog(this);
 
-   // reference to physical database connection.
+   // the operations behind the menus, without terminal I/O
+   private final HotelService _service = new HotelService(this);
 
-   private static AuthorizedUser authenticatedUser=null;
-   private Connection _connection = null;
+   // rows fetched per round trip by streaming queries
+   private int _fetchSize = Integer.getInteger("hotel.fetchSize", 500);
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -111,6 +98,14 @@ public class AuthorizedUser{
 
 
    public Hotel(String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd, new ConnectionPool.Config());
+   }//end Hotel
+
+   /**
+    * Creates a new instance of Hotel backed by a connection pool with the
+    * given settings.
+    */
+   public Hotel(String dbname, String dbport, String user, String passwd, ConnectionPool.Config poolConfig) throws SQLException {
 
       System.out.print("Connecting to database...");
       authenticatedUser = new AuthorizedUser();
@@ -120,8 +115,13 @@ public class AuthorizedUser{
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool of physical connections
+         this._pool = new ConnectionPool(url, user, passwd, poolConfig);
+         _metrics.startDumping();
+         if (!_catalog.startListening()){
+            // with no listener to wait for, nothing announced can be missed
+            _topCustomers.startLoading();
+         }
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -130,12 +130,101 @@ public class AuthorizedUser{
       }//end catch
    }//end Hotel
 
+   /**
+    * @return the connection pool behind this instance, e.g. for its metrics
+    */
+   public ConnectionPool getPool(){
+      return _pool;
+   }
+
+   /**
+    * @return the in-memory spatial index over the hotels
+    */
+   public HotelSpatialIndex getHotelIndex(){
+      return _hotelIndex;
+   }
+
+   /**
+    * @return the cache of hotels and rooms
+    */
+   public CatalogCache getCatalog(){
+      return _catalog;
+   }
+
+   /**
+    * @return the cache of read query results
+    */
+   public QueryResultCache getResultCache(){
+      return _results;
+   }
+
+   /**
+    * @return the ranking of each hotel's regular customers
+    */
+   public TopKCustomers getTopCustomers(){
+      return _topCustomers;
+   }
+
+   /**
+    * @return the in-memory index of booked rooms per hotel and day
+    */
+   public RoomAvailabilityIndex getAvailabilityIndex(){
+      return _availability;
+   }
+
+   /**
+    * @return the engine that books rooms without double bookings
+    */
+   public BookingEngine getBookingEngine(){
+      return _bookings;
+   }
+
+   /**
+    * @return the allocator of primary keys for new rows
+    */
+   public IdAllocator getIdAllocator(){
+      return _ids;
+   }
+
+   /**
+    * @return the operations of the hotel system, for any front end
+    */
+   public HotelService getService(){
+      return _service;
+   }
+
+   /**
+    * @return the latency histograms and error counts of this instance
+    */
+   public HotelMetrics getMetrics(){
+      return _metrics;
+   }
+
+   /**
+    * @return the log of queries slower than hotel.slowlog.threshold
+    */
+   public SlowQueryLog getSlowQueryLog(){
+      return _slowLog;
+   }
+
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
    public double calculateDistance (double lat1, double long1, double lat2, double long2){
       double t1 = (lat1 - lat2) * (lat1 - lat2);
       double t2 = (long1 - long2) * (long1 - long2);
       return Math.sqrt(t1 + t2); 
    }
+
+   /**
+    * Flags a connection that failed with a connection-level error (SQLSTATE
+    * class 08, or no state at all) so the pool discards it on release.
+    */
+   private static void checkBroken(ConnectionPool.PooledConnection pc, SQLException e){
+      String state = e.getSQLState();
+      if (state == null || state.startsWith("08")){
+         pc.markBroken();
+      }
+   }
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -144,14 +233,28 @@ public class AuthorizedUser{
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         // creates a statement object
+         Statement stmt = pc.getConnection().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         int rows = stmt.executeUpdate (sql);
+         QueryTracer.record(sql, rows, 0, start);
+         _results.invalidate(sql);
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.statement("executeUpdate").error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.statement("executeUpdate").recordSince(start);
+         _slowLog.record(sql, start);
+      }
    }//end executeUpdate
 
    /**
@@ -164,8 +267,11 @@ public class AuthorizedUser{
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = pc.getConnection().createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
@@ -194,7 +300,17 @@ public class AuthorizedUser{
          ++rowCount;
       }//end while
       stmt.close ();
+      QueryTracer.record(query, rowCount, -1, start);
       return rowCount;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.statement("executeQueryAndPrintResult").error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.statement("executeQueryAndPrintResult").recordSince(start);
+         _slowLog.record(query, start);
+      }
    }//end executeQuery
 
    /**
@@ -207,32 +323,51 @@ public class AuthorizedUser{
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         // creates a statement object
+         Statement stmt = pc.getConnection().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         List<List<String>> result = readAll(rs);
+         stmt.close ();
+         QueryTracer.record(query, result.size(), QueryTracer.isTracing() ? QueryTracer.bytes(result) : -1, start);
+         return result;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.statement("executeQueryAndReturnResult").error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.statement("executeQueryAndReturnResult").recordSince(start);
+         _slowLog.record(query, start);
+      }
+   }//end executeQueryAndReturnResult
 
+   /**
+    * Reads every remaining row of the result set into a list of records.
+    */
+   private static List<List<String>> readAll (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
        */
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
 
       // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
       List<List<String>> result  = new ArrayList<List<String>>();
       while (rs.next()){
-        List<String> record = new ArrayList<String>();
+        List<String> record = new ArrayList<String>(numCol);
 		for (int i=1; i<=numCol; ++i)
 			record.add(rs.getString (i));
         result.add(record);
       }//end while
-      stmt.close ();
+      rs.close ();
       return result;
-   }//end executeQueryAndReturnResult
+   }//end readAll
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -243,8 +378,11 @@ public class AuthorizedUser{
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
        // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       Statement stmt = pc.getConnection().createStatement ();
 
        // issues the query instruction
        ResultSet rs = stmt.executeQuery (query);
@@ -256,47 +394,389 @@ public class AuthorizedUser{
           rowCount++;
        }//end while
        stmt.close ();
+       QueryTracer.record(query, rowCount, -1, start);
        return rowCount;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.statement("executeQuery").error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.statement("executeQuery").recordSince(start);
+         _slowLog.record(query, start);
+      }
    }
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys.
+    * Note that currval is session local, so this only sees a nextval issued
+    * on the same pooled connection.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
-
-      ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
+      return getNewUserID(String.format("Select currval('%s')", sequence));
    }
 
    public int getNewUserID(String sql) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
-      ResultSet rs = stmt.executeQuery (sql);
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         Statement stmt = pc.getConnection().createStatement ();
+         ResultSet rs = stmt.executeQuery (sql);
+         int value = -1;
+         if (rs.next())
+            value = rs.getInt(1);
+         stmt.close ();
+         QueryTracer.record(sql, value == -1 ? 0 : 1, 4, start);
+         return value;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.statement("getNewUserID").error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.statement("getNewUserID").recordSince(start);
+         _slowLog.record(sql, start);
+      }
    }
+
    /**
-    * Method to close the physical connection if it is open.
+    * Method to execute a named update statement (INSERT, UPDATE, DELETE)
+    * through the statement cache of a pooled connection.
+    *
+    * @param query the named query
+    * @param params the values bound to the query's parameters
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
     */
-   public void cleanup(){
+   public int executeUpdate (HotelQuery query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
+         PreparedStatement stmt = pc.getStatements().prepare(query, params);
+         int rows = stmt.executeUpdate ();
+         QueryTracer.record(query, HotelQuery.Shape.ROWS, params, rows, 0, start);
+         _results.invalidate(query);
+         return rows;
       }catch (SQLException e){
-         // ignored.
-      }//end try
+         checkBroken(pc, e);
+         _metrics.query(query).error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.query(query).recordSince(start);
+         _slowLog.record(query, HotelQuery.Shape.ROWS, params, start);
+      }
+   }//end executeUpdate
+
+   /**
+    * Method to execute a named query through the statement cache of a
+    * pooled connection and return the results as a list of records.
+    *
+    * @param query the named query
+    * @param params the values bound to the query's parameters
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (HotelQuery query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         PreparedStatement stmt = pc.getStatements().prepare(query, params);
+         List<List<String>> result = readAll(stmt.executeQuery ());
+         QueryTracer.record(query, HotelQuery.Shape.ROWS, params, result.size(), QueryTracer.isTracing() ? QueryTracer.bytes(result) : -1, start);
+         return result;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.query(query).error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.query(query).recordSince(start);
+         _slowLog.record(query, HotelQuery.Shape.ROWS, params, start);
+      }
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute a named query through the statement cache of a
+    * pooled connection and return the results as a typed, columnar table.
+    * Prefer this over executeQueryAndReturnResult: numbers and dates stay
+    * primitive and text is trimmed once.
+    *
+    * @param query the named query
+    * @param params the values bound to the query's parameters
+    * @return the query result as a table
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultTable executeQueryAndReturnTable (HotelQuery query, Object... params) throws SQLException {
+      long[] generations = null;
+      if (_results.isCached(query)){
+         ResultTable cached = _results.get(query, params);
+         if (cached != null){
+            return cached;
+         }
+         generations = _results.generations(query);
+      }
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         PreparedStatement stmt = pc.getStatements().prepare(query, params);
+         ResultTable table = ResultTable.read(stmt.executeQuery ());
+         QueryTracer.record(query, HotelQuery.Shape.ROWS, params, table.size(), QueryTracer.isTracing() ? table.estimateBytes() : -1, start);
+         if (generations != null){
+            _results.put(query, params, table, generations);
+         }
+         return table;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.query(query).error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.query(query).recordSince(start);
+         _slowLog.record(query, HotelQuery.Shape.ROWS, params, start);
+      }
+   }//end executeQueryAndReturnTable
+
+   /**
+    * Method to execute a named query through the statement cache of a
+    * pooled connection and return the number of rows.
+    *
+    * @param query the named query
+    * @param params the values bound to the query's parameters
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (HotelQuery query, Object... params) throws SQLException {
+      return executeQuery(query, (RowHandler) null, params);
+   }
+
+   /**
+    * Method to execute a named query through the statement cache of a
+    * pooled connection and hand each row to the handler. The result is
+    * read whole in one round trip, so this suits queries whose LIMIT
+    * bounds the rows; use executeQueryAndStream for unbounded ones.
+    *
+    * @param query the named query
+    * @param handler called once per row, or null to only count them
+    * @param params the values bound to the query's parameters
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (HotelQuery query, RowHandler handler, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         PreparedStatement stmt = pc.getStatements().prepare(query, params);
+         ResultSet rs = stmt.executeQuery ();
+         int rowCount = 0;
+         while (rs.next()){
+            if (handler != null) handler.handle(rs);
+            rowCount++;
+         }//end while
+         rs.close ();
+         QueryTracer.record(query, HotelQuery.Shape.ROWS, params, rowCount, -1, start);
+         return rowCount;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.query(query).error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.query(query).recordSince(start);
+         _slowLog.record(query, HotelQuery.Shape.ROWS, params, start);
+      }
+   }
+
+   /**
+    * Method to test whether a named query returns any row. The query is sent
+    * as SELECT EXISTS (...), so the database stops at the first match and
+    * returns a single boolean.
+    *
+    * @param query the named query
+    * @param params the values bound to the query's parameters
+    * @return true when the query has at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean exists (HotelQuery query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         PreparedStatement stmt = pc.getStatements().prepare(query, HotelQuery.Shape.EXISTS, params);
+         ResultSet rs = stmt.executeQuery ();
+         boolean found = rs.next() && rs.getBoolean(1);
+         rs.close ();
+         QueryTracer.record(query, HotelQuery.Shape.EXISTS, params, 1, 1, start);
+         return found;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.query(query).error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.query(query).recordSince(start);
+         _slowLog.record(query, HotelQuery.Shape.EXISTS, params, start);
+      }
+   }//end exists
+
+   /**
+    * Method to count the rows of a named query. The query is sent as
+    * SELECT COUNT(*) FROM (...), so only the count crosses the wire.
+    *
+    * @param query the named query
+    * @param params the values bound to the query's parameters
+    * @return the number of rows the query would return
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long count (HotelQuery query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         PreparedStatement stmt = pc.getStatements().prepare(query, HotelQuery.Shape.COUNT, params);
+         ResultSet rs = stmt.executeQuery ();
+         long count = rs.next() ? rs.getLong(1) : 0;
+         rs.close ();
+         QueryTracer.record(query, HotelQuery.Shape.COUNT, params, 1, 8, start);
+         return count;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.query(query).error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.query(query).recordSince(start);
+         _slowLog.record(query, HotelQuery.Shape.COUNT, params, start);
+      }
+   }//end count
+
+   /**
+    * Method to fetch a single integer, such as the next value of a
+    * sequence, from a named query.
+    *
+    * @param query the named query
+    * @param params the values bound to the query's parameters
+    * @return the first column of the first row, or -1 when there is none
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int getNewUserID(HotelQuery query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      try{
+         PreparedStatement stmt = pc.getStatements().prepare(query, params);
+         ResultSet rs = stmt.executeQuery ();
+         int value = -1;
+         if (rs.next())
+            value = rs.getInt(1);
+         rs.close ();
+         QueryTracer.record(query, HotelQuery.Shape.ROWS, params, value == -1 ? 0 : 1, 4, start);
+         return value;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.query(query).error();
+         throw e;
+      }finally{
+         _pool.release(pc);
+         _metrics.query(query).recordSince(start);
+         _slowLog.record(query, HotelQuery.Shape.ROWS, params, start);
+      }
+   }
+   /**
+    * Sets how many rows streaming queries fetch from the server per round
+    * trip. This bounds the memory a streamed query holds at any time.
+    */
+   public void setFetchSize(int fetchSize){
+      if (fetchSize < 1){
+         throw new IllegalArgumentException("fetch size must be positive");
+      }
+      this._fetchSize = fetchSize;
+   }
+
+   /**
+    * Method to execute a named query and hand each row to the handler as it
+    * arrives instead of materializing the result. The query is declared as
+    * a server-side cursor in a transaction of its own and read with FETCH
+    * FORWARD, fetch size rows at a time, so memory stays constant whatever
+    * the row count. The bundled driver neither implements setFetchSize nor
+    * streams a result set, it reads each one whole, hence the explicit
+    * cursor; its connection is left in autocommit mode, where the driver
+    * sends BEGIN and COMMIT as they are and adds none of its own.
+    *
+    * @param query the named query
+    * @param handler called once per row
+    * @param params the values bound to the query's parameters
+    * @return the number of rows streamed
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndStream (HotelQuery query, RowHandler handler, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = _pool.borrow();
+      Connection connection = pc.getConnection();
+      boolean begun = false;
+      boolean done = false;
+      Statement stmt = null;
+      try{
+         // cursors only live inside a transaction; the driver passes BEGIN and COMMIT through as they are
+         stmt = connection.createStatement();
+         stmt.execute("BEGIN");
+         begun = true;
+         pc.getStatements().prepare(query, HotelQuery.Shape.CURSOR, params).execute();
+         String fetch = "FETCH FORWARD " + _fetchSize + " FROM " + HotelQuery.CURSOR_NAME;
+         int rowCount = 0;
+         int fetched;
+         do {
+            fetched = 0;
+            ResultSet rs = stmt.executeQuery (fetch);
+            while (rs.next()){
+               handler.handle(rs);
+               ++fetched;
+            }//end while
+            rs.close ();
+            rowCount += fetched;
+         }while (fetched == _fetchSize);
+         QueryTracer.record(query, HotelQuery.Shape.ROWS, params, rowCount, -1, start);
+         done = true;
+         return rowCount;
+      }catch (SQLException e){
+         checkBroken(pc, e);
+         _metrics.query(query).error();
+         throw e;
+      }finally{
+         try{
+            if (done){
+               stmt.execute("CLOSE " + HotelQuery.CURSOR_NAME);
+               stmt.execute("COMMIT");
+            }else if (begun){
+               // a failed statement aborted the transaction, and the cursor with it
+               stmt.execute("ROLLBACK");
+            }
+            if (stmt != null) stmt.close ();
+         }catch (SQLException e){
+            pc.markBroken();
+         }
+         _pool.release(pc);
+         _metrics.query(query).recordSince(start);
+         _slowLog.record(query, HotelQuery.Shape.ROWS, params, start);
+      }
+   }//end executeQueryAndStream
+
+   /**
+    * Method to close the pool and every physical connection in it.
+    */
+   public void cleanup(){
+      _catalog.close();
+      _metrics.close();
+      _slowLog.close();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
+
    /**
     * The main execution method
     *
@@ -336,8 +816,8 @@ public class AuthorizedUser{
             System.out.println("9. < EXIT\n");
 
             switch (readChoice()){
-               case 1: CreateNewCustomer(esql); break;
-               case 2:  Login(esql);
+               case 1: traced(esql, "CreateNewCustomer", Hotel::CreateNewCustomer); break;
+               case 2:  traced(esql, "Login", Hotel::Login);
 
                 if (authenticatedUser.isAuthenticated()) {
               boolean usermenu = true;
@@ -392,6 +872,16 @@ public class AuthorizedUser{
       }//end try
    }//end main
 
+   // runs one menu choice as an action of its own, see QueryTracer
+   private static void traced(Hotel esql, String action, Consumer<Hotel> menu){
+      QueryTracer.Action trace = QueryTracer.begin(action);
+      try{
+         menu.accept(esql);
+      }finally{
+         trace.close();
+      }
+   }//end traced
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -420,12 +910,12 @@ public class AuthorizedUser{
       System.out.println("20. Log out");
 
       switch (readChoice()){
-                   case 1: viewHotels(esql); break;
-                   case 2: viewRooms(esql); break;
-                   case 3: bookRooms(esql); break;
-                   case 4: viewRecentBookingsfromCustomer(esql); break;
-                   case 5: updateRoomInfo(esql); break;
-                   case 6: viewRoomUpdatesLog(esql);break;
+                   case 1: traced(esql, "viewHotels", Hotel::viewHotels); break;
+                   case 2: traced(esql, "viewRooms", Hotel::viewRooms); break;
+                   case 3: traced(esql, "bookRooms", Hotel::bookRooms); break;
+                   case 4: traced(esql, "viewRecentBookingsfromCustomer", Hotel::viewRecentBookingsfromCustomer); break;
+                   case 5: traced(esql, "updateRoomInfo", Hotel::updateRoomInfo); break;
+                   case 6: traced(esql, "viewRoomUpdatesLog", Hotel::viewRoomUpdatesLog); break;
                    case 20: 
                      authenticatedUser.UnAuthenticate();
                      usermenu = false; 
@@ -460,16 +950,16 @@ public class AuthorizedUser{
       System.out.println("20. Log out");
 
       switch (readChoice()){
-                   case 1: viewHotels(esql); break;
-                   case 2: viewRooms(esql); break;
-                   case 3: bookRooms(esql); break;
-                   case 4: viewRecentBookingsfromCustomer(esql); break;
-                   case 5: updateRoomInfo(esql); break;
-                   case 6: viewRecentUpdates(esql); break;
-                   case 7: viewBookingHistoryofHotel(esql); break;
-                   case 8: viewRegularCustomers(esql); break;
-                   case 9: placeRoomRepairRequests(esql); break;
-                   case 10:viewRoomRepairHistory(esql); break;
+                   case 1: traced(esql, "viewHotels", Hotel::viewHotels); break;
+                   case 2: traced(esql, "viewRooms", Hotel::viewRooms); break;
+                   case 3: traced(esql, "bookRooms", Hotel::bookRooms); break;
+                   case 4: traced(esql, "viewRecentBookingsfromCustomer", Hotel::viewRecentBookingsfromCustomer); break;
+                   case 5: traced(esql, "updateRoomInfo", Hotel::updateRoomInfo); break;
+                   case 6: traced(esql, "viewRecentUpdates", Hotel::viewRecentUpdates); break;
+                   case 7: traced(esql, "viewBookingHistoryofHotel", Hotel::viewBookingHistoryofHotel); break;
+                   case 8: traced(esql, "viewRegularCustomers", Hotel::viewRegularCustomers); break;
+                   case 9: traced(esql, "placeRoomRepairRequests", Hotel::placeRoomRepairRequests); break;
+                   case 10: traced(esql, "viewRoomRepairHistory", Hotel::viewRoomRepairHistory); break;
                    case 20: 
                      authenticatedUser.UnAuthenticate();
                      usermenu = false;  
@@ -495,10 +985,10 @@ public class AuthorizedUser{
       System.out.println("20. Log out");
 
       switch (readChoice()){
-                   case 1: viewHotels(esql); break;
-                   case 2: viewRooms(esql); break;
-                   case 3: bookRooms(esql); break;
-                   case 4: viewRecentBookingsfromCustomer(esql); break;
+                   case 1: traced(esql, "viewHotels", Hotel::viewHotels); break;
+                   case 2: traced(esql, "viewRooms", Hotel::viewRooms); break;
+                   case 3: traced(esql, "bookRooms", Hotel::bookRooms); break;
+                   case 4: traced(esql, "viewRecentBookingsfromCustomer", Hotel::viewRecentBookingsfromCustomer); break;
                    case 20: 
                      authenticatedUser.UnAuthenticate();
                      usermenu = false; 
@@ -528,6 +1018,26 @@ public class AuthorizedUser{
       return input;
    }//end readChoice
 
+   /*
+    * Asks where to go from a page of a list: the next (older) page, the
+    * previous (newer) one, or nowhere, which is null
+    **/
+   private static HotelService.PageRequest readPageChoice(HotelService.Page page) throws IOException {
+      if (page.next == null && page.previous == null){
+         in.readLine();
+         return null;
+      }
+      String options = (page.next != null ? "[n]ext page, " : "") + (page.previous != null ? "[p]revious page, " : "") + "[q]uit: ";
+      do {
+         System.out.print(options);
+         String choice = in.readLine().trim();
+         if (choice.equalsIgnoreCase("n") && page.next != null) return page.next;
+         if (choice.equalsIgnoreCase("p") && page.previous != null) return page.previous;
+         if (choice.equalsIgnoreCase("q") || choice.isEmpty()) return null;
+         System.out.println("Your input is invalid!");
+      }while (true);
+   }//end readPageChoice
+
    /*
     * Creates a new user
     **/
@@ -559,25 +1069,20 @@ while (keeptrying){
       char[] inputs2 = System.console().readPassword("Confirm Password: ");
       passwordInput2 = String.valueOf(inputs2);
 
-      //valid candidate for becoming a user, now we need to check if the user already exists!
-      if(ValidatePassword(passwordInput,passwordInput2)){
-         
-         String query = String.format("SELECT * FROM USERS WHERE name='%s' ",usernameInput);
-          int userNum = esql.executeQuery(query);
-         
-         //user already exists
-         if(userNum > 0){
-            keeptrying = true;
-              System.out.println("\n A user with that name already exists! \n");
-         }
-         // we can go ahead and create the user
-         else{
-              keeptrying =false;
-               String createQuery = String.format("INSERT INTO Users (name,password,userType) VALUES('%s','%s','%s')",usernameInput,passwordInput,"customer");
-               esql.executeUpdate(createQuery);
-               System.out.println(" User sucessfully created with userId = "+ esql.getNewUserID("SELECT last_value FROM users_userID_seq") + " and Name = "+usernameInput);
+      HotelService.Registration registration = esql.getService().register(usernameInput, passwordInput, passwordInput2);
+
+      switch(registration.status){
+         case CREATED:
+               System.out.println(" User sucessfully created with userId = "+ registration.userID + " and Name = "+usernameInput);
                return;
-             }
+         case NAME_TAKEN:
+              System.out.println("\n A user with that name already exists! \n");
+              break;
+         default:
+              for(String problem : registration.problems){
+                 System.out.println("\n- " + problem + " -");
+              }
+              break;
       }
          System.out.println("\n1. Try again.");
          System.out.println("2. < Back to Main Menu \n\n");
@@ -600,27 +1105,6 @@ while (keeptrying){
    }
    }//end CreateUser
 
-
-   public static boolean ValidatePassword(String pass,String confirmpass){
-
-      boolean validpass = true;
-      if(!pass.equals(confirmpass)){
-           System.out.println("\n- 'Password' and 'Confirm Password' are not same! -");
-          validpass = false;
-      }
-
-       if(pass.contains(" ")){
-           System.out.println("\n- Password must not contain Spaces! -");
-           validpass = false;
-      }
-
-      if((pass.length()<5) || (pass.length() >20)){
-           System.out.println("\n- Password must be between 5 and 20 characters!  -");
-          validpass = false;
-      }
-         return validpass;
-   }
-
    /*
     * Check log in credentials for an existing user
     * @return User login or null is the user does not exist
@@ -645,30 +1129,32 @@ while (keeptrying){
         char[] inputs = System.console().readPassword("Password:");
          passwordInput = String.valueOf(inputs);
 
-         String query = String.format("SELECT * FROM USERS WHERE name='%s' AND password = '%s' ",usernameInput,passwordInput );
-        
-     
-        List<List<String>> results = esql.executeQueryAndReturnResult(query);
-
-         // we found a User!
-        if(results.size() > 0){
-
-           int userId = Integer.parseInt(results.get(0).get(0));
-           String name = results.get(0).get(1);
-           String usertype = results.get(0).get(3).trim();
-           authenticatedUser.SetInfo(userId,name,usertype);
-        }
-         
+        authenticatedUser = esql.getService().login(usernameInput, passwordInput);
         }
         catch(Exception e){
             System.out.println(e.getMessage());
         }
    }//end
 
+   // prints the hotels of a ResultTable with hotelID, hotelName and dateEstablished columns
+   private static void printHotels(ResultTable results){
+     System.out.println("--------------------------------------------------------");
+     System.out.println( String.format(" %-15s %-20s %-5s","HOTEL ID","Hotel Name","date established"));
+     System.out.println("--------------------------------------------------------");
+         for(int row = 0; row < results.size(); ++row){
+         
+           String HotelID = results.getString(row, "hotelID");
+           String HotelName = results.getString(row, "hotelName");
+           String Established= results.getString(row, "dateEstablished");
+           
+            System.out.println( String.format("%-20s %-15s %-15s","     " +HotelID,HotelName,"     "+Established));
+         }
+      System.out.println("--------------------------------------------------------");
+   }
+
 // Rest of the functions definition go in here
 
    public static void viewHotels(Hotel esql) {
-
       System.out.print("\033\143"); // clears console
     
       System.out.println("\n-------------------------------------------------------");
@@ -685,9 +1171,7 @@ while (keeptrying){
          Double longitude = Double.parseDouble(in.readLine());
 
 
-         String query = String.format("SELECT * FROM HOTEL h WHERE calculate_distance('%s','%s',h.latitude,h.longitude) <= 30",latitude,longitude);
-
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         List<HotelSpatialIndex.Entry> results = esql.getService().hotelsNear(authenticatedUser, latitude, longitude);
 
          if(results.size()>0){
          
@@ -696,11 +1180,11 @@ while (keeptrying){
          System.out.println("\n-------------------------------------------------------");
          System.out.println( String.format("%-15s %-20s %-5s","HOTEL ID","Hotel Name","date established"));
          System.out.println("-------------------------------------------------------");
-         for(List<String> hotel : results){
+         for(HotelSpatialIndex.Entry hotel : results){
          
-           String HotelID = hotel.get(0).trim();
-           String HotelName = hotel.get(1).trim();
-           String Established= hotel.get(4).trim();
+           int HotelID = hotel.hotelID;
+           String HotelName = hotel.hotelName;
+           String Established= hotel.dateEstablished;
            
             System.out.println( String.format("%-20s %-15s %-15s","     " +HotelID,HotelName,"     "+Established));
          }
@@ -736,7 +1220,7 @@ while (keeptrying){
       try{
          
          System.out.print("Hotel ID: ");
-         String hotelId = in.readLine();
+         int hotelId = Integer.parseInt(in.readLine());
          System.out.print("DATE (MM/DD/YYYY): ");
           
          SimpleDateFormat dateFormat = new SimpleDateFormat("mm/dd/yyyy");
@@ -745,8 +1229,7 @@ while (keeptrying){
 
            datestring = dateFormat.format(date);
           
-          String query =String.format("SELECT r.roomNumber,r.price FROM Rooms r WHERE r.hotelID='%s' AND r.roomNumber NOT IN (SELECT b.roomNumber FROM RoomBookings b WHERE b.hotelID=r.hotelID AND b.bookingDate='%s')",hotelId,datestring);
-          List<List<String>> results = esql.executeQueryAndReturnResult(query);
+          List<RoomAvailabilityIndex.Room> results = esql.getService().availableRooms(authenticatedUser, hotelId, datestring);
 
            if(results.size()>0){
             
@@ -755,10 +1238,10 @@ while (keeptrying){
             System.out.println( String.format("%-10s      %-10s","Room Number"," Price"));
             System.out.println("---------------------------");
 
-            for(List<String> room : results){
+            for(RoomAvailabilityIndex.Room room : results){
          
-             String roomNumber = room.get(0);
-            String price = room.get(1);      
+             int roomNumber = room.roomNumber;
+            int price = room.price;
              System.out.println( String.format("   %-10s    $ %-10s","  " +roomNumber,price));
             }
             System.out.println("---------------------------");
@@ -792,10 +1275,10 @@ while (keeptrying){
    try{
 
       System.out.print("Hotel ID: ");
-      String hotelId = in.readLine();
+      int hotelId = Integer.parseInt(in.readLine());
 
       System.out.print("Room Number: ");
-      String roomNumber = in.readLine();
+      int roomNumber = Integer.parseInt(in.readLine());
 
       System.out.print("DATE (MM/DD/YYYY): ");
           
@@ -804,31 +1287,25 @@ while (keeptrying){
       Date date = dateFormat.parse(datestring);
 
       datestring = dateFormat.format(date);
-      
-      //checks if the room even exists, no point in booking a room if there doesnt even exist that room
-      String roomExistsQuery = String.format("SELECT * FROM rooms r WHERE r.roomNumber ='%s' AND r.HotelID ='%s' ",roomNumber,hotelId);      
 
-      int num = esql.executeQuery(roomExistsQuery);
+      HotelService.BookingRequest request = new HotelService.BookingRequest(hotelId, roomNumber, datestring);
+      
+      //one query tells us if the room exists, whether it is booked that day and its price
+      HotelService.RoomQuote quote = esql.getService().quote(authenticatedUser, request);
 
+      //checks if the room even exists, no point in booking a room if there doesnt even exist that room
       // sure  there is a room that exists within the specified hotel, but can we book it on that date? lets seee
-      if(num >0){
-
-      // now i need to check  if the room is booked
-      String query = String.format("SELECT r.roomnumber,r.price FROM Rooms r WHERE r.roomNumber IN ( SELECT b.roomNumber FROM RoomBookings b WHERE b.hotelID='%s' AND b.roomNumber='%s' AND b.bookingDate='%s')",hotelId,roomNumber,datestring);
-      num = esql.executeQuery(query);
+      if(quote.exists){
 
       //room is not available
-      if(num>0){
+      if(quote.booked){
         System.out.println("\n Unfortunately, the room is not available for this day.");
         in.readLine();
       }
       //room is available
       else{
         System.out.println("\nThe room is available to stay for this day.\n");
-        String query2 = String.format("SELECT r.price FROM Rooms r WHERE r.roomNumber='%s' AND r.hotelID='%s'",roomNumber,hotelId);
-          
-        List<List<String>> results = esql.executeQueryAndReturnResult(query2);
-        System.out.println("Price Per Night: $"+results.get(0).get(0));
+        System.out.println("Price Per Night: $"+quote.price);
        
        System.out.println("\n1. Book Room");
        System.out.println("2. Cancel \n");
@@ -838,12 +1315,16 @@ while (keeptrying){
        switch(choice){
          case 1:
                //we book room
-                String customerID = String.valueOf(authenticatedUser.getUserID());
-                 String bookingID= String.valueOf(esql.getNewUserID("SELECT nextval('RoomBookings_bookingID_seq')"));
-                String query3 = String.format("INSERT INTO RoomBookings(bookingID,customerID,hotelID,roomNumber,bookingDate) VALUES('%s','%s','%s','%s','%s')",bookingID,customerID,hotelId,roomNumber,datestring);
-                
-                esql.executeUpdate(query3);
-               System.out.println("\nThe room has now been booked.");
+                BookingEngine.Booking booking = esql.getService().book(authenticatedUser, request);
+               if(booking.status == BookingEngine.Status.BOOKED){
+               System.out.println("\nThe room has now been booked. Booking ID: " + booking.bookingID);
+               }
+               else if(booking.status == BookingEngine.Status.NO_SUCH_ROOM){
+               System.out.println("\n No Hotel/Room exists with those values!");
+               }
+               else{
+               System.out.println("\n Unfortunately, the room was just booked by someone else.");
+               }
                in.readLine();
                break;
          default:
@@ -874,19 +1355,16 @@ while (keeptrying){
       System.out.println("-----------------------------------------------------\n");
       System.out.println(String.format("Welcome, %-5s\n",authenticatedUser.getUserName()));
       System.out.println("Here is a list of your recent bookings.\n");
-         String query = String.format("SELECT b.hotelID, b.roomNumber, r.price, b.bookingDate FROM Rooms as r, RoomBookings as b WHERE b.hotelID = r.hotelID AND b.roomNumber = r.roomNumber AND b.customerID = '%s' ORDER BY b.* DESC LIMIT 5", authenticatedUser.getUserID());         
-
-         //int rowCount = esql.executeQueryAndPrintResult(query);
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         ResultTable results = esql.getService().recentBookings(authenticatedUser);
          System.out.println("-----------------------------------------------------");
          System.out.println(String.format("%-10s   %-10s    %-10s  %-10s","Hotel ID","Room Number","Price","Booking Date"));
          System.out.println("-----------------------------------------------------");
-         for(List<String> booking :results){
+         for(int row = 0; row < results.size(); ++row){
 
-            String hotelID = booking.get(0);
-            String roomNumber = booking.get(1);
-            String price = booking.get(2);
-            String bookingDate = booking.get(3);
+            int hotelID = results.getInt(row, "hotelID");
+            int roomNumber = results.getInt(row, "roomNumber");
+            int price = results.getInt(row, "price");
+            String bookingDate = results.getString(row, "bookingDate");
 
             System.out.println(String.format("   %-10s   %-10s  %-10s  %-10s",hotelID,roomNumber,price,bookingDate));
          }
@@ -902,6 +1380,7 @@ while (keeptrying){
 
    public static void updateRoomInfo(Hotel esql) {
      try{
+      HotelService service = esql.getService();
       System.out.print("\033\143"); // clears console
       System.out.println("\n--------------------------------------------------------");
       System.out.println(" UPDATE ROOM INFORMATION");
@@ -910,38 +1389,11 @@ while (keeptrying){
 
       System.out.println(String.format("Welcome, %-5s",authenticatedUser.getUserName()));
 
-
-      // we still have to check for admin for later updates
-       int managerID = authenticatedUser.getUserID();
       System.out.println("\n You manage the following hotels currently.\n");
 
 
-      String listHotelsAdminQuery =String.format("SELECT hotelID,hotelName, dateEstablished FROM hotel");
-      String listHotelsManagerQuery = String.format("SELECT hotelID,hotelName, dateEstablished FROM hotel WHERE managerUserID ='%s'",managerID);
-
-      //returns all the hotels managed by manager id
-       List<List<String>> results;
-
-      if(authenticatedUser.getUserType().equals("admin")){
-         results = esql.executeQueryAndReturnResult(listHotelsAdminQuery);
-      }
-      //manager
-      else{
-         results = esql.executeQueryAndReturnResult(listHotelsManagerQuery);
-      }
-
-     System.out.println("--------------------------------------------------------");
-     System.out.println( String.format(" %-15s %-20s %-5s","HOTEL ID","Hotel Name","date established"));
-     System.out.println("--------------------------------------------------------");
-         for(List<String> hotel : results){
-         
-           String HotelID = hotel.get(0).trim();
-           String HotelName = hotel.get(1).trim();
-           String Established= hotel.get(2).trim();
-           
-            System.out.println( String.format("%-20s %-15s %-15s","     " +HotelID,HotelName,"     "+Established));
-         }
-      System.out.println("--------------------------------------------------------");
+      //returns all the hotels managed by manager id, every hotel for an admin
+      printHotels(service.managedHotels(authenticatedUser));
 
       
 
@@ -949,32 +1401,22 @@ while (keeptrying){
 
 
       System.out.print("HOTEL ID: ");
-      String hotelId = in.readLine();
+      int hotelId = Integer.parseInt(in.readLine());
       System.out.print("Room Number: ");
-      String roomNumber = in.readLine();
+      int roomNumber = Integer.parseInt(in.readLine());
 
       
       
-      //need to check if the manager manages this hotel,
-      //String managesQuery = String.format("SELECT * FROM hotels WHERE managerUserID='%s' AND hotelID='%s'",managerID,hotelId);
-
-      String AdminQuery = String.format("SELECT * FROM rooms r WHERE r.roomNumber='%s' AND r.hotelID ='%s'",roomNumber,hotelId);
-      String ManagerQuery = String.format("SELECT * FROM rooms r WHERE r.roomNumber='%s' AND r.hotelID IN (SELECT h.hotelID FROM hotel h WHERE h.managerUserID='%s' AND h.hotelID='%s')",roomNumber,managerID,hotelId);
-     
-     if(authenticatedUser.getUserType().equals("admin")){
-            results = esql.executeQueryAndReturnResult(AdminQuery);
-     }
-     else{
-            results = esql.executeQueryAndReturnResult(ManagerQuery);
-     }
+      //null unless the room exists and the manager manages this hotel
+      HotelService.RoomDetails details = service.roomDetails(authenticatedUser, hotelId, roomNumber);
    
 
       // I manage the selected hotel and room exists!
-      if(results.size() >0){
+      if(details != null){
 
-          int roomprice = Integer.parseInt(results.get(0).get(2));
+          int roomprice = details.price;
           int newRoomPrice = roomprice;
-          String roomURL = results.get(0).get(3);
+          String roomURL = details.imageURL;
           String newURL = roomURL;
           boolean ChangesMade = false;
           boolean keepGoing = true;
@@ -1052,13 +1494,7 @@ while (keeptrying){
             //update here
             if(ChangesMade){
 
-               Timestamp currenttime= Timestamp.from(Instant.now());
-               String updateQuery = String.format("UPDATE rooms SET price='%s',imageURL='%s' WHERE hotelID='%s' AND roomNumber='%s'", roomprice,roomURL,hotelId,roomNumber);
-               int RoomLogID= esql.getNewUserID("SELECT nextval('roomUpdatesLog_UpdateNumber_seq')");
-
-               String updateRoomsLogQuery = String.format("INSERT INTO RoomUpdatesLog(updateNumber,managerID,hotelID,roomNumber,updatedOn) VALUES('%s','%s','%s','%s','%s')",RoomLogID,managerID,hotelId,roomNumber,currenttime);
-               esql.executeUpdate(updateQuery);
-               esql.executeUpdate(updateRoomsLogQuery);
+               service.updateRoom(authenticatedUser, new HotelService.RoomDetails(hotelId, roomNumber, roomprice, roomURL));
 
                System.out.println("\n Room Information has been updated.");
               
@@ -1094,35 +1530,36 @@ while (keeptrying){
        System.out.println("\n---------------------------------\n");
 
       System.out.println("Enter the following information.\n");
-
       try{
       System.out.print("Manager ID: ");
-      String ManagerID = in.readLine();
-      
-      String query = String.format("SELECT * FROM RoomUpdatesLog WHERE managerID ='%s'",ManagerID);
-
-      List<List<String>> results = esql.executeQueryAndReturnResult(query);
-
-      if(results.size()> 0){
-         
+      final int ManagerID = Integer.parseInt(in.readLine());
+
+      // a page at a time; rows are printed as they are fetched, the header before the first one
+      HotelService.PageRequest request = HotelService.PageRequest.first(HotelService.PageRequest.DEFAULT_SIZE);
+      while(request != null){
+      final boolean[] headerPrinted = {false};
+      HotelService.Page page = esql.getService().roomUpdatesLog(authenticatedUser, ManagerID, request, roomUpdate -> {
+         if(!headerPrinted[0]){
         System.out.println("\n----------------------------------------------------------------------------");
         System.out.println( String.format("%-10s  %-10s   %-10s %-10s          %-20s","Update No.","Manager ID","HotelID","Room Number","Updated on"));
         System.out.println("----------------------------------------------------------------------------");
-         for(List<String> roomUpdate : results){
-            
-              String updateNumber = roomUpdate.get(0).trim();
-              String hotelID = roomUpdate.get(2).trim();
-              String roomNumber = roomUpdate.get(3).trim();
-              String updatedOn = roomUpdate.get(4).trim();
+            headerPrinted[0] = true;
+         }
+              String updateNumber = roomUpdate.getString(1).trim();
+              String hotelID = roomUpdate.getString(3).trim();
+              String roomNumber = roomUpdate.getString(4).trim();
+              String updatedOn = roomUpdate.getString(5).trim();
 
               System.out.println( String.format("\n    %-10s  %-10s   %-10s   %-10s %-20s",updateNumber,ManagerID,hotelID,roomNumber,updatedOn));
-         }
+      });
+
+      if(page.rows > 0){
           System.out.println("----------------------------------------------------------------------------");
-         in.readLine();
       }
       else{
          System.out.println("\n No updates found for the requested manager id.");
-         in.readLine();
+      }
+         request = readPageChoice(page);
       }
       }
       catch(Exception e){
@@ -1132,7 +1569,6 @@ while (keeptrying){
 
    }
 
-   //this function needs to fixed
    public static void viewRecentUpdates(Hotel esql) {
 
       try{
@@ -1142,26 +1578,21 @@ while (keeptrying){
          System.out.println("----------------------------------------------------------------------------\n");
 
           System.out.println(" Here are the last 5 recent updates made to rooms.\n");
-         //Get UserID
-         String exampleQuery = String.format("SELECT UserType FROM Users WHERE userID = '%s'", authenticatedUser.getUserID());
-         List<List<String>> tempQuery = esql.executeQueryAndReturnResult(exampleQuery);
-         String tempString = tempQuery.get(0).get(0).trim();
          
-         if(authenticatedUser.getUserType().equals("admin") || authenticatedUser.getUserType().equals("manager")) {
+         if(authenticatedUser.HasElevatedRights()) {
 
-               String query = String.format("SELECT l.* FROM RoomUpdatesLog as l WHERE l.managerID = '%d' ORDER BY updatedOn DESC LIMIT 5",authenticatedUser.getUserID());         
-               List<List<String> >results = esql.executeQueryAndReturnResult(query);
+               ResultTable results = esql.getService().recentUpdates(authenticatedUser);
                
         System.out.println("\n----------------------------------------------------------------------------");
         System.out.println(String.format("%-10s   %-10s %-10s          %-20s","Update No.","HotelID","Room Number","Updated on"));
         System.out.println("----------------------------------------------------------------------------");
-         for(List<String> roomUpdate : results){
+         for(int row = 0; row < results.size(); ++row){
             
 
-              String updateNumber = roomUpdate.get(0).trim();
-              String hotelID = roomUpdate.get(2).trim();
-              String roomNumber = roomUpdate.get(3).trim();
-              String updatedOn = roomUpdate.get(4).trim();
+              int updateNumber = results.getInt(row, "updateNumber");
+              int hotelID = results.getInt(row, "hotelID");
+              int roomNumber = results.getInt(row, "roomNumber");
+              String updatedOn = results.getString(row, "updatedOn");
 
               System.out.println( String.format("\n    %-10s  %-10s   %-10s %-20s",updateNumber,hotelID,roomNumber,updatedOn));
          }
@@ -1195,25 +1626,16 @@ while (keeptrying){
          //Variables to hold the 2 date inputs
          String firstDate = null;
          String secondDate = null;
-         //An option to check if user enters 2 same date i.e. 2/12/2015-2/12/2015
-         boolean sameDate = false;
-         String query = "";
          String yesCheck = "Yes";
          String yCheck = "Y";
          String noCheck = "No";
          String nCheck = "N";
 
-         //This can be move to where it checks where it is a manager before getting date inputs
-         System.out.print("Do you want to enter date ranges?\n \nEnter Yes or No: ");
-         String dateCheck = in.readLine();
-
-         //This calls the global function to get UserID and stores it
-         //Need this function in order to determine if it is a customer or manager 
-         String exampleQuery = String.format("SELECT UserType FROM Users WHERE userID = '%s'", authenticatedUser.getUserID());
-         List<List<String>> tempQuery = esql.executeQueryAndReturnResult(exampleQuery);
-         String tempString = tempQuery.get(0).get(0).trim();
+         if(authenticatedUser.isManager()) {
+            //This can be move to where it checks where it is a manager before getting date inputs
+            System.out.print("Do you want to enter date ranges?\n \nEnter Yes or No: ");
+            String dateCheck = in.readLine();
 
-         if(tempString.equals("manager")) {
             //This check if user says yes to enter 2 dates: Yes/Y
             if(yesCheck.equalsIgnoreCase(dateCheck) || yCheck.equalsIgnoreCase(dateCheck)) {
                dateRange = true;
@@ -1247,45 +1669,36 @@ while (keeptrying){
                if(firstDate.compareTo(secondDate) > 0) {
                   System.out.println("Last Date cannot be before the first date");
                }
-
-               //Checks if they enter the same date 
-               if(firstDate.compareTo(secondDate) == 0) {
-                  sameDate = true;
-               }
             }
 
             //if user does not want to enter any date ranges
             if(noDateRange == true) {
                System.out.print("\nNo date range required\n");
-               //grab all booking information that is manage by the manager
-               query = String.format("SELECT DISTINCT b.bookingID, b.customerID, u.name, b.hotelID, b.roomNumber, b.bookingDate FROM RoomBookings as b, Users as u, Hotel as h WHERE h.managerUserID = '%s' AND b.hotelID = h.hotelID AND b.customerID = u.userID", authenticatedUser.getUserID());         
-            } else {
-               //checks if user enter 2 valid dates or 2 same date
-               //EX: 2/12/2015 - 3/4/2019 or 2/12/2015 - 2/12/2015
-               if(sameDate == false) {
-                  query = String.format("SELECT DISTINCT b.bookingID, b.customerID, u.name, b.hotelID, b.roomNumber, b.bookingDate FROM RoomBookings as b, Users as u, Hotel as h WHERE h.managerUserID = '%s' AND b.hotelID = h.hotelID AND b.customerID = u.userID AND (b.bookingDate BETWEEN '%s' AND '%s')", authenticatedUser.getUserID(), firstDate, secondDate);         
-               } else {
-                  query = String.format("SELECT DISTINCT b.bookingID, b.customerID, u.name, b.hotelID, b.roomNumber, b.bookingDate FROM RoomBookings as b, Users as u, Hotel as h WHERE h.managerUserID = '%s' AND b.hotelID = h.hotelID AND b.customerID = u.userID AND b.bookingDate = '%s'", authenticatedUser.getUserID(), firstDate);         
-               }
             }
+            //grab all booking information that is manage by the manager, or the bookings between the 2 dates
+            //EX: 2/12/2015 - 3/4/2019 or 2/12/2015 - 2/12/2015
+            HotelService.BookingHistoryRequest request = new HotelService.BookingHistoryRequest(firstDate, secondDate);
+
+            // a page at a time, each booking printed as soon as it is fetched
+            HotelService.PageRequest page = HotelService.PageRequest.first(HotelService.PageRequest.DEFAULT_SIZE);
+            while(page != null) {
             System.out.println("\n--------------------------------------------------------------------------------");
             System.out.println(String.format(" %-10s %-10s %-17s %-10s %-10s  %-10s","Booking ID ","Customer ID"," Customer Name","Hotel ID","Room Number","Booking Date"));
             System.out.println("--------------------------------------------------------------------------------");
-            List<List<String>> results = esql.executeQueryAndReturnResult(query);
-
-            for(List<String> booking : results){
-                String bookingID = booking.get(0).trim();
-                String customerID =booking.get(1).trim();
-                String customerName = booking.get(2).trim();
-                String hotelID = booking.get(3).trim();
-                String roomnumber = booking.get(4).trim();
-                String bookingDate = booking.get(5).trim();
+            HotelService.Page shown = esql.getService().bookingHistory(authenticatedUser, request, page, booking -> {
+                String bookingID = booking.getString(1).trim();
+                String customerID =booking.getString(2).trim();
+                String customerName = booking.getString(3).trim();
+                String hotelID = booking.getString(4).trim();
+                String roomnumber = booking.getString(5).trim();
+                String bookingDate = booking.getString(6).trim();
                System.out.println(String.format("\n      %-10s %-8s %-17s  %-10s %-10s  %-10s",bookingID,customerID,customerName,hotelID,roomnumber,bookingDate));
-            }
+            });
             System.out.println("--------------------------------------------------------------------------------");
 
-            System.out.println ("total row(s): " + results.size());
-            in.readLine();
+            System.out.println ("row(s) on this page: " + shown.rows);
+            page = readPageChoice(shown);
+            }
       } else {
          System.out.print("You are not a manager\n");
          in.readLine();
@@ -1304,69 +1717,40 @@ while (keeptrying){
    }
    public static void viewRegularCustomers(Hotel esql) {
       try{
+            HotelService service = esql.getService();
             System.out.print("\033\143"); // clears console
             System.out.println("--------------------------------------------------------");
             System.out.println(" Regular Customers ");
             System.out.println("--------------------------------------------------------\n");
-            //Get UserID
-            String exampleQuery = String.format("SELECT UserType FROM Users WHERE userID = '%s'", authenticatedUser.getUserID());
-            List<List<String>> tempQuery = esql.executeQueryAndReturnResult(exampleQuery);
-            String tempString = tempQuery.get(0).get(0).trim();
             
-            if(tempString.equals("manager")) {
+            if(authenticatedUser.isManager()) {
                
-               String managerID = String.valueOf(authenticatedUser.getUserID());
-               String listHotelsManagerQuery = String.format("SELECT hotelID,hotelName, dateEstablished FROM hotel WHERE managerUserID ='%s'",managerID);
                 System.out.println("\n You manage the following hotels currently.\n");
 
-                List<List<String>> results = esql.executeQueryAndReturnResult(listHotelsManagerQuery);
-   
-               System.out.println("--------------------------------------------------------");
-               System.out.println( String.format(" %-15s %-20s %-5s","HOTEL ID","Hotel Name","date established"));
-               System.out.println("--------------------------------------------------------");
-
-               for(List<String> hotel : results){
-         
-               String HotelID = hotel.get(0).trim();
-               String HotelName = hotel.get(1).trim();
-               String Established= hotel.get(2).trim();
-           
-               System.out.println( String.format("%-20s %-15s %-15s","     " +HotelID,HotelName,"     "+Established));
-               }
-
-               System.out.println("--------------------------------------------------------\n");
+               printHotels(service.managedHotels(authenticatedUser));
+               System.out.println();
 
 
                System.out.print("Enter Hotel ID: ");
                Integer hotelID = Integer.parseInt(in.readLine());
-               //need to check if hotelID belong to that manager
-               String checkHotelID = String.format("SELECT hotelID FROM Hotel as h WHERE h.managerUserID = '%s' AND h.hotelID = '%d'", authenticatedUser.getUserID(), hotelID);
-               int userRow = esql.executeQuery(checkHotelID);
 
                System.out.println("\nHere are the top customers for that hotel.");
-               //if the hotelID belongs to the manager
-               if(userRow > 0) {
-                  
-                  //Check regular customer from hotelID 
-                  String query = String.format("SELECT u.name, COUNT(u.name) FROM Users as u, RoomBookings as b WHERE b.customerID = u.userID AND b.hotelID = '%s' GROUP BY u.name ORDER BY COUNT(u.name) DESC LIMIT 5", hotelID);         
-                  
-                  results = esql.executeQueryAndReturnResult(query);
+               try{
+                  //Check regular customer from hotelID, if the hotelID belongs to the manager
+                  List<TopKCustomers.Customer> results = service.regularCustomers(authenticatedUser, hotelID);
 
                   System.out.println("\n-----------------------------");
                   System.out.println(String.format("%-17s  %-10s","Customer Name","Bookings"));
                   System.out.println("-----------------------------");
 
-                  for(List<String> customer: results) {
-                     String customerName = customer.get(0).trim();
-                     String bookings = customer.get(1).trim();
-                     System.out.println(String.format("%-17s     %-13s",customerName,bookings));
+                  for(TopKCustomers.Customer customer : results) {
+                     System.out.println(String.format("%-17s     %-13s",customer.name,customer.bookings));
                   }
                   System.out.println("-----------------------------");
-                  in.readLine();
-               } else {
-                  System.out.print("Hotel does not belong to you\n");
-                  in.readLine();
+               } catch(SecurityException e) {
+                  System.out.print(e.getMessage() + "\n");
                }
+               in.readLine();
             } else {
                System.out.print("You are not a manager\n");
                in.readLine();
@@ -1379,123 +1763,57 @@ while (keeptrying){
    public static void placeRoomRepairRequests(Hotel esql) {
 
       try{
+         HotelService service = esql.getService();
          System.out.print("\033\143"); // clears console
          System.out.println("\n--------------------------------------------------------");
          System.out.println(" Place a Room Repair Request ");
           System.out.println("--------------------------------------------------------\n");
-         String exampleQuery = String.format("SELECT UserType FROM Users WHERE userID = '%s'", authenticatedUser.getUserID());
-         List<List<String>> tempQuery = esql.executeQueryAndReturnResult(exampleQuery);
-         String tempString = tempQuery.get(0).get(0).trim();
                   
-         if(tempString.equals("manager")) {
+         if(authenticatedUser.isManager()) {
 
-            String managerID = String.valueOf(authenticatedUser.getUserID());
-            String listHotelsManagerQuery = String.format("SELECT hotelID,hotelName, dateEstablished FROM hotel WHERE managerUserID ='%s'",managerID);
             System.out.println("\n You manage the following hotels currently.\n");
 
-                List<List<String>> results = esql.executeQueryAndReturnResult(listHotelsManagerQuery);
-   
-               System.out.println("--------------------------------------------------------");
-               System.out.println( String.format(" %-15s %-20s %-5s","HOTEL ID","Hotel Name","date established"));
-               System.out.println("--------------------------------------------------------");
-
-               for(List<String> hotel : results){
-         
-               String HotelID = hotel.get(0).trim();
-               String HotelName = hotel.get(1).trim();
-               String Established= hotel.get(2).trim();
-           
-               System.out.println( String.format("%-20s %-15s %-15s","     " +HotelID,HotelName,"     "+Established));
-               }
-
-               System.out.println("--------------------------------------------------------\n");
+               printHotels(service.managedHotels(authenticatedUser));
+               System.out.println();
 
 
-               String listCompaniesQuery = String.format("SELECT * FROM MaintenanceCompany");
                System.out.println("\nHere are all the Maintenance companies we have on file.\n");
 
-               results = esql.executeQueryAndReturnResult(listCompaniesQuery);
+               ResultTable results = service.companies(authenticatedUser);
                System.out.println("--------------------------------------------------------");
                System.out.println( String.format("%-20s %-15s","Company ID","Company Name"));
                System.out.println("--------------------------------------------------------");
 
-               for(List<String> company : results){
-                  String companyID = company.get(0).trim();
-                  String companyName = company.get(1).trim();
+               for(int row = 0; row < results.size(); ++row){
+                  int companyID = results.getInt(row, "companyID");
+                  String companyName = results.getString(row, "name");
                    System.out.println( String.format("    %-20s %-15s",companyID,companyName));
                }
           System.out.println("--------------------------------------------------------\n");
             System.out.print("Enter Hotel ID: ");
             Integer hotelID = Integer.parseInt(in.readLine());
 
-            //need to check if hotelID belong to that manager
-            String checkHotelID = String.format("SELECT hotelID FROM Hotel as h WHERE h.managerUserID = '%s' AND h.hotelID = '%d'", authenticatedUser.getUserID(), hotelID);
-            int userRow = esql.executeQuery(checkHotelID);
-
-            //if the hotelID belongs to the manager
-            if(userRow > 0) {
                System.out.print("\nEnter Room Number: ");
                Integer roomNumber = Integer.parseInt(in.readLine());
 
                System.out.print("\n Enter Company ID: ");
                Integer companyID = Integer.parseInt(in.readLine());
 
-               SimpleDateFormat dateFormat = new SimpleDateFormat("mm/dd/yyyy");
-               Date date = new Date();
-               String currDate = dateFormat.format(date);            
-               String curr2DateQuery = String.format("SELECT CURRENT_DATE");
-
-               List<List<String>> tempQuery2 = esql.executeQueryAndReturnResult(curr2DateQuery);
-               String tempString2 = tempQuery2.get(0).get(0).trim();
-
-               System.out.print("Curr: " + tempString2 + "\n");
-
-               //counts the amount of queries/data located in roomRepair
-               //This helps with knowing the amount of queriest created
-               String lastQuery = String.format("SELECT * FROM RoomRepairs");
-               Integer queryAmount = esql.executeQuery(lastQuery);
-               
-               /*
-                  This checks if there is an existing data from the given inputs
-                  So why did I not use NOT IN, NOT EXISTS, DELETE the data
-                  Notes:
-                  There was error when inserting due to duplicate key value violates unique constraint pkey
-                  There was an error when DELETING as there was no way to alter exist(delete) because of
-                     duplicate key value violates unique constraint foreign key
-               */
-               String deleteQuery = String.format("SELECT * FROM RoomRepairs WHERE repairID = '%d' AND companyID = '%d' AND hotelID = '%d' AND roomNumber = '%d' AND repairDate = '%s'",queryAmount, companyID, hotelID, roomNumber, tempQuery2);
-               Integer amount = esql.executeQuery(deleteQuery);
-               //System.out.println ("total row(s) for repair queries: " + amount);
-
-               //This checks if there is NO existing data by checking if there a  result
-               if(amount == 0) {
-                  
-                  //after passing all checks, begin adding the data
-                  String repairQuery = String.format("INSERT INTO RoomRepairs (repairID, companyID, hotelID, roomNumber, repairDate) VALUES ('%d','%d', '%d', '%d', '%s')", queryAmount+1, companyID, hotelID, roomNumber, tempString2);
-                  esql.executeUpdate(repairQuery);
-                  
-                  //System.out.print("Queries 1 Done: " + queryAmount + "\n");
-                  
-                  String roomRequestQuery = String.format("INSERT INTO RoomRepairRequests (requestNumber, managerID, repairID) VALUES ('%d','%s', '%d')", queryAmount+1, authenticatedUser.getUserID(), queryAmount+1);
-                  esql.executeUpdate(roomRequestQuery);
-
-                  //System.out.print("Queries 2 Done: " + queryAmount + "\n");
-
-                  int rowCount = esql.executeQueryAndPrintResult(repairQuery);
-                  System.out.println ("total row(s) for room repair: " + rowCount);
-                  rowCount = esql.executeQueryAndPrintResult(roomRequestQuery);
-                  System.out.println ("total row(s) for repair request: " + rowCount);
-                
+            try{
+               //checks the hotel belongs to the manager and the same repair was not already requested today
+               HotelService.RepairReceipt receipt = service.requestRepair(authenticatedUser, new HotelService.RepairRequest(hotelID, roomNumber, companyID));
 
+               System.out.print("Curr: " + receipt.repairDate + "\n");
 
+               if(receipt.status == HotelService.RepairReceipt.Status.PLACED) {
+                  System.out.println ("Repair " + receipt.repairID + " requested with request number " + receipt.requestNumber);
                } else {
                   System.out.print("This row already exist\n");
-                    in.readLine();
                }
-            } else {
-               System.out.print("Hotel does not belong to you\n");
-                 in.readLine();
+            } catch(SecurityException e) {
+               System.out.print(e.getMessage() + "\n");
             }
+            in.readLine();
          } else {
             System.out.print("You are not a manager\n");
               in.readLine();
@@ -1513,26 +1831,20 @@ while (keeptrying){
          System.out.println("-----------------------------------------------------------------");
          System.out.println(" View Room Repair History");
         System.out.println("------------------------------------------------------------------");
-         String exampleQuery = String.format("SELECT UserType FROM Users WHERE userID = '%s'",authenticatedUser.getUserID());
-         List<List<String>> tempQuery = esql.executeQueryAndReturnResult(exampleQuery);
-         String tempString = tempQuery.get(0).get(0).trim();
          
-         if(tempString.equals("manager")) {
-            //String query = String.format("SELECT r.companyID, r.hotelID, r.roomNumber, r.repairDate FROM RoomRepairs as r, RoomRepairRequests as h WHERE h.managerID = '%s' AND r.repairID = h.repairID", getUserID());         
-            String query = String.format("SELECT r.* FROM RoomRepairs as r, RoomRepairRequests as h WHERE h.managerID = '%s' AND r.repairID = h.repairID", authenticatedUser.getUserID());         
-
-            List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         if(authenticatedUser.isManager()) {
+            ResultTable results = esql.getService().repairHistory(authenticatedUser);
             
             System.out.println("\nHere is the repair history for your hotels.\n");
             System.out.println("------------------------------------------------------------------");
             System.out.println(String.format("%-10s %-10s %-10s %-10s %-10s","Repair ID","Company ID","Hotel ID","Room Number","Repair Date"));
             System.out.println("------------------------------------------------------------------");
-            for(List<String> repairRequest: results){
-               String repairID = repairRequest.get(0).trim();
-               String companyID =repairRequest.get(1).trim();
-               String HotelID = repairRequest.get(2).trim();
-               String roomnumber = repairRequest.get(3).trim();
-               String repairDate = repairRequest.get(4).trim();
+            for(int row = 0; row < results.size(); ++row){
+               int repairID = results.getInt(row, "repairID");
+               int companyID =results.getInt(row, "companyID");
+               int HotelID = results.getInt(row, "hotelID");
+               int roomnumber = results.getInt(row, "roomNumber");
+               String repairDate = results.getString(row, "repairDate");
                System.out.println(String.format("   %-10s %-10s %-10s %-10s %-10s",repairID,companyID,HotelID,roomnumber,repairDate));
             }
 
@@ -1551,4 +1863,3 @@ while (keeptrying){
 
 
 }//end Hotel
-
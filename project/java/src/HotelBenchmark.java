@@ -0,0 +1,277 @@
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Micro benchmark for the Hotel data-access layer.
+ *
+ * Runs the hot queries twice against a loaded database: once the old way,
+ * building the SQL with String.format and sending it on a fresh Statement,
+ * and once through the named, cached PreparedStatements. The difference is
+ * the parse/plan (and statement allocation) time the cache saves.
+ *
+ * The radius search and the room availability listing are also compared
+ * with the in-memory HotelSpatialIndex and RoomAvailabilityIndex.
+ * The booking contention run books the same small set of rooms and days
+ * from 1, 2, 4 and 8 threads through BookingEngine and reports booking
+ * attempts per second and the attempts of each outcome. The benchmark
+ * fails, exiting non-zero, when the bookings made are not exactly one per
+ * (room, day) slot attempted: more means a slot was booked twice, fewer
+ * that a free slot was refused.
+ *
+ * It also compares the bytes allocated per call by the List<List<String>>
+ * result rows and by the typed, columnar ResultTable.
+ *
+ * Usage: java HotelBenchmark <dbname> <port> <user> [iterations]
+ */
+public class HotelBenchmark {
+
+   // booking dates used by the availability comparisons
+   static final String[] DAYS = {"5/12/2015", "7/26/2016", "1/1/2017", "12/24/2018", "6/30/2019"};
+
+   // the first page of a manager's booking history: 20 rows, and one more telling there is a next page
+   static Object[] firstHistoryPage(int manager){
+      return new Object[] {"-infinity", "infinity", "infinity", Integer.MAX_VALUE, 21, manager, 21};
+   }
+
+   interface Operation {
+      void run(int i) throws SQLException;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HotelBenchmark.class.getName () +
+            " <dbname> <port> <user> [iterations]");
+         return;
+      }//end if
+
+      final int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      final Hotel esql = new Hotel (args[0], args[1], args[2], "");
+
+      try{
+         compare("login", iterations,
+            i -> {
+               esql.executeQueryAndReturnResult(String.format("SELECT userID, name, userType FROM Users WHERE name = '%s' AND password = '%s'", "Amy", "xyz"));
+            },
+            i -> {
+               esql.executeQueryAndReturnResult(HotelQuery.LOGIN, "Amy", "xyz");
+            });
+
+         compare("viewHotels", iterations,
+            i -> {
+               esql.executeQueryAndReturnResult(String.format("SELECT hotelID, hotelName, dateEstablished FROM Hotel h WHERE calculate_distance('%s','%s',h.latitude,h.longitude) <= 30", 50.0 + i % 40, 10.0 + i % 40));
+            },
+            i -> {
+               esql.executeQueryAndReturnResult(HotelQuery.HOTELS_WITHIN, 50.0 + i % 40, 10.0 + i % 40, 30);
+            });
+
+         esql.getHotelIndex().reload();
+         compare("viewHotels (index)", iterations,
+            i -> {
+               esql.executeQueryAndReturnResult(HotelQuery.HOTELS_WITHIN, 50.0 + i % 40, 10.0 + i % 40, 30);
+            },
+            i -> {
+               esql.getHotelIndex().within(50.0 + i % 40, 10.0 + i % 40, 30);
+            });
+
+         compare("viewRooms", iterations,
+            i -> {
+               esql.executeQueryAndReturnResult(String.format("SELECT r.roomNumber, r.price FROM Rooms r WHERE r.hotelID = '%s' AND r.roomNumber NOT IN (SELECT b.roomNumber FROM RoomBookings b WHERE b.hotelID = r.hotelID AND b.bookingDate = '%s')", 1 + i % 20, "5/12/2015"));
+            },
+            i -> {
+               esql.executeQueryAndReturnResult(HotelQuery.AVAILABLE_ROOMS, 1 + i % 20, "5/12/2015");
+            });
+
+         // run against a large RoomBookings (10^6+ rows) to see the NOT IN subquery degrade
+         System.out.println("availability index: " + esql.getAvailabilityIndex().bookingCount() + " bookings");
+         compare("viewRooms (index)", iterations,
+            i -> {
+               esql.executeQueryAndReturnTable(HotelQuery.AVAILABLE_ROOMS, 1 + i % 20, DAYS[i % DAYS.length]);
+            },
+            i -> {
+               esql.getAvailabilityIndex().available(1 + i % 20, RoomAvailabilityIndex.epochDay(DAYS[i % DAYS.length]));
+            });
+
+         compare("bookRooms (room checks)", iterations,
+            i -> {
+               int hotel = 1 + i % 20, room = 1 + i % 10;
+               esql.executeQuery(String.format("SELECT * FROM rooms r WHERE r.roomNumber ='%s' AND r.HotelID ='%s' ", room, hotel));
+               esql.executeQuery(String.format("SELECT r.roomnumber,r.price FROM Rooms r WHERE r.roomNumber IN ( SELECT b.roomNumber FROM RoomBookings b WHERE b.hotelID='%s' AND b.roomNumber='%s' AND b.bookingDate='%s')", hotel, room, "5/12/2015"));
+               esql.executeQueryAndReturnResult(String.format("SELECT r.price FROM Rooms r WHERE r.roomNumber='%s' AND r.hotelID='%s'", room, hotel));
+            },
+            i -> {
+               int hotel = 1 + i % 20, room = 1 + i % 10;
+               esql.exists(HotelQuery.ROOM_EXISTS, room, hotel);
+               esql.exists(HotelQuery.ROOM_BOOKED, hotel, room, "5/12/2015");
+               esql.executeQueryAndReturnResult(HotelQuery.ROOM_PRICE, room, hotel);
+            });
+         // both variants burn sequence values; the gaps are harmless
+         compare("next ID", iterations,
+            i -> {
+               esql.getNewUserID("SELECT nextval('roomUpdatesLog_updateNumber_seq')");
+            },
+            i -> {
+               esql.getIdAllocator().next(IdAllocator.Sequence.ROOM_UPDATE);
+            });
+         compareAllocation("hotel list", iterations,
+            i -> {
+               esql.executeQueryAndReturnResult(HotelQuery.ALL_HOTELS);
+            },
+            i -> {
+               esql.executeQueryAndReturnTable(HotelQuery.ALL_HOTELS);
+            });
+
+         ResultTable sample = esql.executeQueryAndReturnTable(HotelQuery.SAMPLE_ROOMS, 1);
+         if (sample.isEmpty()){
+            throw new SQLException("no rooms loaded");
+         }
+         final Object[] historyPage = firstHistoryPage(sample.getInt(0, "managerUserID"));
+         compareAllocation("booking history", iterations / 10,
+            i -> {
+               esql.executeQueryAndReturnResult(HotelQuery.BOOKING_HISTORY_PAGE, historyPage);
+            },
+            i -> {
+               esql.executeQueryAndReturnTable(HotelQuery.BOOKING_HISTORY_PAGE, historyPage);
+            });
+
+         for (int threads = 1; threads <= 8; threads *= 2){
+            contention(esql, threads, iterations / 4);
+         }
+
+         System.out.println("pool: " + esql.getPool());
+         System.out.println(esql.getResultCache());
+      }finally{
+         esql.cleanup ();
+      }
+   }//end main
+
+   /**
+    * Warms both variants up, then times them and prints the mean cost per
+    * call and the saving of the second (new) variant over the first.
+    */
+   static void compare(String name, int iterations, Operation before, Operation after) throws SQLException {
+      time(before, iterations / 10);
+      time(after, iterations / 10);
+
+      double beforeMicros = time(before, iterations);
+      double afterMicros = time(after, iterations);
+
+      System.out.println(String.format("%-25s before %9.1f us/op   after %9.1f us/op   saved %5.1f%%",
+         name, beforeMicros, afterMicros, 100.0 * (beforeMicros - afterMicros) / beforeMicros));
+   }//end compare
+
+   /**
+    * Prints the bytes allocated per call by the calling thread for the
+    * string-row and the columnar variant of the same query.
+    */
+   static void compareAllocation(String name, int iterations, Operation rows, Operation table) throws SQLException {
+      time(rows, iterations / 10);
+      time(table, iterations / 10);
+
+      double rowBytes = allocated(rows, iterations);
+      double tableBytes = allocated(table, iterations);
+
+      System.out.println(String.format("%-25s rows %10.0f B/op    table %10.0f B/op    saved %5.1f%%",
+         name, rowBytes, tableBytes, 100.0 * (rowBytes - tableBytes) / rowBytes));
+   }//end compareAllocation
+
+   static double allocated(Operation op, int iterations) throws SQLException {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long thread = Thread.currentThread().getId();
+      long start = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < iterations; ++i){
+         op.run(i);
+      }
+      return (threads.getThreadAllocatedBytes(thread) - start) / (double) Math.max(1, iterations);
+   }//end allocated
+
+   // bookings made by the contention run are dated from here on and removed afterwards
+   static final LocalDate CONTENTION_START = LocalDate.of(2999, 1, 1);
+
+   /**
+    * Lets the given number of threads race to book random (hotel, room,
+    * day) slots out of a pool small enough that most attempts collide, then
+    * verifies that exactly one attempt was booked for every slot of an
+    * existing room that was attempted.
+    *
+    * @throws IllegalStateException when a slot was booked twice or not at all
+    */
+   static void contention(final Hotel esql, int threads, final int attemptsPerThread) throws Exception {
+      final int slotDays = 50;
+      // the slots of existing rooms attempted, as (hotel * 16 + room) * 64 + day
+      final Set<Integer> slots = ConcurrentHashMap.newKeySet();
+      // leftovers of an interrupted run would be reported as already booked
+      esql.executeUpdate(HotelQuery.DELETE_BOOKINGS_FROM, CONTENTION_START.toString());
+      ExecutorService workers = Executors.newFixedThreadPool(threads);
+      // bookings per outcome, by BookingEngine.Status ordinal
+      List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+      long start = System.nanoTime();
+      for (int t = 0; t < threads; ++t){
+         final long seed = t;
+         results.add(workers.submit(new Callable<int[]>(){
+            public int[] call() throws Exception {
+               Random random = new Random(seed);
+               int[] outcomes = new int[BookingEngine.Status.values().length];
+               for (int i = 0; i < attemptsPerThread; ++i){
+                  int hotel = 1 + random.nextInt(20);
+                  int room = 1 + random.nextInt(10);
+                  int day = random.nextInt(slotDays);
+                  BookingEngine.Status status =
+                     esql.getBookingEngine().book(2, hotel, room, CONTENTION_START.plusDays(day).toString()).status;
+                  outcomes[status.ordinal()]++;
+                  if (status != BookingEngine.Status.NO_SUCH_ROOM){
+                     slots.add((hotel * 16 + room) * 64 + day);
+                  }
+               }
+               return outcomes;
+            }
+         }));
+      }
+      int[] outcomes = new int[BookingEngine.Status.values().length];
+      try{
+         for (Future<int[]> result : results){
+            int[] counts = result.get();
+            for (int i = 0; i < counts.length; ++i) outcomes[i] += counts[i];
+         }
+      }finally{
+         workers.shutdown();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.println(String.format("booking contention %d thread(s): %8.0f attempts/s   %5d booked   %5d already booked   %d no such room",
+         threads, threads * attemptsPerThread / seconds, outcomes[BookingEngine.Status.BOOKED.ordinal()],
+         outcomes[BookingEngine.Status.ALREADY_BOOKED.ordinal()], outcomes[BookingEngine.Status.NO_SUCH_ROOM.ordinal()]));
+
+      esql.executeUpdate(HotelQuery.DELETE_BOOKINGS_FROM, CONTENTION_START.toString());
+      esql.getAvailabilityIndex().invalidate();
+      esql.getTopCustomers().invalidate();
+
+      int booked = outcomes[BookingEngine.Status.BOOKED.ordinal()];
+      if (booked != slots.size()){
+         throw new IllegalStateException(String.format("booking contention %d thread(s): %d booking(s) for %d slot(s)",
+            threads, booked, slots.size()));
+      }
+   }//end contention
+
+   static double time(Operation op, int iterations) throws SQLException {
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; ++i){
+         op.run(i);
+      }
+      return (System.nanoTime() - start) / 1000.0 / Math.max(1, iterations);
+   }//end time
+
+}//end HotelBenchmark
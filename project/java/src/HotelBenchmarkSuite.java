@@ -0,0 +1,396 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Throughput, latency and allocation benchmark of the Hotel data-access
+ * layer and of the operations behind the menus, in the style of JMH.
+ *
+ * Each benchmark runs for hotel.bench.warmup seconds, whose results are
+ * thrown away, and then for hotel.bench.measure seconds on
+ * hotel.bench.threads threads. Every call is timed into a
+ * LatencyHistogram; operations that take nanoseconds are timed in batches
+ * and the batch time divided. Bytes allocated per operation and allocation
+ * rate are read from the JVM's per-thread allocation counters.
+ *
+ * Inputs (rooms, hotels, managers, customers and days) are sampled from
+ * the loaded database up front, so the same suite runs unchanged against
+ * the shipped CSVs and against generated data of any scale factor. The
+ * dataset size is printed with the results, and hotel.bench.scale labels
+ * each row of the CSV written to hotel.bench.csv (appended), so runs at
+ * several scale factors end up in one file.
+ *
+ * Bookings made by the bookRooms benchmark are dated from 2999-01-01 and
+ * deleted at the end.
+ *
+ * Usage: java HotelBenchmarkSuite <dbname> <port> <user> [benchmark ...]
+ */
+public class HotelBenchmarkSuite {
+
+   /**
+    * One benchmarked operation. i counts the calls made by the thread.
+    */
+   interface Benchmark {
+      void run(Random random, int i) throws SQLException;
+   }
+
+   private static class Spec {
+      final String name;
+      final int batch;
+      final Benchmark body;
+
+      Spec(String name, int batch, Benchmark body){
+         this.name = name;
+         this.batch = batch;
+         this.body = body;
+      }
+   }//end Spec
+
+   /**
+    * The results of one benchmark.
+    */
+   static class Result {
+      final String name;
+      final int threads;
+      final long operations;
+      final double seconds;
+      final LatencyHistogram latency;
+      final long allocatedBytes;
+      final long errors;
+
+      Result(String name, int threads, long operations, double seconds, LatencyHistogram latency,
+             long allocatedBytes, long errors){
+         this.name = name;
+         this.threads = threads;
+         this.operations = operations;
+         this.seconds = seconds;
+         this.latency = latency;
+         this.allocatedBytes = allocatedBytes;
+         this.errors = errors;
+      }
+
+      double throughput(){
+         return operations / seconds;
+      }
+
+      double bytesPerOperation(){
+         return allocatedBytes / (double) Math.max(1, operations);
+      }
+
+      double allocationRate(){
+         return allocatedBytes / seconds / (1024 * 1024);
+      }
+   }//end Result
+
+   // bookings made by the suite are dated from here on and removed afterwards
+   static final LocalDate BOOKING_START = LocalDate.of(2999, 1, 1);
+
+   private final Hotel _esql;
+   private final HotelService _service;
+   private final int _threads;
+   private final double _warmupSeconds;
+   private final double _measureSeconds;
+
+   // sampled inputs
+   private int[] _hotels, _rooms, _managers;
+   private double[] _latitudes, _longitudes;
+   private int[] _customers;
+   private String[] _days;
+   private ResultTable _dataset;
+
+   // CPU-only results are compared against it so the JIT cannot drop the work
+   static volatile double sink;
+
+   public HotelBenchmarkSuite(Hotel esql, int threads, double warmupSeconds, double measureSeconds){
+      this._esql = esql;
+      this._service = esql.getService();
+      this._threads = threads;
+      this._warmupSeconds = warmupSeconds;
+      this._measureSeconds = measureSeconds;
+   }
+
+   /**
+    * Samples the benchmark inputs from the database.
+    */
+   public void setUp(int samples) throws SQLException {
+      _dataset = _esql.executeQueryAndReturnTable(HotelQuery.DATASET_SIZE);
+
+      ResultTable rooms = _esql.executeQueryAndReturnTable(HotelQuery.SAMPLE_ROOMS, samples);
+      if (rooms.isEmpty()){
+         throw new SQLException("no rooms loaded");
+      }
+      int n = rooms.size();
+      _hotels = new int[n]; _rooms = new int[n]; _managers = new int[n];
+      _latitudes = new double[n]; _longitudes = new double[n];
+      for (int row = 0; row < n; ++row){
+         _hotels[row] = rooms.getInt(row, "hotelID");
+         _rooms[row] = rooms.getInt(row, "roomNumber");
+         _managers[row] = rooms.getInt(row, "managerUserID");
+         _latitudes[row] = rooms.getDouble(row, "latitude");
+         _longitudes[row] = rooms.getDouble(row, "longitude");
+      }
+
+      ResultTable customers = _esql.executeQueryAndReturnTable(HotelQuery.SAMPLE_CUSTOMERS, samples);
+      if (customers.isEmpty()){
+         throw new SQLException("no customers loaded");
+      }
+      _customers = new int[customers.size()];
+      for (int row = 0; row < _customers.length; ++row){
+         _customers[row] = customers.getInt(row, "userID");
+      }
+
+      // days spread over the booked period, so listings hit real bookings
+      LocalDate first = _dataset.isNull(0, "first_day") ? LocalDate.of(2015, 1, 1) : _dataset.getDate(0, "first_day").toLocalDate();
+      LocalDate last = _dataset.isNull(0, "last_day") ? first : _dataset.getDate(0, "last_day").toLocalDate();
+      long span = Math.max(1, last.toEpochDay() - first.toEpochDay());
+      Random random = new Random(42);
+      _days = new String[256];
+      for (int i = 0; i < _days.length; ++i){
+         _days[i] = first.plusDays((long) (random.nextDouble() * span)).toString();
+      }
+
+      // build the in-memory indexes outside the measurements
+      _esql.getHotelIndex().reload();
+      _esql.getAvailabilityIndex().reload();
+   }//end setUp
+
+   /**
+    * @return the dataset size as "hotels=.. rooms=.. users=.. bookings=.."
+    */
+   public String describeDataset(){
+      return String.format("hotels=%d rooms=%d users=%d bookings=%d",
+         _dataset.getLong(0, "hotels"), _dataset.getLong(0, "rooms"),
+         _dataset.getLong(0, "users"), _dataset.getLong(0, "bookings"));
+   }
+
+   private AuthorizedUser customer(Random random){
+      return new AuthorizedUser(_customers[random.nextInt(_customers.length)], "bench", "customer");
+   }
+
+   /**
+    * @return every benchmark of the suite, by name, in run order
+    */
+   Map<String, Spec> benchmarks(){
+      Map<String, Spec> all = new LinkedHashMap<String, Spec>();
+
+      all.put("calculateDistance", new Spec("calculateDistance", 1000, (random, i) -> {
+         double d = _esql.calculateDistance(_latitudes[i % _latitudes.length], _longitudes[i % _longitudes.length],
+            50.0 + (i & 63), 10.0 + (i & 31));
+         if (d == -1) sink = d;
+      }));
+
+      all.put("executeQuery", new Spec("executeQuery", 1, (random, i) -> {
+         int k = random.nextInt(_hotels.length);
+         _esql.executeQuery(String.format("SELECT r.price FROM Rooms r WHERE r.hotelID = %d AND r.roomNumber = %d", _hotels[k], _rooms[k]));
+      }));
+
+      all.put("executeQueryAndReturnResult", new Spec("executeQueryAndReturnResult", 1, (random, i) -> {
+         int k = random.nextInt(_hotels.length);
+         _esql.executeQueryAndReturnResult(HotelQuery.ROOM_PRICE, _rooms[k], _hotels[k]);
+      }));
+
+      all.put("viewHotels", new Spec("viewHotels", 1, (random, i) -> {
+         int k = random.nextInt(_hotels.length);
+         _service.hotelsNear(customer(random), _latitudes[k] + random.nextGaussian() * 10, _longitudes[k] + random.nextGaussian() * 10);
+      }));
+
+      all.put("viewHotels.sql", new Spec("viewHotels.sql", 1, (random, i) -> {
+         int k = random.nextInt(_hotels.length);
+         _esql.executeQueryAndReturnTable(HotelQuery.HOTELS_WITHIN, _latitudes[k] + random.nextGaussian() * 10,
+            _longitudes[k] + random.nextGaussian() * 10, (int) HotelService.NEARBY_RADIUS);
+      }));
+
+      all.put("viewRooms", new Spec("viewRooms", 1, (random, i) -> {
+         _service.availableRooms(customer(random), _hotels[random.nextInt(_hotels.length)], _days[random.nextInt(_days.length)]);
+      }));
+
+      all.put("viewRooms.sql", new Spec("viewRooms.sql", 1, (random, i) -> {
+         _esql.executeQueryAndReturnTable(HotelQuery.AVAILABLE_ROOMS, _hotels[random.nextInt(_hotels.length)], _days[random.nextInt(_days.length)]);
+      }));
+
+      all.put("bookRooms", new Spec("bookRooms", 1, (random, i) -> {
+         int k = random.nextInt(_hotels.length);
+         AuthorizedUser session = customer(random);
+         HotelService.BookingRequest request = new HotelService.BookingRequest(_hotels[k], _rooms[k],
+            BOOKING_START.plusDays(random.nextInt(3650)).toString());
+         if (_service.quote(session, request).isAvailable()){
+            _service.book(session, request);
+         }
+      }));
+
+      all.put("viewRegularCustomers", new Spec("viewRegularCustomers", 1, (random, i) -> {
+         int k = random.nextInt(_hotels.length);
+         _service.regularCustomers(new AuthorizedUser(_managers[k], "bench", "manager"), _hotels[k]);
+      }));
+
+      return all;
+   }//end benchmarks
+
+   /**
+    * Runs one benchmark: warmup, then measurement on all threads.
+    */
+   Result run(final Spec spec) throws Exception {
+      measure(spec, _warmupSeconds);
+      return measure(spec, _measureSeconds);
+   }
+
+   private Result measure(final Spec spec, double seconds) throws Exception {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final long[] operations = new long[_threads];
+      final long[] allocated = new long[_threads];
+      final long[] errors = new long[_threads];
+      final AtomicBoolean running = new AtomicBoolean(true);
+      final CountDownLatch ready = new CountDownLatch(_threads);
+      final CountDownLatch go = new CountDownLatch(1);
+      final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int t = 0; t < _threads; ++t){
+         final int id = t;
+         Thread worker = new Thread(() -> {
+            Random random = new Random(1000 + id);
+            ready.countDown();
+            try{
+               go.await();
+            }catch (InterruptedException e){
+               return;
+            }
+            long startBytes = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            int i = 0;
+            while (running.get()){
+               long start = System.nanoTime();
+               try{
+                  for (int b = 0; b < spec.batch; ++b){
+                     spec.body.run(random, i++);
+                  }
+                  long elapsed = System.nanoTime() - start;
+                  latency.record(spec.batch == 1 ? elapsed : elapsed / spec.batch);
+                  operations[id] += spec.batch;
+               }catch (SQLException | RuntimeException e){
+                  errors[id]++;
+               }
+            }
+            allocated[id] = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+         }, "bench-" + spec.name + "-" + t);
+         workers.add(worker);
+         worker.start();
+      }
+
+      ready.await();
+      long start = System.nanoTime();
+      go.countDown();
+      Thread.sleep((long) (seconds * 1000));
+      running.set(false);
+      for (Thread worker : workers){
+         worker.join();
+      }
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      long ops = 0, bytes = 0, failed = 0;
+      for (int t = 0; t < _threads; ++t){
+         ops += operations[t];
+         bytes += allocated[t];
+         failed += errors[t];
+      }
+      return new Result(spec.name, _threads, ops, elapsed, latency, bytes, failed);
+   }//end measure
+
+   static String header(){
+      return String.format("%-28s %3s %12s %10s %10s %10s %10s %10s %12s %10s %6s",
+         "benchmark", "thr", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "B/op", "MB/s", "errors");
+   }
+
+   static String format(Result r){
+      LatencyHistogram h = r.latency;
+      return String.format("%-28s %3d %12.1f %10.2f %10.2f %10.2f %10.2f %10.2f %12.1f %10.1f %6d",
+         r.name, r.threads, r.throughput(), h.getPercentile(50) / 1000.0, h.getPercentile(90) / 1000.0,
+         h.getPercentile(99) / 1000.0, h.getPercentile(99.9) / 1000.0, h.getMax() / 1000.0,
+         r.bytesPerOperation(), r.allocationRate(), r.errors);
+   }
+
+   static void appendCsv(String file, String scale, String dataset, List<Result> results) throws IOException {
+      boolean exists = new java.io.File(file).exists();
+      PrintWriter out = new PrintWriter(new FileWriter(file, true));
+      try{
+         if (!exists){
+            out.println("scale,dataset,benchmark,threads,ops_per_s,p50_us,p90_us,p99_us,p999_us,max_us,bytes_per_op,alloc_mb_per_s,errors");
+         }
+         for (Result r : results){
+            LatencyHistogram h = r.latency;
+            out.println(String.format("%s,\"%s\",%s,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,%.1f,%.1f,%d",
+               scale, dataset, r.name, r.threads, r.throughput(), h.getPercentile(50) / 1000.0,
+               h.getPercentile(90) / 1000.0, h.getPercentile(99) / 1000.0, h.getPercentile(99.9) / 1000.0,
+               h.getMax() / 1000.0, r.bytesPerOperation(), r.allocationRate(), r.errors));
+         }
+      }finally{
+         out.close();
+      }
+   }//end appendCsv
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HotelBenchmarkSuite.class.getName () +
+            " <dbname> <port> <user> [benchmark ...]");
+         return;
+      }//end if
+
+      int threads = Integer.getInteger("hotel.bench.threads", 1);
+      double warmup = Double.parseDouble(System.getProperty("hotel.bench.warmup", "5"));
+      double measure = Double.parseDouble(System.getProperty("hotel.bench.measure", "10"));
+      String scale = System.getProperty("hotel.bench.scale", "1");
+      String csv = System.getProperty("hotel.bench.csv");
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      ConnectionPool.Config pool = new ConnectionPool.Config();
+      pool.maxSize = Math.max(pool.maxSize, threads);
+      Hotel esql = new Hotel (args[0], args[1], args[2], "", pool);
+      try{
+         HotelBenchmarkSuite suite = new HotelBenchmarkSuite(esql, threads, warmup, measure);
+         suite.setUp(Integer.getInteger("hotel.bench.samples", 10000));
+         String dataset = suite.describeDataset();
+         System.out.println("dataset: " + dataset + "   scale: " + scale);
+         System.out.println(String.format("threads: %d   warmup: %.0f s   measure: %.0f s", threads, warmup, measure));
+
+         Map<String, Spec> all = suite.benchmarks();
+         List<String> selected = args.length > 3 ? Arrays.asList(args).subList(3, args.length) : new ArrayList<String>(all.keySet());
+         List<Result> results = new ArrayList<Result>();
+         System.out.println(header());
+         for (String name : selected){
+            Spec spec = all.get(name);
+            if (spec == null){
+               System.err.println("unknown benchmark " + name + ", one of " + all.keySet());
+               continue;
+            }
+            Result result = suite.run(spec);
+            results.add(result);
+            System.out.println(format(result));
+         }
+
+         if (csv != null){
+            appendCsv(csv, scale, dataset, results);
+         }
+         System.out.println("pool: " + esql.getPool());
+         System.out.println(esql.getResultCache());
+      }finally{
+         esql.executeUpdate(HotelQuery.DELETE_BOOKINGS_FROM, BOOKING_START.toString());
+         esql.getAvailabilityIndex().invalidate();
+         esql.getTopCustomers().invalidate();
+         esql.cleanup ();
+      }
+   }//end main
+
+}//end HotelBenchmarkSuite
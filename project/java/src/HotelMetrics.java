@@ -0,0 +1,316 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms, call counts and error counts of the hotel system.
+ *
+ * There is one Timer per HotelService operation, per named HotelQuery and
+ * per plain-SQL primitive of Hotel. Recording costs a few atomic additions
+ * (see LatencyHistogram), so timers stay on in production.
+ *
+ * Every timer is published as an MXBean named hotel:type=Operation,
+ * hotel:type=Query or hotel:type=Statement with its name as the name key,
+ * unless hotel.metrics.jmx is false. When hotel.metrics.file is set, all
+ * timers are also written to that file in the Prometheus text format every
+ * hotel.metrics.period seconds (default 15), replacing it atomically, as the
+ * node_exporter textfile collector expects.
+ */
+public class HotelMetrics {
+
+   /**
+    * What JMX shows of a timer. Times are in microseconds.
+    */
+   public interface TimerMXBean {
+      long getCount();
+      long getErrors();
+      double getErrorRate();
+      double getMeanMicros();
+      double getP50Micros();
+      double getP90Micros();
+      double getP99Micros();
+      double getP999Micros();
+      double getMaxMicros();
+      void reset();
+   }//end TimerMXBean
+
+   /**
+    * The latencies and failures of one operation or query.
+    */
+   public static class Timer implements TimerMXBean {
+      private final String _type;
+      private final String _name;
+      private final LatencyHistogram _latency = new LatencyHistogram();
+      private final LongAdder _errors = new LongAdder();
+
+      Timer(String type, String name){
+         this._type = type;
+         this._name = name;
+      }
+
+      public String getName(){
+         return _name;
+      }
+
+      /**
+       * Records one call that started at startNanos, as returned by
+       * System.nanoTime().
+       */
+      public void recordSince(long startNanos){
+         _latency.recordSince(startNanos);
+      }
+
+      /**
+       * Counts one failed call; its time is recorded with recordSince as
+       * for any other.
+       */
+      public void error(){
+         _errors.increment();
+      }
+
+      public LatencyHistogram getLatency(){
+         return _latency;
+      }
+
+      public long getCount(){
+         return _latency.getCount();
+      }
+
+      public long getErrors(){
+         return _errors.sum();
+      }
+
+      public double getErrorRate(){
+         long count = getCount();
+         return count == 0 ? 0 : getErrors() / (double) count;
+      }
+
+      public double getMeanMicros(){
+         return _latency.getMean() / 1000.0;
+      }
+
+      public double getP50Micros(){
+         return _latency.getPercentile(50) / 1000.0;
+      }
+
+      public double getP90Micros(){
+         return _latency.getPercentile(90) / 1000.0;
+      }
+
+      public double getP99Micros(){
+         return _latency.getPercentile(99) / 1000.0;
+      }
+
+      public double getP999Micros(){
+         return _latency.getPercentile(99.9) / 1000.0;
+      }
+
+      public double getMaxMicros(){
+         return _latency.getMax() / 1000.0;
+      }
+
+      public void reset(){
+         _latency.reset();
+         _errors.reset();
+      }
+
+      @Override
+      public String toString(){
+         return _name + ": " + _latency + " errors=" + getErrors();
+      }
+   }//end Timer
+
+   /**
+    * A piece of work that may fail with an SQLException, to be timed.
+    */
+   public interface SqlCall<T> {
+      T call() throws SQLException;
+   }
+
+   private static final String OPERATION = "Operation", QUERY = "Query", STATEMENT = "Statement";
+   private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+   private final Timer[] _queries = new Timer[HotelQuery.values().length];
+   private final ConcurrentHashMap<String, Timer> _operations = new ConcurrentHashMap<String, Timer>();
+   private final ConcurrentHashMap<String, Timer> _statements = new ConcurrentHashMap<String, Timer>();
+   private final MBeanServer _mbeans;
+   private ScheduledExecutorService _dumper;
+
+   public HotelMetrics(){
+      this._mbeans = Boolean.parseBoolean(System.getProperty("hotel.metrics.jmx", "true"))
+         ? ManagementFactory.getPlatformMBeanServer() : null;
+      for (HotelQuery query : HotelQuery.values()){
+         _queries[query.ordinal()] = register(new Timer(QUERY, query.name()));
+      }
+   }
+
+   private Timer register(Timer timer){
+      if (_mbeans == null) return timer;
+      try{
+         ObjectName name = new ObjectName("hotel:type=" + timer._type + ",name=" + ObjectName.quote(timer._name));
+         // a second instance in the same JVM takes the names over
+         if (_mbeans.isRegistered(name)) _mbeans.unregisterMBean(name);
+         _mbeans.registerMBean(timer, name);
+      }catch (JMException e){
+         System.err.println("metrics: cannot register " + timer._name + " with JMX: " + e.getMessage());
+      }
+      return timer;
+   }
+
+   /**
+    * @return the timer of a named query
+    */
+   public Timer query(HotelQuery query){
+      return _queries[query.ordinal()];
+   }
+
+   /**
+    * @return the timer of a HotelService operation, created on first use
+    */
+   public Timer operation(String name){
+      Timer timer = _operations.get(name);
+      return timer != null ? timer : _operations.computeIfAbsent(name, n -> register(new Timer(OPERATION, n)));
+   }
+
+   /**
+    * @return the timer of one of Hotel's plain-SQL primitives, such as
+    *         executeUpdate, created on first use
+    */
+   public Timer statement(String primitive){
+      Timer timer = _statements.get(primitive);
+      return timer != null ? timer : _statements.computeIfAbsent(primitive, n -> register(new Timer(STATEMENT, n)));
+   }
+
+   /**
+    * Runs the call and records its time under the operation. SQLExceptions
+    * and unexpected runtime exceptions count as errors; a SecurityException
+    * or IllegalArgumentException is the caller's mistake and does not.
+    */
+   public <T> T time(String operation, SqlCall<T> call) throws SQLException {
+      Timer timer = operation(operation);
+      long start = System.nanoTime();
+      // the operation's round trips are traced as one action, unless it is part of a larger one
+      QueryTracer.Action action = QueryTracer.begin(operation);
+      try{
+         return call.call();
+      }catch (SQLException e){
+         timer.error();
+         throw e;
+      }catch (SecurityException | IllegalArgumentException e){
+         throw e;
+      }catch (RuntimeException e){
+         timer.error();
+         throw e;
+      }finally{
+         action.close();
+         timer.recordSince(start);
+      }
+   }//end time
+
+   // ------------------------------------------------------------------
+   // Prometheus text format
+
+   private static String escape(String label){
+      return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+   }
+
+   private static void writeFamily(Writer out, String metric, String label, String help, Map<String, Timer> timers) throws IOException {
+      if (timers.isEmpty()) return;
+      out.write("# HELP " + metric + "_seconds " + help + "\n");
+      out.write("# TYPE " + metric + "_seconds summary\n");
+      for (Timer timer : timers.values()){
+         String name = label + "=\"" + escape(timer._name) + "\"";
+         for (double q : QUANTILES){
+            out.write(String.format(Locale.ROOT, "%s_seconds{%s,quantile=\"%s\"} %.9f\n", metric, name, q,
+               timer._latency.getPercentile(q * 100) / 1e9));
+         }
+         out.write(String.format(Locale.ROOT, "%s_seconds_sum{%s} %.9f\n", metric, name, timer._latency.getTotal() / 1e9));
+         out.write(metric + "_seconds_count{" + name + "} " + timer.getCount() + "\n");
+      }
+      out.write("# HELP " + metric + "_errors_total Failed calls.\n");
+      out.write("# TYPE " + metric + "_errors_total counter\n");
+      for (Timer timer : timers.values()){
+         out.write(metric + "_errors_total{" + label + "=\"" + escape(timer._name) + "\"} " + timer.getErrors() + "\n");
+      }
+   }//end writeFamily
+
+   /**
+    * Writes every timer that has been used in the Prometheus text format.
+    */
+   public void writePrometheus(Writer out) throws IOException {
+      Map<String, Timer> queries = new TreeMap<String, Timer>();
+      for (Timer timer : _queries){
+         if (timer.getCount() > 0) queries.put(timer._name, timer);
+      }
+      writeFamily(out, "hotel_operation", "operation", "Latency of HotelService operations.", new TreeMap<String, Timer>(_operations));
+      writeFamily(out, "hotel_query", "query", "Latency of named queries, including the wait for a connection.", queries);
+      writeFamily(out, "hotel_statement", "primitive", "Latency of plain SQL statements, by Hotel method.", new TreeMap<String, Timer>(_statements));
+      out.flush();
+   }//end writePrometheus
+
+   /**
+    * Writes the metrics to the file now, through a temporary file so that
+    * readers never see a partial one.
+    */
+   public void dump(File file) throws IOException {
+      File tmp = new File(file.getPath() + ".tmp");
+      try (Writer out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)){
+         writePrometheus(out);
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * Starts dumping to hotel.metrics.file every hotel.metrics.period
+    * seconds, if the file is set.
+    */
+   public synchronized void startDumping(){
+      String path = System.getProperty("hotel.metrics.file");
+      if (path == null || _dumper != null) return;
+      final File file = new File(path);
+      long period = Long.getLong("hotel.metrics.period", 15);
+      _dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "metrics-dump");
+         t.setDaemon(true);
+         return t;
+      });
+      _dumper.scheduleWithFixedDelay(() -> {
+         try{
+            dump(file);
+         }catch (IOException e){
+            System.err.println("metrics: cannot write " + file + ": " + e.getMessage());
+         }
+      }, period, period, TimeUnit.SECONDS);
+   }//end startDumping
+
+   /**
+    * Stops the periodic dump, writing the file one last time.
+    */
+   public synchronized void close(){
+      if (_dumper == null) return;
+      _dumper.shutdownNow();
+      _dumper = null;
+      try{
+         dump(new File(System.getProperty("hotel.metrics.file")));
+      }catch (IOException e){
+         // ignored.
+      }
+   }
+
+}//end HotelMetrics
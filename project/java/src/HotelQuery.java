@@ -0,0 +1,166 @@
+/**
+ * The named, parameterized statements issued by Hotel. Each constant carries
+ * its SQL text and the Java types of its '?' parameters so that a call site
+ * binding the wrong value fails before it reaches the server.
+ *
+ * Statements are prepared once per connection by StatementCache and reused
+ * for every call after that. A query can also be run in the EXISTS or COUNT
+ * shape, which wraps it so that the database answers with a single value
+ * instead of shipping every matching row.
+ */
+public enum HotelQuery {
+
+   // registration
+   USER_NAME_TAKEN("SELECT 1 FROM Users WHERE name = ?",
+         String.class),
+   INSERT_USER("INSERT INTO Users(userID, name, password, userType) VALUES (?, ?, ?, ?)",
+         Integer.class, String.class, String.class, String.class),
+
+   // reserves a block of values of a sequence for IdAllocator
+   NEXT_IDS("SELECT nextval(CAST(? AS regclass)) AS id FROM generate_series(1, ?)",
+         String.class, Integer.class),
+
+   // login and session
+   USER_TYPE("SELECT userType FROM Users WHERE userID = ?",
+         Integer.class),
+   LOGIN("SELECT userID, name, userType FROM Users WHERE name = ? AND password = ?",
+         String.class, String.class),
+
+   // browse hotels
+   HOTELS_WITHIN("SELECT hotelID, hotelName, dateEstablished FROM Hotel h WHERE calculate_distance(CAST(? AS decimal), CAST(? AS decimal), h.latitude, h.longitude) <= ?",
+         Double.class, Double.class, Integer.class),
+
+   HOTEL_LOCATIONS("SELECT hotelID, hotelName, latitude, longitude, dateEstablished FROM Hotel"),
+
+   // browse rooms
+   AVAILABLE_ROOMS("SELECT r.roomNumber, r.price FROM Rooms r WHERE r.hotelID = ? AND r.roomNumber NOT IN (SELECT b.roomNumber FROM RoomBookings b WHERE b.hotelID = r.hotelID AND b.bookingDate = CAST(? AS date))",
+         Integer.class, String.class),
+
+   ALL_ROOMS("SELECT hotelID, roomNumber FROM Rooms ORDER BY hotelID, roomNumber"),
+   ALL_BOOKED_ROOMS("SELECT hotelID, roomNumber, bookingDate FROM RoomBookings"),
+   HOTEL_ROOMS("SELECT roomNumber FROM Rooms WHERE hotelID = ? ORDER BY roomNumber",
+         Integer.class),
+   HOTEL_BOOKED_ROOMS("SELECT roomNumber, bookingDate FROM RoomBookings WHERE hotelID = ?",
+         Integer.class),
+
+   // book a room
+   ROOM_EXISTS("SELECT 1 FROM Rooms r WHERE r.roomNumber = ? AND r.hotelID = ?",
+         Integer.class, Integer.class),
+   ROOM_BOOKED("SELECT 1 FROM RoomBookings b WHERE b.hotelID = ? AND b.roomNumber = ? AND b.bookingDate = CAST(? AS date)",
+         Integer.class, Integer.class, String.class),
+   ROOM_QUOTE("SELECT r.price, CAST(EXISTS (SELECT 1 FROM RoomBookings b WHERE b.hotelID = r.hotelID AND b.roomNumber = r.roomNumber AND b.bookingDate = CAST(? AS date)) AS integer) AS booked FROM Rooms r WHERE r.hotelID = ? AND r.roomNumber = ?",
+         String.class, Integer.class, Integer.class),
+   BOOK_ROOM("SELECT status, booking_id, room_price FROM book_room(?, ?, ?, ?, CAST(? AS date))",
+         Integer.class, Integer.class, Integer.class, Integer.class, String.class),
+   ROOM_PRICE("SELECT r.price FROM Rooms r WHERE r.roomNumber = ? AND r.hotelID = ?",
+         Integer.class, Integer.class),
+   DELETE_BOOKINGS_FROM("DELETE FROM RoomBookings WHERE bookingDate >= CAST(? AS date)",
+         String.class),
+
+   // benchmark inputs
+   DATASET_SIZE("SELECT (SELECT COUNT(*) FROM Hotel) AS hotels, (SELECT COUNT(*) FROM Rooms) AS rooms, (SELECT COUNT(*) FROM Users) AS users, (SELECT COUNT(*) FROM RoomBookings) AS bookings, (SELECT MIN(bookingDate) FROM RoomBookings) AS first_day, (SELECT MAX(bookingDate) FROM RoomBookings) AS last_day"),
+   SAMPLE_ROOMS("SELECT r.hotelID, r.roomNumber, h.managerUserID, h.latitude, h.longitude FROM Rooms r, Hotel h WHERE r.hotelID = h.hotelID ORDER BY random() LIMIT ?",
+         Integer.class),
+   SAMPLE_CUSTOMERS("SELECT userID FROM Users WHERE userType = 'customer' ORDER BY random() LIMIT ?",
+         Integer.class),
+
+   // recent bookings of a customer
+   RECENT_BOOKINGS("SELECT b.hotelID, b.roomNumber, r.price, b.bookingDate FROM Rooms as r, RoomBookings as b WHERE b.hotelID = r.hotelID AND b.roomNumber = r.roomNumber AND b.customerID = ? ORDER BY b.* DESC LIMIT 5",
+         Integer.class),
+
+   // update room information
+   ALL_HOTELS("SELECT hotelID, hotelName, dateEstablished FROM Hotel"),
+   MANAGED_HOTELS("SELECT hotelID, hotelName, dateEstablished FROM Hotel WHERE managerUserID = ?",
+         Integer.class),
+   MANAGES_HOTEL("SELECT 1 FROM Hotel WHERE hotelID = ? AND managerUserID = ?",
+         Integer.class, Integer.class),
+   HOTEL_CATALOG("SELECT h.hotelName, r.roomNumber, r.price, r.imageURL FROM Hotel h LEFT JOIN Rooms r ON r.hotelID = h.hotelID WHERE h.hotelID = ? ORDER BY r.roomNumber",
+         Integer.class),
+   ROOM_DETAILS("SELECT r.price, r.imageURL FROM Rooms r WHERE r.roomNumber = ? AND r.hotelID = ?",
+         Integer.class, Integer.class),
+   UPDATE_ROOM("UPDATE Rooms SET price = ?, imageURL = ? WHERE hotelID = ? AND roomNumber = ?",
+         Integer.class, String.class, Integer.class, Integer.class),
+   INSERT_ROOM_UPDATE("INSERT INTO RoomUpdatesLog(updateNumber, managerID, hotelID, roomNumber, updatedOn) VALUES (?, ?, ?, ?, ?)",
+         Integer.class, Integer.class, Integer.class, Integer.class, java.sql.Timestamp.class),
+
+   // room updates log
+   RECENT_UPDATES("SELECT l.updateNumber, l.hotelID, l.roomNumber, l.updatedOn FROM RoomUpdatesLog as l WHERE l.managerID = ? ORDER BY updatedOn DESC LIMIT 5",
+         Integer.class),
+   // a manager's updates, a page at a time (see HotelService.PageRequest)
+   ROOM_UPDATES_PAGE("SELECT updateNumber, managerID, hotelID, roomNumber, updatedOn FROM RoomUpdatesLog WHERE managerID = ? AND (updatedOn, updateNumber) < (CAST(? AS timestamp), ?) ORDER BY updatedOn DESC, updateNumber DESC LIMIT ?",
+         Integer.class, String.class, Integer.class, Integer.class),
+   ROOM_UPDATES_PAGE_NEWER("SELECT * FROM (SELECT updateNumber, managerID, hotelID, roomNumber, updatedOn FROM RoomUpdatesLog WHERE managerID = ? AND (updatedOn, updateNumber) > (CAST(? AS timestamp), ?) ORDER BY updatedOn, updateNumber LIMIT ?) as p ORDER BY updatedOn DESC, updateNumber DESC",
+         Integer.class, String.class, Integer.class, Integer.class),
+
+   // booking history of the manager's hotels in a date range, a page at a time (see HotelService.PageRequest);
+   // each hotel gives at most a page of bookings from its index, however long its history is
+   BOOKING_HISTORY_PAGE("SELECT b.bookingID, b.customerID, u.name, b.hotelID, b.roomNumber, b.bookingDate FROM Hotel as h CROSS JOIN LATERAL (SELECT bookingID, customerID, hotelID, roomNumber, bookingDate FROM RoomBookings WHERE hotelID = h.hotelID AND bookingDate BETWEEN CAST(? AS date) AND CAST(? AS date) AND (bookingDate, bookingID) < (CAST(? AS date), ?) ORDER BY bookingDate DESC, bookingID DESC LIMIT ?) as b, Users as u WHERE h.managerUserID = ? AND u.userID = b.customerID ORDER BY b.bookingDate DESC, b.bookingID DESC LIMIT ?",
+         String.class, String.class, String.class, Integer.class, Integer.class, Integer.class, Integer.class),
+   BOOKING_HISTORY_PAGE_NEWER("SELECT * FROM (SELECT b.bookingID, b.customerID, u.name, b.hotelID, b.roomNumber, b.bookingDate FROM Hotel as h CROSS JOIN LATERAL (SELECT bookingID, customerID, hotelID, roomNumber, bookingDate FROM RoomBookings WHERE hotelID = h.hotelID AND bookingDate BETWEEN CAST(? AS date) AND CAST(? AS date) AND (bookingDate, bookingID) > (CAST(? AS date), ?) ORDER BY bookingDate, bookingID LIMIT ?) as b, Users as u WHERE h.managerUserID = ? AND u.userID = b.customerID ORDER BY b.bookingDate, b.bookingID LIMIT ?) as p ORDER BY bookingDate DESC, bookingID DESC",
+         String.class, String.class, String.class, Integer.class, Integer.class, Integer.class, Integer.class),
+
+   // regular customers
+   CUSTOMER_BOOKING_COUNTS("SELECT hotelID, customerID, COUNT(*) AS bookings, MAX(bookingID) AS newest FROM RoomBookings GROUP BY hotelID, customerID"),
+   HOTEL_CUSTOMER_BOOKING_COUNTS("SELECT customerID, COUNT(*) AS bookings, MAX(bookingID) AS newest FROM RoomBookings WHERE hotelID = ? GROUP BY customerID",
+         Integer.class),
+   ALL_USER_NAMES("SELECT userID, name FROM Users"),
+   USER_NAME("SELECT name FROM Users WHERE userID = ?",
+         Integer.class),
+
+   // room repairs
+   REPAIR_EXISTS("SELECT 1 FROM RoomRepairs WHERE companyID = ? AND hotelID = ? AND roomNumber = ? AND repairDate = CAST(? AS date)",
+         Integer.class, Integer.class, Integer.class, String.class),
+   INSERT_REPAIR("INSERT INTO RoomRepairs(repairID, companyID, hotelID, roomNumber, repairDate) VALUES (?, ?, ?, ?, CAST(? AS date))",
+         Integer.class, Integer.class, Integer.class, Integer.class, String.class),
+   INSERT_REPAIR_REQUEST("INSERT INTO RoomRepairRequests(requestNumber, managerID, repairID) VALUES (?, ?, ?)",
+         Integer.class, Integer.class, Integer.class),
+   ALL_COMPANIES("SELECT companyID, name FROM MaintenanceCompany"),
+   CURRENT_DATE("SELECT CURRENT_DATE AS today"),
+   REPAIR_HISTORY("SELECT r.repairID, r.companyID, r.hotelID, r.roomNumber, r.repairDate FROM RoomRepairs as r, RoomRepairRequests as h WHERE h.managerID = ? AND r.repairID = h.repairID",
+         Integer.class);
+
+   /**
+    * How a query is sent: as written, as SELECT EXISTS (...), as
+    * SELECT COUNT(*) FROM (...), or as the DECLARE of a cursor named
+    * CURSOR_NAME to FETCH its rows from.
+    */
+   public enum Shape {
+      ROWS, EXISTS, COUNT, CURSOR
+   }
+
+   /** The cursor a query sent as Shape.CURSOR declares; one per connection at a time. */
+   public static final String CURSOR_NAME = "hotel_stream";
+
+   private final String sql;
+   private final Class<?>[] parameterTypes;
+
+   HotelQuery(String sql, Class<?>... parameterTypes){
+      this.sql = sql;
+      this.parameterTypes = parameterTypes;
+   }
+
+   public String getSql(){
+      return sql;
+   }
+
+   /**
+    * @param shape how the query is to be sent
+    * @return the SQL text for that shape
+    */
+   public String getSql(Shape shape){
+      switch (shape){
+         case EXISTS: return "SELECT EXISTS (" + sql + ")";
+         case COUNT:  return "SELECT COUNT(*) FROM (" + sql + ") AS q";
+         case CURSOR: return "DECLARE " + CURSOR_NAME + " NO SCROLL CURSOR FOR " + sql;
+         default:     return sql;
+      }
+   }
+
+   public int getParameterCount(){
+      return parameterTypes.length;
+   }
+
+   public Class<?> getParameterType(int index){
+      return parameterTypes[index];
+   }
+}//end HotelQuery
@@ -0,0 +1,625 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves HotelService over HTTP, one endpoint per operation, so that many
+ * customers and managers can search and book at the same time.
+ *
+ * Parameters are read from the query string and, for POST, from an
+ * application/x-www-form-urlencoded body; responses are JSON. A client
+ * logs in with POST /login and passes the returned token as
+ * "Authorization: Bearer <token>" on every other call. Sessions live in
+ * memory and expire after hotel.server.sessionTimeout ms without use.
+ *
+ * Each request runs on its own virtual thread when the JVM has them
+ * (Java 21 and later) and on a fixed pool of hotel.server.maxConcurrent
+ * threads otherwise. At most hotel.server.maxConcurrent requests are
+ * served at once; a request that waits longer than hotel.server.queueTimeout
+ * ms for its turn is answered with 503. Database work is further bounded by
+ * the connection pool.
+ *
+ * /bookings/history answers a page at a time, newest first, as
+ * {"rows":[...],"next":token,"previous":token}; the tokens, null at either
+ * end, are passed back as after= for the next page and before= for the
+ * previous one. size is at most 500 and defaults to hotel.page.size.
+ *
+ * Endpoints:
+ *   POST /register        name, password, confirm
+ *   POST /login           name, password
+ *   POST /logout
+ *   GET  /hotels          lat, lon
+ *   GET  /rooms           hotel, date
+ *   POST /bookings        hotel, room, date
+ *   GET  /bookings        the caller's recent bookings
+ *   GET  /bookings/history [from, to], [size], [after | before]    (managers)
+ *   POST /rooms/update    hotel, room, [price], [imageURL]    (managers)
+ *   GET  /customers/regular hotel    (managers)
+ *   POST /repairs         hotel, room, company    (managers)
+ *   GET  /repairs         (managers)
+ */
+public class HotelServer {
+
+   private static final int MAX_PAGE_SIZE = 500;
+
+   // an operation behind one path
+   private interface Endpoint {
+      void handle(Request request) throws Exception;
+   }
+
+   private static class Session {
+      final AuthorizedUser user;
+      volatile long lastUsed = System.currentTimeMillis();
+
+      Session(AuthorizedUser user){
+         this.user = user;
+      }
+   }//end Session
+
+   /**
+    * One HTTP exchange with its decoded parameters and, once checked, the
+    * caller's session.
+    */
+   private static class Request {
+      final HttpExchange exchange;
+      final Map<String, String> params;
+      AuthorizedUser session;
+      boolean responded = false;
+
+      Request(HttpExchange exchange, Map<String, String> params){
+         this.exchange = exchange;
+         this.params = params;
+      }
+
+      String optional(String name){
+         String value = params.get(name);
+         return value == null || value.isEmpty() ? null : value;
+      }
+
+      String get(String name){
+         String value = optional(name);
+         if (value == null){
+            throw new IllegalArgumentException("missing parameter " + name);
+         }
+         return value;
+      }
+
+      int getInt(String name){
+         try{
+            return Integer.parseInt(get(name).trim());
+         }catch (NumberFormatException e){
+            throw new IllegalArgumentException("parameter " + name + " must be an integer");
+         }
+      }
+
+      double getDouble(String name){
+         try{
+            return Double.parseDouble(get(name).trim());
+         }catch (NumberFormatException e){
+            throw new IllegalArgumentException("parameter " + name + " must be a number");
+         }
+      }
+   }//end Request
+
+   private final HotelService _service;
+   private final HttpServer _http;
+   private final ExecutorService _executor;
+   private final Semaphore _permits;
+   private final long _queueTimeoutMillis;
+   private final long _sessionTimeoutMillis;
+   private final Map<String, Session> _sessions = new ConcurrentHashMap<String, Session>();
+   private final SecureRandom _random = new SecureRandom();
+   private volatile long _lastSweep = System.currentTimeMillis();
+
+   public HotelServer(Hotel esql, String host, int port) throws IOException {
+      this(esql, host, port, Integer.getInteger("hotel.server.maxConcurrent", 64),
+         Long.getLong("hotel.server.queueTimeout", 1000L),
+         Long.getLong("hotel.server.sessionTimeout", 30 * 60 * 1000L));
+   }
+
+   /**
+    * @param esql the database access layer
+    * @param host the address to listen on
+    * @param port the port to listen on
+    * @param maxConcurrent requests served at the same time
+    * @param queueTimeoutMillis how long a request may wait for its turn
+    * @param sessionTimeoutMillis how long an unused session stays valid
+    */
+   public HotelServer(Hotel esql, String host, int port, int maxConcurrent,
+                      long queueTimeoutMillis, long sessionTimeoutMillis) throws IOException {
+      if (maxConcurrent < 1){
+         throw new IllegalArgumentException("maxConcurrent must be at least 1");
+      }
+      this._service = esql.getService();
+      this._permits = new Semaphore(maxConcurrent, true);
+      this._queueTimeoutMillis = queueTimeoutMillis;
+      this._sessionTimeoutMillis = sessionTimeoutMillis;
+      this._executor = newExecutor(maxConcurrent);
+      this._http = HttpServer.create(new InetSocketAddress(host, port), 0);
+      this._http.setExecutor(_executor);
+
+      route("/register", "POST", false, this::register);
+      route("/login", "POST", false, this::login);
+      route("/logout", "POST", true, this::logout);
+      route("/hotels", "GET", true, this::hotels);
+      route("/rooms", "GET", true, this::rooms);
+      route("/bookings", null, true, this::bookings);
+      route("/bookings/history", "GET", true, this::bookingHistory);
+      route("/rooms/update", "POST", true, this::updateRoom);
+      route("/customers/regular", "GET", true, this::regularCustomers);
+      route("/repairs", null, true, this::repairs);
+   }//end HotelServer
+
+   /**
+    * One virtual thread per task where the JVM supports it. Looked up
+    * reflectively so the code still builds and runs on older JDKs.
+    */
+   private static ExecutorService newExecutor(int threads){
+      try{
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }catch (ReflectiveOperationException e){
+         return Executors.newFixedThreadPool(threads);
+      }
+   }
+
+   public void start(){
+      _http.start();
+   }
+
+   /**
+    * Stops accepting requests and waits up to the given number of seconds
+    * for those in progress.
+    */
+   public void stop(int delaySeconds){
+      _http.stop(delaySeconds);
+      _executor.shutdown();
+   }
+
+   public int getPort(){
+      return _http.getAddress().getPort();
+   }
+
+   /**
+    * @return the number of live sessions
+    */
+   public int getSessionCount(){
+      return _sessions.size();
+   }
+
+   // ------------------------------------------------------------------
+   // plumbing
+
+   private void route(final String path, final String method, final boolean needsSession, final Endpoint endpoint){
+      _http.createContext(path, exchange -> serve(exchange, path, method, needsSession, endpoint));
+   }
+
+   private void serve(HttpExchange exchange, String path, String method, boolean needsSession, Endpoint endpoint) throws IOException {
+      try{
+         if (!_permits.tryAcquire(_queueTimeoutMillis, TimeUnit.MILLISECONDS)){
+            sendError(exchange, 503, "server busy, try again");
+            return;
+         }
+         try{
+            dispatch(exchange, path, method, needsSession, endpoint);
+         }finally{
+            _permits.release();
+         }
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         sendError(exchange, 503, "server shutting down");
+      }finally{
+         exchange.close();
+      }
+   }//end serve
+
+   private void dispatch(HttpExchange exchange, String path, String method, boolean needsSession, Endpoint endpoint) throws IOException {
+      // contexts match by prefix; only the exact path is served
+      if (!exchange.getRequestURI().getPath().equals(path)){
+         sendError(exchange, 404, "no such endpoint");
+         return;
+      }
+      if (method != null && !method.equals(exchange.getRequestMethod())){
+         sendError(exchange, 405, "use " + method);
+         return;
+      }
+
+      Request request = null;
+      try{
+         request = new Request(exchange, readParams(exchange));
+         if (needsSession){
+            request.session = session(exchange);
+            if (request.session == null){
+               sendError(exchange, 401, "log in first");
+               return;
+            }
+         }
+         endpoint.handle(request);
+      }catch (SecurityException e){
+         respondError(request, exchange, 403, e.getMessage());
+      }catch (IllegalArgumentException e){
+         respondError(request, exchange, 400, e.getMessage());
+      }catch (SQLException e){
+         System.err.println(path + ": " + e.getMessage());
+         respondError(request, exchange, 500, "database error");
+      }catch (IOException e){
+         throw e;
+      }catch (Exception e){
+         System.err.println(path + ": " + e);
+         respondError(request, exchange, 500, "internal error");
+      }
+   }//end dispatch
+
+   // once a response has gone out its status cannot change; it can only be cut short
+   private static void respondError(Request request, HttpExchange exchange, int status, String message) throws IOException {
+      if (request == null || !request.responded){
+         sendError(exchange, status, message);
+      }
+   }
+
+   private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+      Map<String, String> params = new HashMap<String, String>();
+      decode(exchange.getRequestURI().getRawQuery(), params);
+      if ("POST".equals(exchange.getRequestMethod())){
+         InputStream body = exchange.getRequestBody();
+         byte[] buffer = new byte[4096];
+         StringBuilder text = new StringBuilder();
+         int n;
+         while ((n = body.read(buffer)) > 0){
+            text.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+            if (text.length() > 64 * 1024){
+               throw new IllegalArgumentException("request body too large");
+            }
+         }
+         decode(text.toString(), params);
+      }
+      return params;
+   }//end readParams
+
+   private static void decode(String encoded, Map<String, String> params) throws IOException {
+      if (encoded == null || encoded.isEmpty()) return;
+      for (String pair : encoded.split("&")){
+         int eq = pair.indexOf('=');
+         String name = eq < 0 ? pair : pair.substring(0, eq);
+         String value = eq < 0 ? "" : pair.substring(eq + 1);
+         params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+      }
+   }
+
+   private AuthorizedUser session(HttpExchange exchange){
+      String header = exchange.getRequestHeaders().getFirst("Authorization");
+      if (header == null || !header.startsWith("Bearer ")) return null;
+      Session session = _sessions.get(header.substring(7).trim());
+      if (session == null) return null;
+      long now = System.currentTimeMillis();
+      if (now - session.lastUsed > _sessionTimeoutMillis){
+         _sessions.remove(header.substring(7).trim());
+         return null;
+      }
+      session.lastUsed = now;
+      return session.user;
+   }//end session
+
+   private String newToken(){
+      byte[] bytes = new byte[24];
+      _random.nextBytes(bytes);
+      StringBuilder token = new StringBuilder(48);
+      for (byte b : bytes){
+         token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return token.toString();
+   }
+
+   // drops expired sessions, at most once a minute
+   private void sweepSessions(){
+      long now = System.currentTimeMillis();
+      if (now - _lastSweep < 60 * 1000L) return;
+      _lastSweep = now;
+      for (Iterator<Session> it = _sessions.values().iterator(); it.hasNext(); ){
+         if (now - it.next().lastUsed > _sessionTimeoutMillis) it.remove();
+      }
+   }
+
+   private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+      send(exchange, status, "{\"error\":" + quote(message) + "}");
+   }
+
+   private static void send(HttpExchange exchange, int status, String json) throws IOException {
+      byte[] body = json.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, body.length);
+      exchange.getResponseBody().write(body);
+   }
+
+   private static void ok(Request request, String json) throws IOException {
+      request.responded = true;
+      send(request.exchange, 200, json);
+   }
+
+   // ------------------------------------------------------------------
+   // JSON
+
+   private static String quote(String s){
+      if (s == null) return "null";
+      StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+      for (int i = 0; i < s.length(); ++i){
+         char c = s.charAt(i);
+         switch (c){
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+               if (c < 0x20){
+                  out.append(String.format("\\u%04x", (int) c));
+               }else{
+                  out.append(c);
+               }
+         }
+      }
+      return out.append('"').toString();
+   }//end quote
+
+   private static String json(ResultTable table){
+      StringBuilder out = new StringBuilder("[");
+      for (int row = 0; row < table.size(); ++row){
+         if (row > 0) out.append(',');
+         out.append('{');
+         for (int c = 0; c < table.getColumnCount(); ++c){
+            String name = table.getColumnName(c);
+            if (c > 0) out.append(',');
+            out.append(quote(name)).append(':');
+            String value = table.getString(row, c);
+            out.append(value == null ? "null" : table.isNumeric(c) ? value : quote(value));
+         }
+         out.append('}');
+      }
+      return out.append(']').toString();
+   }//end json
+
+   private static boolean isNumeric(int sqlType){
+      switch (sqlType){
+         case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT: case Types.BIGINT:
+         case Types.NUMERIC: case Types.DECIMAL: case Types.DOUBLE: case Types.FLOAT: case Types.REAL:
+            return true;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * Collects rows as a JSON array. A page is bounded, so it is built in
+    * full before anything is sent, and an error while reading it can still
+    * go out as an error status.
+    */
+   private static class RowBuffer implements RowHandler {
+      private final StringBuilder json = new StringBuilder("[");
+      private String[] names;
+      private boolean[] numeric;
+      private int rows = 0;
+
+      public void handle(ResultSet row) throws SQLException {
+         if (names == null){
+            ResultSetMetaData meta = row.getMetaData();
+            names = new String[meta.getColumnCount()];
+            numeric = new boolean[names.length];
+            for (int i = 0; i < names.length; ++i){
+               names[i] = meta.getColumnName(i + 1);
+               numeric[i] = isNumeric(meta.getColumnType(i + 1));
+            }
+         }
+         json.append(rows > 0 ? ",{" : "{");
+         for (int i = 0; i < names.length; ++i){
+            String value = row.getString(i + 1);
+            if (i > 0) json.append(',');
+            json.append(quote(names[i])).append(':');
+            json.append(value == null ? "null" : numeric[i] ? value.trim() : quote(value.trim()));
+         }
+         json.append('}');
+         rows++;
+      }//end handle
+
+      @Override
+      public String toString(){
+         return json.toString() + "]";
+      }
+   }//end RowBuffer
+
+   // ------------------------------------------------------------------
+   // endpoints
+
+   private void register(Request request) throws Exception {
+      String password = request.get("password");
+      String confirm = request.optional("confirm");
+      HotelService.Registration registration = _service.register(request.get("name"), password,
+         confirm == null ? password : confirm);
+      StringBuilder json = new StringBuilder("{\"status\":").append(quote(registration.status.name()));
+      if (registration.status == HotelService.Registration.Status.CREATED){
+         json.append(",\"userID\":").append(registration.userID);
+      }
+      json.append(",\"problems\":[");
+      for (int i = 0; i < registration.problems.size(); ++i){
+         if (i > 0) json.append(',');
+         json.append(quote(registration.problems.get(i)));
+      }
+      ok(request, json.append("]}").toString());
+   }//end register
+
+   private void login(Request request) throws Exception {
+      AuthorizedUser user = _service.login(request.get("name"), request.get("password"));
+      if (!user.isAuthenticated()){
+         sendError(request.exchange, 401, "Invalid username and/or password");
+         request.responded = true;
+         return;
+      }
+      sweepSessions();
+      String token = newToken();
+      _sessions.put(token, new Session(user));
+      ok(request, "{\"token\":" + quote(token) + ",\"userID\":" + user.getUserID()
+         + ",\"name\":" + quote(user.getUserName()) + ",\"userType\":" + quote(user.getUserType()) + "}");
+   }//end login
+
+   private void logout(Request request) throws Exception {
+      String header = request.exchange.getRequestHeaders().getFirst("Authorization");
+      _sessions.remove(header.substring(7).trim());
+      ok(request, "{}");
+   }
+
+   private void hotels(Request request) throws Exception {
+      List<HotelSpatialIndex.Entry> hotels = _service.hotelsNear(request.session,
+         request.getDouble("lat"), request.getDouble("lon"));
+      StringBuilder json = new StringBuilder("[");
+      for (int i = 0; i < hotels.size(); ++i){
+         HotelSpatialIndex.Entry h = hotels.get(i);
+         if (i > 0) json.append(',');
+         json.append("{\"hotelID\":").append(h.hotelID)
+            .append(",\"hotelName\":").append(quote(h.hotelName))
+            .append(",\"latitude\":").append(h.latitude)
+            .append(",\"longitude\":").append(h.longitude)
+            .append(",\"dateEstablished\":").append(quote(h.dateEstablished)).append('}');
+      }
+      ok(request, json.append(']').toString());
+   }//end hotels
+
+   private void rooms(Request request) throws Exception {
+      List<RoomAvailabilityIndex.Room> rooms = _service.availableRooms(request.session,
+         request.getInt("hotel"), request.get("date"));
+      StringBuilder json = new StringBuilder("[");
+      for (int i = 0; i < rooms.size(); ++i){
+         if (i > 0) json.append(',');
+         json.append("{\"roomNumber\":").append(rooms.get(i).roomNumber)
+            .append(",\"price\":").append(rooms.get(i).price).append('}');
+      }
+      ok(request, json.append(']').toString());
+   }//end rooms
+
+   private void bookings(Request request) throws Exception {
+      if ("GET".equals(request.exchange.getRequestMethod())){
+         ok(request, json(_service.recentBookings(request.session)));
+         return;
+      }
+      if (!"POST".equals(request.exchange.getRequestMethod())){
+         throw new IllegalArgumentException("use GET or POST");
+      }
+      BookingEngine.Booking booking = _service.book(request.session, new HotelService.BookingRequest(
+         request.getInt("hotel"), request.getInt("room"), request.get("date")));
+      StringBuilder json = new StringBuilder("{\"status\":").append(quote(booking.status.name()));
+      if (booking.status == BookingEngine.Status.BOOKED){
+         json.append(",\"bookingID\":").append(booking.bookingID).append(",\"price\":").append(booking.price);
+      }
+      ok(request, json.append('}').toString());
+   }//end bookings
+
+   private void bookingHistory(Request request) throws Exception {
+      HotelService.BookingHistoryRequest range = new HotelService.BookingHistoryRequest(
+         request.optional("from"), request.optional("to"));
+      int size = request.optional("size") == null ? HotelService.PageRequest.DEFAULT_SIZE : request.getInt("size");
+      if (size < 1 || size > MAX_PAGE_SIZE){
+         throw new IllegalArgumentException("parameter size must be between 1 and " + MAX_PAGE_SIZE);
+      }
+      HotelService.PageRequest page = request.optional("after") != null
+         ? HotelService.PageRequest.parse(request.get("after"), false, size)
+         : request.optional("before") != null
+         ? HotelService.PageRequest.parse(request.get("before"), true, size)
+         : HotelService.PageRequest.first(size);
+      RowBuffer rows = new RowBuffer();
+      HotelService.Page shown = _service.bookingHistory(request.session, range, page, rows);
+      ok(request, "{\"rows\":" + rows + ",\"next\":" + (shown.next == null ? "null" : quote(shown.next.token()))
+         + ",\"previous\":" + (shown.previous == null ? "null" : quote(shown.previous.token())) + "}");
+   }//end bookingHistory
+
+   private void updateRoom(Request request) throws Exception {
+      int hotelID = request.getInt("hotel");
+      int roomNumber = request.getInt("room");
+      HotelService.RoomDetails current = _service.roomDetails(request.session, hotelID, roomNumber);
+      if (current == null){
+         sendError(request.exchange, 404, "Invalid Hotel ID and/or Room ID, or you do not Manage this Hotel.");
+         request.responded = true;
+         return;
+      }
+      int price = request.optional("price") == null ? current.price : request.getInt("price");
+      String imageURL = request.optional("imageURL") == null ? current.imageURL : request.get("imageURL");
+      int updateNumber = _service.updateRoom(request.session, new HotelService.RoomDetails(hotelID, roomNumber, price, imageURL));
+      ok(request, "{\"updateNumber\":" + updateNumber + ",\"price\":" + price + ",\"imageURL\":" + quote(imageURL) + "}");
+   }//end updateRoom
+
+   private void regularCustomers(Request request) throws Exception {
+      List<TopKCustomers.Customer> customers = _service.regularCustomers(request.session, request.getInt("hotel"));
+      StringBuilder json = new StringBuilder("[");
+      for (int i = 0; i < customers.size(); ++i){
+         if (i > 0) json.append(',');
+         json.append("{\"customerID\":").append(customers.get(i).customerID)
+            .append(",\"name\":").append(quote(customers.get(i).name))
+            .append(",\"bookings\":").append(customers.get(i).bookings).append('}');
+      }
+      ok(request, json.append(']').toString());
+   }
+
+   private void repairs(Request request) throws Exception {
+      if ("GET".equals(request.exchange.getRequestMethod())){
+         ok(request, json(_service.repairHistory(request.session)));
+         return;
+      }
+      if (!"POST".equals(request.exchange.getRequestMethod())){
+         throw new IllegalArgumentException("use GET or POST");
+      }
+      HotelService.RepairReceipt receipt = _service.requestRepair(request.session, new HotelService.RepairRequest(
+         request.getInt("hotel"), request.getInt("room"), request.getInt("company")));
+      StringBuilder json = new StringBuilder("{\"status\":").append(quote(receipt.status.name()))
+         .append(",\"repairDate\":").append(quote(receipt.repairDate));
+      if (receipt.status == HotelService.RepairReceipt.Status.PLACED){
+         json.append(",\"repairID\":").append(receipt.repairID).append(",\"requestNumber\":").append(receipt.requestNumber);
+      }
+      ok(request, json.append('}').toString());
+   }//end repairs
+
+   public static void main(String[] args){
+      if (args.length < 3 || args.length > 4){
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HotelServer.class.getName () +
+            " <dbname> <port> <user> [httpPort]");
+         return;
+      }//end if
+
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         final Hotel esql = new Hotel (args[0], args[1], args[2], "");
+         int httpPort = args.length == 4 ? Integer.parseInt(args[3]) : 8080;
+         final HotelServer server = new HotelServer(esql, System.getProperty("hotel.server.host", "127.0.0.1"), httpPort);
+
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.print("Stopping server...");
+            server.stop(5);
+            esql.cleanup();
+            System.out.println("Done");
+         }));
+         server.start();
+         System.out.println("Listening on http://" + System.getProperty("hotel.server.host", "127.0.0.1") + ":" + server.getPort());
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+}//end HotelServer
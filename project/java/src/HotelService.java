@@ -0,0 +1,652 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The operations of the hotel system without any terminal I/O.
+ *
+ * Every operation takes the caller's session (an AuthorizedUser) and its
+ * input as arguments and returns its result as a value, so one instance
+ * serves any number of users at once, from the console menus in Hotel or
+ * from any other front end. Callers that are not allowed an operation get a
+ * SecurityException whose message can be shown to the user as is; database
+ * failures surface as SQLException. The latency of every operation is
+ * recorded in the Hotel's HotelMetrics under the operation's method name.
+ *
+ * A manager's role and hotels are read once at login and kept in the
+ * session, so checking them costs no round trip. They are read again when
+ * they are older than hotel.session.ttl seconds (default 60) or than the
+ * last call of invalidateSessions(), which the CatalogCache listener makes
+ * whenever another process changes Hotel, and whatever in this process
+ * changes the managers of hotels must make; a manager refused a hotel is
+ * checked once more against the database before the refusal. Writes to a
+ * hotel, updateRoom() and requestRepair(), check the manager against the
+ * database in any case, so losing a hotel takes effect on them at once.
+ */
+public class HotelService {
+
+   /** Radius of "hotels nearby", in the units of the hotel coordinates. */
+   public static final double NEARBY_RADIUS = 30;
+
+   /**
+    * The outcome of a registration. userID is only set when the status is
+    * CREATED; problems lists what is wrong with a rejected password.
+    */
+   public static class Registration {
+      public enum Status {
+         CREATED, NAME_TAKEN, INVALID_PASSWORD
+      }
+
+      public final Status status;
+      public final int userID;
+      public final List<String> problems;
+
+      Registration(Status status, int userID, List<String> problems){
+         this.status = status;
+         this.userID = userID;
+         this.problems = problems;
+      }
+   }//end Registration
+
+   /**
+    * A room of a hotel on a given day, as asked for by a booking.
+    */
+   public static class BookingRequest {
+      public final int hotelID;
+      public final int roomNumber;
+      public final String date;
+
+      /**
+       * @param date the day, MM/DD/YYYY or YYYY-MM-DD
+       */
+      public BookingRequest(int hotelID, int roomNumber, String date){
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.date = date;
+      }
+   }//end BookingRequest
+
+   /**
+    * Whether a room exists and is free on a day, and its price per night.
+    */
+   public static class RoomQuote {
+      public final boolean exists;
+      public final boolean booked;
+      public final int price;
+
+      RoomQuote(boolean exists, boolean booked, int price){
+         this.exists = exists;
+         this.booked = booked;
+         this.price = price;
+      }
+
+      public boolean isAvailable(){
+         return exists && !booked;
+      }
+   }//end RoomQuote
+
+   /**
+    * The editable information of a room.
+    */
+   public static class RoomDetails {
+      public final int hotelID;
+      public final int roomNumber;
+      public final int price;
+      public final String imageURL;
+
+      public RoomDetails(int hotelID, int roomNumber, int price, String imageURL){
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.price = price;
+         this.imageURL = imageURL;
+      }
+   }//end RoomDetails
+
+   /**
+    * A range of booking dates; both ends null means every booking, a
+    * missing or equal end date means the one day and a missing start date
+    * every day up to the end date.
+    */
+   public static class BookingHistoryRequest {
+      public final String from;
+      public final String to;
+
+      public BookingHistoryRequest(String from, String to){
+         this.from = from;
+         this.to = to;
+      }
+   }//end BookingHistoryRequest
+
+   /**
+    * A page of a list read newest first: up to size rows after (older
+    * than) or, when backward, before (newer than) the row with the given
+    * key, the date or timestamp the list is ordered by as the database
+    * prints it, and ID. A page is found by seeking to its key in an index
+    * rather than by skipping the rows before it, so every page costs as
+    * little as the first.
+    */
+   public static class PageRequest {
+      /** Rows per page unless asked otherwise; hotel.page.size, default 20. */
+      public static final int DEFAULT_SIZE = Integer.getInteger("hotel.page.size", 20);
+
+      // sorts after every date and timestamp, so the first page is the one after it
+      private static final String NEWEST = "infinity";
+
+      public final String key;
+      public final int id;
+      public final boolean backward;
+      public final int size;
+
+      public PageRequest(String key, int id, boolean backward, int size){
+         if (size < 1){
+            throw new IllegalArgumentException("page size must be at least 1");
+         }
+         this.key = key;
+         this.id = id;
+         this.backward = backward;
+         this.size = size;
+      }
+
+      /**
+       * @return the page of the newest rows
+       */
+      public static PageRequest first(int size){
+         return new PageRequest(NEWEST, Integer.MAX_VALUE, false, size);
+      }
+
+      /**
+       * @return the page after, or before, the key of a token()
+       */
+      public static PageRequest parse(String token, boolean backward, int size){
+         int colon = token.indexOf(':');
+         try{
+            return new PageRequest(token.substring(colon + 1), Integer.parseInt(token.substring(0, colon)), backward, size);
+         }catch (RuntimeException e){
+            throw new IllegalArgumentException("not a page token: " + token);
+         }
+      }
+
+      public boolean isFirst(){
+         return !backward && NEWEST.equals(key);
+      }
+
+      /**
+       * @return the key as one string, "id:key", for front ends to hand back
+       */
+      public String token(){
+         return id + ":" + key;
+      }
+   }//end PageRequest
+
+   /**
+    * What a page held, and the pages next to it: next has the older rows
+    * and is null on the last page, previous has the newer rows and is null
+    * on the first.
+    */
+   public static class Page {
+      public final int rows;
+      public final PageRequest next;
+      public final PageRequest previous;
+
+      Page(int rows, PageRequest next, PageRequest previous){
+         this.rows = rows;
+         this.next = next;
+         this.previous = previous;
+      }
+   }//end Page
+
+   /**
+    * A repair of a room by a maintenance company.
+    */
+   public static class RepairRequest {
+      public final int hotelID;
+      public final int roomNumber;
+      public final int companyID;
+
+      public RepairRequest(int hotelID, int roomNumber, int companyID){
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.companyID = companyID;
+      }
+   }//end RepairRequest
+
+   /**
+    * The outcome of a repair request. The IDs are only set when the status
+    * is PLACED.
+    */
+   public static class RepairReceipt {
+      public enum Status {
+         PLACED, DUPLICATE
+      }
+
+      public final Status status;
+      public final int repairID;
+      public final int requestNumber;
+      public final String repairDate;
+
+      RepairReceipt(Status status, int repairID, int requestNumber, String repairDate){
+         this.status = status;
+         this.repairID = repairID;
+         this.requestNumber = requestNumber;
+         this.repairDate = repairDate;
+      }
+   }//end RepairReceipt
+
+   private final Hotel _esql;
+   private final HotelMetrics _metrics;
+   private final long _sessionTtlNanos;
+   // bumped on every change of hotel ownership; older session contexts are reloaded
+   private final AtomicLong _ownershipGeneration = new AtomicLong();
+
+   public HotelService(Hotel esql){
+      this._esql = esql;
+      this._metrics = esql.getMetrics();
+      this._sessionTtlNanos = TimeUnit.SECONDS.toNanos(Long.getLong("hotel.session.ttl", 60));
+   }
+
+   // ------------------------------------------------------------------
+   // sessions
+
+   private static void requireLogin(AuthorizedUser session){
+      if (session == null || !session.isAuthenticated()){
+         throw new SecurityException("You are not logged in");
+      }
+   }
+
+   private void requireElevated(AuthorizedUser session) throws SQLException {
+      requireLogin(session);
+      refreshIfStale(session);
+      if (!session.HasElevatedRights()){
+         throw new SecurityException("You are not a manager");
+      }
+   }
+
+   private void requireManager(AuthorizedUser session) throws SQLException {
+      requireLogin(session);
+      refreshIfStale(session);
+      if (!session.isManager()){
+         throw new SecurityException("You are not a manager");
+      }
+   }
+
+   // a hotel given to the manager since the context was loaded is found by the reload
+   private boolean manages(AuthorizedUser session, int hotelID) throws SQLException {
+      if (session.manages(hotelID)){
+         return true;
+      }
+      loadContext(session, null);
+      return session.manages(hotelID);
+   }
+
+   private void requireManages(AuthorizedUser session, int hotelID) throws SQLException {
+      if (!manages(session, hotelID)){
+         throw new SecurityException("Hotel does not belong to you");
+      }
+   }
+
+   // for writes: the session may still list a hotel the manager has lost since it was read
+   private void requireManagesNow(AuthorizedUser session, int hotelID) throws SQLException {
+      requireManages(session, hotelID);
+      if (!_esql.exists(HotelQuery.MANAGES_HOTEL, hotelID, session.getUserID())){
+         loadContext(session, null);
+         throw new SecurityException("Hotel does not belong to you");
+      }
+   }
+
+   /**
+    * Reads the user's role, unless it is given, and the hotels they manage
+    * into the session.
+    */
+   private void loadContext(AuthorizedUser session, String userType) throws SQLException {
+      long generation = _ownershipGeneration.get();
+      if (userType == null){
+         ResultTable type = _esql.executeQueryAndReturnTable(HotelQuery.USER_TYPE, session.getUserID());
+         userType = type.isEmpty() ? "" : type.getString(0, "userType");
+      }
+      ResultTable hotels = "manager".equals(userType)
+         ? _esql.executeQueryAndReturnTable(HotelQuery.MANAGED_HOTELS, session.getUserID()) : null;
+      session.setContext(userType, hotels, generation);
+   }
+
+   private void refreshIfStale(AuthorizedUser session) throws SQLException {
+      if (session.isContextStale(_ownershipGeneration.get(), _sessionTtlNanos)){
+         loadContext(session, null);
+      }
+   }
+
+   /**
+    * Makes every session read its role and hotels again on its next call.
+    * Call it after changing the manager of a hotel or the type of a user;
+    * the CatalogCache listener calls it for changes to Hotel made by other
+    * processes.
+    */
+   public void invalidateSessions(){
+      _ownershipGeneration.incrementAndGet();
+   }
+
+   /**
+    * Lists what is wrong with a new password, nothing when it is fine.
+    */
+   public static List<String> validatePassword(String pass, String confirmpass){
+      List<String> problems = new ArrayList<String>();
+      if (!pass.equals(confirmpass)){
+         problems.add("'Password' and 'Confirm Password' are not same!");
+      }
+      if (pass.contains(" ")){
+         problems.add("Password must not contain Spaces!");
+      }
+      if ((pass.length() < 5) || (pass.length() > 20)){
+         problems.add("Password must be between 5 and 20 characters!");
+      }
+      return problems;
+   }//end validatePassword
+
+   /**
+    * Creates a customer account.
+    *
+    * @throws java.sql.SQLException when failed to create the user
+    */
+   public Registration register(String name, String password, String confirmpass) throws SQLException {
+      return _metrics.time("register", () -> {
+         List<String> problems = validatePassword(password, confirmpass);
+         if (!problems.isEmpty()){
+            return new Registration(Registration.Status.INVALID_PASSWORD, -1, problems);
+         }
+         if (_esql.exists(HotelQuery.USER_NAME_TAKEN, name)){
+            return new Registration(Registration.Status.NAME_TAKEN, -1, problems);
+         }
+         int userID = _esql.getIdAllocator().next(IdAllocator.Sequence.USER);
+         _esql.executeUpdate(HotelQuery.INSERT_USER, userID, name, password, "customer");
+         return new Registration(Registration.Status.CREATED, userID, problems);
+      });
+   }//end register
+
+   /**
+    * Checks the credentials of an existing user.
+    *
+    * @return the user's session; not authenticated when the name or
+    *         password is wrong
+    * @throws java.sql.SQLException when failed to look the user up
+    */
+   public AuthorizedUser login(String name, String password) throws SQLException {
+      return _metrics.time("login", () -> {
+         ResultTable results = _esql.executeQueryAndReturnTable(HotelQuery.LOGIN, name, password);
+         if (results.isEmpty()){
+            return new AuthorizedUser();
+         }
+         AuthorizedUser session = new AuthorizedUser(results.getInt(0, "userID"), results.getString(0, "name"),
+            results.getString(0, "userType"));
+         loadContext(session, session.getUserType());
+         return session;
+      });
+   }//end login
+
+   // ------------------------------------------------------------------
+   // hotels, rooms and bookings
+
+   /**
+    * @return the hotels within NEARBY_RADIUS of the location
+    */
+   public List<HotelSpatialIndex.Entry> hotelsNear(AuthorizedUser session, double latitude, double longitude) throws SQLException {
+      return _metrics.time("hotelsNear", () -> {
+         requireLogin(session);
+         if (!Double.isFinite(latitude) || !Double.isFinite(longitude)){
+            throw new IllegalArgumentException("latitude and longitude must be finite numbers");
+         }
+         return _esql.getHotelIndex().within(latitude, longitude, NEARBY_RADIUS);
+      });
+   }
+
+   /**
+    * @param date the day, MM/DD/YYYY or YYYY-MM-DD
+    * @return the rooms of the hotel without a booking on the day
+    */
+   public List<RoomAvailabilityIndex.Room> availableRooms(AuthorizedUser session, int hotelID, String date) throws SQLException {
+      return _metrics.time("availableRooms", () -> {
+         requireLogin(session);
+         return _esql.getAvailabilityIndex().available(hotelID, RoomAvailabilityIndex.epochDay(date));
+      });
+   }
+
+   /**
+    * Looks up whether the requested room exists and is free, and its price,
+    * in one query, e.g. to show before the booking is confirmed.
+    */
+   public RoomQuote quote(AuthorizedUser session, BookingRequest request) throws SQLException {
+      return _metrics.time("quote", () -> {
+         requireLogin(session);
+         ResultTable quote = _esql.executeQueryAndReturnTable(HotelQuery.ROOM_QUOTE, request.date, request.hotelID, request.roomNumber);
+         if (quote.isEmpty()){
+            return new RoomQuote(false, false, -1);
+         }
+         return new RoomQuote(true, quote.getInt(0, "booked") != 0, quote.getInt(0, "price"));
+      });
+   }
+
+   /**
+    * Books the requested room for the session's user.
+    */
+   public BookingEngine.Booking book(AuthorizedUser session, BookingRequest request) throws SQLException {
+      return _metrics.time("book", () -> {
+         requireLogin(session);
+         return _esql.getBookingEngine().book(session.getUserID(), request.hotelID, request.roomNumber, request.date);
+      });
+   }
+
+   /**
+    * @return hotelID, roomNumber, price and bookingDate of the user's last five bookings
+    */
+   public ResultTable recentBookings(AuthorizedUser session) throws SQLException {
+      return _metrics.time("recentBookings", () -> {
+         requireLogin(session);
+         return _esql.executeQueryAndReturnTable(HotelQuery.RECENT_BOOKINGS, session.getUserID());
+      });
+   }
+
+   // ------------------------------------------------------------------
+   // management
+
+   /**
+    * @return hotelID, hotelName and dateEstablished of the hotels the user
+    *         may manage; every hotel for an admin
+    */
+   public ResultTable managedHotels(AuthorizedUser session) throws SQLException {
+      return _metrics.time("managedHotels", () -> {
+         requireElevated(session);
+         if (session.isAdmin()){
+            return _esql.executeQueryAndReturnTable(HotelQuery.ALL_HOTELS);
+         }
+         return session.getManagedHotels();
+      });
+   }
+
+   /**
+    * @return the room's details, or null when there is no such room or the
+    *         user does not manage its hotel
+    */
+   public RoomDetails roomDetails(AuthorizedUser session, int hotelID, int roomNumber) throws SQLException {
+      return _metrics.time("roomDetails", () -> {
+         requireElevated(session);
+         if (!session.isAdmin() && !manages(session, hotelID)){
+            return null;
+         }
+         CatalogCache.Room room = _esql.getCatalog().room(hotelID, roomNumber);
+         if (room == null){
+            return null;
+         }
+         return new RoomDetails(hotelID, roomNumber, room.price, room.imageURL);
+      });
+   }//end roomDetails
+
+   /**
+    * Saves a room's price and image URL and logs the change.
+    *
+    * @return the update number of the RoomUpdatesLog entry
+    */
+   public int updateRoom(AuthorizedUser session, RoomDetails room) throws SQLException {
+      return _metrics.time("updateRoom", () -> {
+         requireElevated(session);
+         if (!session.isAdmin()){
+            requireManagesNow(session, room.hotelID);
+         }
+         int updateNumber = _esql.getIdAllocator().next(IdAllocator.Sequence.ROOM_UPDATE);
+         _esql.executeUpdate(HotelQuery.UPDATE_ROOM, room.price, room.imageURL, room.hotelID, room.roomNumber);
+         // other instances hear of it from the trigger on Rooms
+         _esql.getCatalog().invalidate(room.hotelID);
+         _esql.executeUpdate(HotelQuery.INSERT_ROOM_UPDATE, updateNumber, session.getUserID(), room.hotelID, room.roomNumber,
+            Timestamp.from(Instant.now()));
+         return updateNumber;
+      });
+   }//end updateRoom
+
+   /**
+    * Streams one page of updateNumber, managerID, hotelID, roomNumber and
+    * updatedOn of the room updates made by the manager, newest first.
+    */
+   public Page roomUpdatesLog(AuthorizedUser session, int managerID, PageRequest page, RowHandler handler) throws SQLException {
+      return _metrics.time("roomUpdatesLog", () -> {
+         requireElevated(session);
+         return readPage(HotelQuery.ROOM_UPDATES_PAGE, HotelQuery.ROOM_UPDATES_PAGE_NEWER, "updatedOn", "updateNumber",
+            (key, id, limit) -> new Object[]{managerID, key, id, limit}, page, handler);
+      });
+   }
+
+
+   /**
+    * @return updateNumber, hotelID, roomNumber and updatedOn of the user's
+    *         last five room updates
+    */
+   public ResultTable recentUpdates(AuthorizedUser session) throws SQLException {
+      return _metrics.time("recentUpdates", () -> {
+         requireElevated(session);
+         return _esql.executeQueryAndReturnTable(HotelQuery.RECENT_UPDATES, session.getUserID());
+      });
+   }
+
+   /**
+    * Streams one page of bookingID, customerID, name, hotelID, roomNumber
+    * and bookingDate of the bookings of the manager's hotels in the range,
+    * newest first.
+    */
+   public Page bookingHistory(AuthorizedUser session, BookingHistoryRequest request, PageRequest page, RowHandler handler) throws SQLException {
+      return _metrics.time("bookingHistory", () -> {
+         requireManager(session);
+         int managerID = session.getUserID();
+         String from = request.from == null ? "-infinity" : request.from;
+         String to = request.to != null ? request.to : request.from != null ? request.from : "infinity";
+         return readPage(HotelQuery.BOOKING_HISTORY_PAGE, HotelQuery.BOOKING_HISTORY_PAGE_NEWER, "bookingDate", "bookingID",
+            (key, id, limit) -> new Object[]{from, to, key, id, limit, managerID, limit}, page, handler);
+      });
+   }//end bookingHistory
+
+   // the parameters of a page query for the rows past (key, id), at most limit of them
+   private interface PageParams {
+      Object[] get(String key, int id, int limit);
+   }
+
+   /**
+    * Reads a page of a list ordered newest first by (keyColumn,
+    * idColumn) to the handler. Going forward, older reads one row more
+    * than the page to tell whether there is a next one; going backward,
+    * newer returns the page oldest last, and one more probe for a newer
+    * row tells whether there is a previous one. A page that comes back
+    * empty, because rows were deleted since its key was read, is replaced
+    * by the first.
+    */
+   private Page readPage(HotelQuery older, HotelQuery newer, String keyColumn, String idColumn, PageParams params,
+                         PageRequest page, RowHandler handler) throws SQLException {
+      final String[] keys = new String[2];
+      final int[] ids = new int[2];
+      final int[] rows = {0};
+      final boolean[] more = {false};
+      int limit = page.backward ? page.size : page.size + 1;
+      // the page is bounded by its LIMIT, so it is read in one round trip rather than through a cursor
+      _esql.executeQuery(page.backward ? newer : older, row -> {
+         if (rows[0] == page.size){
+            more[0] = true;
+            return;
+         }
+         int last = rows[0] == 0 ? 0 : 1;
+         keys[last] = row.getString(keyColumn);
+         ids[last] = row.getInt(idColumn);
+         if (last == 0){
+            keys[1] = keys[0];
+            ids[1] = ids[0];
+         }
+         rows[0]++;
+         handler.handle(row);
+      }, params.get(page.key, page.id, limit));
+
+      if (rows[0] == 0){
+         return page.isFirst() ? new Page(0, null, null) : readPage(older, newer, keyColumn, idColumn, params,
+            PageRequest.first(page.size), handler);
+      }
+      boolean hasNext = page.backward || more[0];
+      boolean hasPrevious = page.backward ? _esql.exists(newer, params.get(keys[0], ids[0], 1)) : !page.isFirst();
+      return new Page(rows[0],
+         hasNext ? new PageRequest(keys[1], ids[1], false, page.size) : null,
+         hasPrevious ? new PageRequest(keys[0], ids[0], true, page.size) : null);
+   }//end readPage
+
+   /**
+    * @return the customers with the most bookings at the manager's hotel,
+    *         most first; five unless hotel.topk.k says otherwise
+    */
+   public List<TopKCustomers.Customer> regularCustomers(AuthorizedUser session, int hotelID) throws SQLException {
+      return _metrics.time("regularCustomers", () -> {
+         requireManager(session);
+         requireManages(session, hotelID);
+         return _esql.getTopCustomers().top(hotelID);
+      });
+   }
+
+   /**
+    * @return companyID and name of every maintenance company
+    */
+   public ResultTable companies(AuthorizedUser session) throws SQLException {
+      return _metrics.time("companies", () -> {
+         requireElevated(session);
+         return _esql.executeQueryAndReturnTable(HotelQuery.ALL_COMPANIES);
+      });
+   }
+
+   /**
+    * Asks a company to repair a room of the manager's hotel today, unless
+    * the same repair was already requested for today.
+    */
+   public RepairReceipt requestRepair(AuthorizedUser session, RepairRequest request) throws SQLException {
+      return _metrics.time("requestRepair", () -> {
+         requireManager(session);
+         requireManagesNow(session, request.hotelID);
+
+         String today = _esql.executeQueryAndReturnTable(HotelQuery.CURRENT_DATE).getString(0, "today");
+         if (_esql.exists(HotelQuery.REPAIR_EXISTS, request.companyID, request.hotelID, request.roomNumber, today)){
+            return new RepairReceipt(RepairReceipt.Status.DUPLICATE, -1, -1, today);
+         }
+
+         // the IDs come from the sequences, so concurrent requests never get the same one
+         IdAllocator ids = _esql.getIdAllocator();
+         int repairID = ids.next(IdAllocator.Sequence.REPAIR);
+         _esql.executeUpdate(HotelQuery.INSERT_REPAIR, repairID, request.companyID, request.hotelID, request.roomNumber, today);
+         int requestNumber = ids.next(IdAllocator.Sequence.REPAIR_REQUEST);
+         _esql.executeUpdate(HotelQuery.INSERT_REPAIR_REQUEST, requestNumber, session.getUserID(), repairID);
+         return new RepairReceipt(RepairReceipt.Status.PLACED, repairID, requestNumber, today);
+      });
+   }//end requestRepair
+
+   /**
+    * @return repairID, companyID, hotelID, roomNumber and repairDate of the
+    *         repairs the manager requested
+    */
+   public ResultTable repairHistory(AuthorizedUser session) throws SQLException {
+      return _metrics.time("repairHistory", () -> {
+         requireManager(session);
+         return _esql.executeQueryAndReturnTable(HotelQuery.REPAIR_HISTORY, session.getUserID());
+      });
+   }
+
+}//end HotelService
@@ -0,0 +1,210 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory uniform grid over the hotel coordinates, used to answer "hotels
+ * within r units" without a database round trip.
+ *
+ * Hotels are bucketed into square cells of side cellSize. A radius query
+ * only visits the cells overlapping the query's bounding box and applies
+ * Hotel.calculateDistance to the hotels in them, so its cost depends on the
+ * number of nearby hotels rather than on the size of the Hotel table.
+ *
+ * The grid is an immutable snapshot loaded from the Hotel table; hotels
+ * without coordinates are left out, as the SQL version left them out. It
+ * is reloaded on the next query after invalidate() is called, which the
+ * CatalogCache does when hotels change, or once it is older than
+ * hotel.spatial.refreshMillis (default 60 s).
+ */
+public class HotelSpatialIndex {
+
+   /**
+    * A hotel as returned by a radius query.
+    */
+   public static class Entry {
+      public final int hotelID;
+      public final String hotelName;
+      public final double latitude;
+      public final double longitude;
+      public final String dateEstablished;
+
+      Entry(int hotelID, String hotelName, double latitude, double longitude, String dateEstablished){
+         this.hotelID = hotelID;
+         this.hotelName = hotelName;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.dateEstablished = dateEstablished;
+      }
+   }//end Entry
+
+   private static class Grid {
+      final Entry[] entries;
+      final Map<Long, int[]> cells;
+      final long loadedAt;
+
+      Grid(Entry[] entries, Map<Long, int[]> cells){
+         this.entries = entries;
+         this.cells = cells;
+         this.loadedAt = System.currentTimeMillis();
+      }
+   }//end Grid
+
+   private final Hotel _esql;
+   private final double _cellSize;
+   private final long _refreshMillis;
+   private volatile Grid _grid = null;
+   private volatile boolean _stale = true;
+
+   public HotelSpatialIndex(Hotel esql){
+      this(esql, 30.0, Long.getLong("hotel.spatial.refreshMillis", 60 * 1000L));
+   }
+
+   /**
+    * @param esql where the hotels are loaded from
+    * @param cellSize side of a grid cell; the usual search radius is a good choice
+    * @param refreshMillis maximum age of the snapshot before it is reloaded
+    */
+   public HotelSpatialIndex(Hotel esql, double cellSize, long refreshMillis){
+      if (cellSize <= 0){
+         throw new IllegalArgumentException("cell size must be positive");
+      }
+      this._esql = esql;
+      this._cellSize = cellSize;
+      this._refreshMillis = refreshMillis;
+   }
+
+   /**
+    * Marks the snapshot out of date, e.g. after hotels were added or moved.
+    * The next query reloads it.
+    */
+   public void invalidate(){
+      _stale = true;
+   }
+
+   /**
+    * Returns every hotel whose distance to (latitude, longitude) is at most
+    * radius, in no particular order. A box covering more cells than there
+    * are hotels is answered by checking every hotel instead.
+    *
+    * @throws IllegalArgumentException when a coordinate or the radius is not a finite number
+    * @throws java.sql.SQLException when the snapshot has to be reloaded and that fails
+    */
+   public List<Entry> within(double latitude, double longitude, double radius) throws SQLException {
+      if (!Double.isFinite(latitude) || !Double.isFinite(longitude) || !Double.isFinite(radius)){
+         throw new IllegalArgumentException("latitude, longitude and radius must be finite numbers");
+      }
+      Grid grid = current();
+      List<Entry> found = new ArrayList<Entry>();
+
+      long minX = cell(latitude - radius), maxX = cell(latitude + radius);
+      long minY = cell(longitude - radius), maxY = cell(longitude + radius);
+      // in doubles, since far out the cells saturate at Long.MAX_VALUE and the span overflows
+      double cells = ((double) maxX - minX + 1) * ((double) maxY - minY + 1);
+      if (cells > grid.entries.length){
+         for (Entry e : grid.entries){
+            if (_esql.calculateDistance(latitude, longitude, e.latitude, e.longitude) <= radius){
+               found.add(e);
+            }
+         }
+         return found;
+      }
+      // counted rather than compared with maxX, which ++x would overflow past at Long.MAX_VALUE
+      for (long dx = 0; dx <= maxX - minX; ++dx){
+         for (long dy = 0; dy <= maxY - minY; ++dy){
+            int[] members = grid.cells.get(key(minX + dx, minY + dy));
+            if (members == null) continue;
+            for (int i : members){
+               Entry e = grid.entries[i];
+               if (_esql.calculateDistance(latitude, longitude, e.latitude, e.longitude) <= radius){
+                  found.add(e);
+               }
+            }
+         }
+      }
+      return found;
+   }//end within
+
+   /**
+    * @return the number of hotels in the current snapshot
+    */
+   public int size() throws SQLException {
+      return current().entries.length;
+   }
+
+   private Grid current() throws SQLException {
+      Grid grid = _grid;
+      if (isOutdated(grid)){
+         synchronized (this){
+            grid = _grid;
+            if (isOutdated(grid)){
+               grid = load();
+            }
+         }
+      }
+      return grid;
+   }
+
+   private boolean isOutdated(Grid grid){
+      return grid == null || _stale || System.currentTimeMillis() - grid.loadedAt > _refreshMillis;
+   }
+
+   /**
+    * Rebuilds the grid from the Hotel table right away.
+    *
+    * @throws java.sql.SQLException when failed to read the hotels
+    */
+   public synchronized void reload() throws SQLException {
+      load();
+   }
+
+   private Grid load() throws SQLException {
+      // clear the flag first so a change that lands during the load triggers another one
+      _stale = false;
+      ResultTable hotels = _esql.executeQueryAndReturnTable(HotelQuery.HOTEL_LOCATIONS);
+
+      List<Entry> located = new ArrayList<Entry>(hotels.size());
+      Map<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+      int hotelID = hotels.columnIndex("hotelID"), hotelName = hotels.columnIndex("hotelName");
+      int latitude = hotels.columnIndex("latitude"), longitude = hotels.columnIndex("longitude");
+      int dateEstablished = hotels.columnIndex("dateEstablished");
+      for (int row = 0; row < hotels.size(); ++row){
+         // a hotel without coordinates is near nothing; getDouble would read it as (0,0)
+         if (hotels.isNull(row, latitude) || hotels.isNull(row, longitude)) continue;
+         Entry entry = new Entry(hotels.getInt(row, hotelID), hotels.getString(row, hotelName),
+            hotels.getDouble(row, latitude), hotels.getDouble(row, longitude),
+            hotels.getString(row, dateEstablished));
+         Long key = key(cell(entry.latitude), cell(entry.longitude));
+         List<Integer> bucket = buckets.get(key);
+         if (bucket == null){
+            bucket = new ArrayList<Integer>();
+            buckets.put(key, bucket);
+         }
+         bucket.add(located.size());
+         located.add(entry);
+      }
+      Entry[] entries = located.toArray(new Entry[located.size()]);
+
+      Map<Long, int[]> cells = new HashMap<Long, int[]>(buckets.size() * 2);
+      for (Map.Entry<Long, List<Integer>> bucket : buckets.entrySet()){
+         int[] members = new int[bucket.getValue().size()];
+         for (int i = 0; i < members.length; ++i) members[i] = bucket.getValue().get(i);
+         cells.put(bucket.getKey(), members);
+      }
+
+      Grid grid = new Grid(entries, cells);
+      _grid = grid;
+      return grid;
+   }//end load
+
+   private long cell(double coordinate){
+      return (long) Math.floor(coordinate / _cellSize);
+   }
+
+   private static long key(long x, long y){
+      return (x << 32) ^ (y & 0xffffffffL);
+   }
+
+}//end HotelSpatialIndex
@@ -0,0 +1,139 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hands out primary keys for the tables keyed by a serial column.
+ *
+ * Instead of one nextval round trip per insert, the allocator reserves a
+ * block of values from the table's sequence in a single query and serves
+ * inserts from that block with an atomic cursor, so threads taking IDs
+ * never lock each other until the block runs out. Only the thread that
+ * finds the block exhausted goes back to the database for the next one.
+ *
+ * Values come from the same sequences the serial columns use, so rows
+ * inserted by other processes or with the column default never collide
+ * with allocated IDs. IDs left in a block when the process exits are
+ * skipped, the same way a rolled back nextval is.
+ */
+public class IdAllocator {
+
+   /**
+    * The sequences behind the serial primary keys.
+    */
+   public enum Sequence {
+      USER("users_userID_seq"),
+      BOOKING("RoomBookings_bookingID_seq"),
+      REPAIR("roomRepairs_repairID_seq"),
+      REPAIR_REQUEST("roomRepairRequests_requestNumber_seq"),
+      ROOM_UPDATE("roomUpdatesLog_updateNumber_seq");
+
+      private final String sequenceName;
+
+      Sequence(String sequenceName){
+         this.sequenceName = sequenceName;
+      }
+
+      public String getSequenceName(){
+         return sequenceName;
+      }
+   }//end Sequence
+
+   // a reserved run of sequence values; next is the index of the first unused one
+   private static class Block {
+      final int[] ids;
+      final AtomicInteger next = new AtomicInteger(0);
+
+      Block(int[] ids){
+         this.ids = ids;
+      }
+   }//end Block
+
+   private static final Block EMPTY = new Block(new int[0]);
+
+   private final Hotel _esql;
+   private final int _blockSize;
+   private final AtomicReferenceArray<Block> _blocks;
+   private final Object[] _refillLocks;
+   private final AtomicInteger _reservations = new AtomicInteger(0);
+
+   public IdAllocator(Hotel esql){
+      this(esql, Integer.getInteger("hotel.ids.blockSize", 50));
+   }
+
+   /**
+    * @param esql the database access layer
+    * @param blockSize number of values reserved per round trip
+    */
+   public IdAllocator(Hotel esql, int blockSize){
+      if (blockSize < 1){
+         throw new IllegalArgumentException("block size must be at least 1");
+      }
+      this._esql = esql;
+      this._blockSize = blockSize;
+      int n = Sequence.values().length;
+      this._blocks = new AtomicReferenceArray<Block>(n);
+      this._refillLocks = new Object[n];
+      for (int i = 0; i < n; ++i){
+         _blocks.set(i, EMPTY);
+         _refillLocks[i] = new Object();
+      }
+   }//end IdAllocator
+
+   /**
+    * Returns the next unused value of the sequence.
+    *
+    * @throws java.sql.SQLException when a new block has to be reserved and that fails
+    */
+   public int next(Sequence sequence) throws SQLException {
+      int s = sequence.ordinal();
+      while (true){
+         Block block = _blocks.get(s);
+         int i = block.next.getAndIncrement();
+         if (i < block.ids.length){
+            return block.ids[i];
+         }
+         refill(sequence, block);
+      }
+   }//end next
+
+   private void refill(Sequence sequence, Block exhausted) throws SQLException {
+      int s = sequence.ordinal();
+      synchronized (_refillLocks[s]){
+         // another thread may have refilled while this one waited
+         if (_blocks.get(s) != exhausted) return;
+
+         ResultTable reserved = _esql.executeQueryAndReturnTable(HotelQuery.NEXT_IDS,
+            sequence.getSequenceName(), _blockSize);
+         int[] ids = new int[reserved.size()];
+         for (int row = 0; row < ids.length; ++row){
+            ids[row] = reserved.getInt(row, "id");
+         }
+         _blocks.set(s, new Block(ids));
+         _reservations.incrementAndGet();
+      }
+   }//end refill
+
+   /**
+    * Forgets the reserved blocks, e.g. after the sequences were reset.
+    */
+   public void invalidate(){
+      for (int s = 0; s < _blocks.length(); ++s){
+         synchronized (_refillLocks[s]){
+            _blocks.set(s, EMPTY);
+         }
+      }
+   }
+
+   /**
+    * @return the number of blocks reserved so far, i.e. the round trips spent on IDs
+    */
+   public int getReservations(){
+      return _reservations.get();
+   }
+
+   public int getBlockSize(){
+      return _blockSize;
+   }
+
+}//end IdAllocator
@@ -0,0 +1,569 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Recommends indexes to create and to drop for the workload of Hotel, by
+ * measuring each change rather than guessing.
+ *
+ * The workload is a list of named queries with their parameters. It is
+ * read from a file given on the command line (one query per line: the
+ * HotelQuery name and its parameters, separated by tabs; # starts a
+ * comment) or generated from rooms, managers and customers sampled from
+ * the database, in a mix like that of the menus. hotel.advisor.save writes
+ * the generated workload to a file in the same format, so a run can be
+ * repeated or edited.
+ *
+ * The advisor
+ *  1. replays the workload once as is and reads, from the changes it made
+ *     to pg_stat_user_indexes and pg_stat_user_tables, which indexes it
+ *     used and which tables it read, and how;
+ *  2. proposes indexes: composite and covering ones for the predicates of
+ *     the queries, and drops of indexes, on the tables the workload reads,
+ *     that duplicate the leading column of a primary key or unique
+ *     constraint or that the workload never used;
+ *  3. tries each proposal on its own, inside a savepoint that is rolled
+ *     back afterwards, measuring the mean latency of every query
+ *     (hotel.advisor.rounds replays, default 3) and the cost of a fixed mix
+ *     of writes: bookings through book_room(), room updates and their log
+ *     entries.
+ *
+ * A new index is recommended when it makes the workload at least
+ * hotel.advisor.minGain percent faster (default 5) or one of its queries
+ * at least twice as fast; a drop when the workload gets no more than
+ * hotel.advisor.minGain percent slower. The database is left as it was;
+ * the recommendations are printed as a SQL script.
+ *
+ * Creating and dropping indexes takes table locks until the savepoint is
+ * rolled back, so run the advisor against a copy of the database, such as
+ * one loaded by BulkLoader from DataGenerator output.
+ *
+ * Usage: java IndexAdvisor <dbname> <port> <user> [workload file]
+ */
+public class IndexAdvisor {
+
+   /**
+    * One query of the workload.
+    */
+   static class Step {
+      final HotelQuery query;
+      final Object[] params;
+
+      Step(HotelQuery query, Object... params){
+         this.query = query;
+         this.params = params;
+      }
+
+      String format(){
+         StringBuilder line = new StringBuilder(query.name());
+         for (Object p : params) line.append('\t').append(p);
+         return line.toString();
+      }
+
+      /**
+       * Parses a line written by format(), converting each parameter to the
+       * type the query declares.
+       */
+      static Step parse(String line){
+         String[] fields = line.split("\t");
+         HotelQuery query = HotelQuery.valueOf(fields[0].trim());
+         if (fields.length - 1 != query.getParameterCount()){
+            throw new IllegalArgumentException(query + " takes " + query.getParameterCount() + " parameter(s): " + line);
+         }
+         Object[] params = new Object[fields.length - 1];
+         for (int i = 0; i < params.length; ++i){
+            Class<?> type = query.getParameterType(i);
+            String text = fields[i + 1];
+            if (type == Integer.class) params[i] = Integer.valueOf(text.trim());
+            else if (type == Long.class) params[i] = Long.valueOf(text.trim());
+            else if (type == Double.class) params[i] = Double.valueOf(text.trim());
+            else if (type == java.sql.Date.class) params[i] = java.sql.Date.valueOf(text.trim());
+            else if (type == java.sql.Timestamp.class) params[i] = java.sql.Timestamp.valueOf(text.trim());
+            else params[i] = text;
+         }
+         return new Step(query, params);
+      }
+   }//end Step
+
+   /**
+    * A proposed change and what it did to the workload.
+    */
+   static class Candidate {
+      final boolean create;
+      final String table;
+      final String ddl;
+      final String undo;
+      final String reason;
+      Measurement effect;
+      long sizeBytes;
+      double buildMillis;
+
+      Candidate(boolean create, String table, String ddl, String undo, String reason){
+         this.create = create;
+         this.table = table;
+         this.ddl = ddl;
+         this.undo = undo;
+         this.reason = reason;
+      }
+   }//end Candidate
+
+   /**
+    * What one replay of the workload did, from the statistics views.
+    */
+   static class Usage {
+      // index name to the number of scans made with it
+      final Map<String, Long> indexScans = new HashMap<String, Long>();
+      // the tables scanned, sequentially or by index, in lower case
+      final Set<String> tablesRead = new HashSet<String>();
+   }//end Usage
+
+   /**
+    * Mean latency per query name and of the write mix, in nanoseconds.
+    */
+   static class Measurement {
+      final Map<String, Double> meanByQuery = new LinkedHashMap<String, Double>();
+      double workloadNanos;
+      double writeNanos;
+   }//end Measurement
+
+   // proposed indexes: table, name, columns and the queries they are for
+   private static final String[][] PROPOSALS = {
+      {"RoomBookings", "roombooking_hotel_date_room_index", "(hotelID, bookingDate, roomNumber)",
+         "AVAILABLE_ROOMS and ROOM_QUOTE look up bookings by hotel and day; covers the NOT IN subquery"},
+      {"RoomBookings", "roombooking_customer_covering_index", "(customerID) INCLUDE (hotelID, roomNumber, bookingDate)",
+         "RECENT_BOOKINGS reads a customer's bookings; index-only"},
+      {"Hotel", "hotel_manager_hotel_index", "(managerUserID, hotelID)",
+         "MANAGED_HOTELS and BOOKING_HISTORY_PAGE start from the manager's hotels"},
+      {"RoomRepairs", "roomrepair_room_date_index", "(hotelID, roomNumber, repairDate)",
+         "REPAIR_EXISTS checks a room's repairs on a day"},
+      {"RoomRepairRequests", "roomrepairrequest_manager_repair_index", "(managerID, repairID)",
+         "REPAIR_HISTORY joins a manager's requests to their repairs; index-only"},
+   };
+
+   private static final int WRITES = 50;
+
+   private final Connection _connection;
+   private final StatementCache _statements;
+   private final int _rounds;
+   private final double _minGain;
+   private final Random _random = new Random(166);
+
+   // rows for the write mix
+   private int[][] _writeRooms;
+   private int _writeCustomer;
+
+   public IndexAdvisor(Connection connection, int rounds, double minGain){
+      this._connection = connection;
+      this._statements = new StatementCache(connection);
+      this._rounds = rounds;
+      this._minGain = minGain;
+   }
+
+   private void execute(String sql) throws SQLException {
+      try (Statement stmt = _connection.createStatement()){
+         stmt.execute(sql);
+      }
+   }
+
+   private ResultTable table(HotelQuery query, Object... params) throws SQLException {
+      return ResultTable.read(_statements.prepare(query, params).executeQuery());
+   }
+
+   private ResultTable table(String sql) throws SQLException {
+      try (Statement stmt = _connection.createStatement()){
+         return ResultTable.read(stmt.executeQuery(sql));
+      }
+   }
+
+   // ------------------------------------------------------------------
+   // workload
+
+   /**
+    * Builds a workload from sampled rows, weighted like the menus: mostly
+    * room searches and bookings, then the manager screens.
+    */
+   List<Step> syntheticWorkload(int samples) throws SQLException {
+      ResultTable rooms = table(HotelQuery.SAMPLE_ROOMS, samples);
+      ResultTable customers = table(HotelQuery.SAMPLE_CUSTOMERS, samples);
+      ResultTable size = table(HotelQuery.DATASET_SIZE);
+      if (rooms.isEmpty() || customers.isEmpty() || size.isNull(0, "first_day")){
+         throw new SQLException("the database has no rooms, customers or bookings to build a workload from");
+      }
+      LocalDate first = size.getDate(0, "first_day").toLocalDate();
+      int days = (int) Math.max(1, size.getDate(0, "last_day").toLocalDate().toEpochDay() - first.toEpochDay());
+
+      List<Step> steps = new ArrayList<Step>();
+      for (int i = 0; i < rooms.size(); ++i){
+         int hotel = rooms.getInt(i, "hotelID");
+         int room = rooms.getInt(i, "roomNumber");
+         int manager = rooms.getInt(i, "managerUserID");
+         int customer = customers.getInt(i % customers.size(), "userID");
+         String day = first.plusDays(_random.nextInt(days)).toString();
+         String monthLater = LocalDate.parse(day).plusDays(30).toString();
+
+         steps.add(new Step(HotelQuery.AVAILABLE_ROOMS, hotel, day));
+         steps.add(new Step(HotelQuery.AVAILABLE_ROOMS, hotel, first.plusDays(_random.nextInt(days)).toString()));
+         steps.add(new Step(HotelQuery.ROOM_QUOTE, day, hotel, room));
+         steps.add(new Step(HotelQuery.RECENT_BOOKINGS, customer));
+         steps.add(new Step(HotelQuery.MANAGED_HOTELS, manager));
+         steps.add(new Step(HotelQuery.ROOM_DETAILS, room, hotel));
+         if (i % 2 == 0){
+            steps.add(new Step(HotelQuery.RECENT_UPDATES, manager));
+            steps.add(new Step(HotelQuery.BOOKING_HISTORY_PAGE, day, day, "infinity", Integer.MAX_VALUE, 21, manager, 21));
+            steps.add(new Step(HotelQuery.REPAIR_EXISTS, 1, hotel, room, day));
+            steps.add(new Step(HotelQuery.REPAIR_HISTORY, manager));
+         }
+         if (i % 5 == 0){
+            steps.add(new Step(HotelQuery.BOOKING_HISTORY_PAGE, day, monthLater, "infinity", Integer.MAX_VALUE, 21, manager, 21));
+            steps.add(new Step(HotelQuery.ROOM_UPDATES_PAGE, manager, "infinity", Integer.MAX_VALUE, 21));
+         }
+      }
+
+      // the write mix books rooms far in the future, which are always free
+      _writeCustomer = customers.getInt(0, "userID");
+      _writeRooms = new int[Math.min(WRITES, rooms.size())][];
+      for (int i = 0; i < _writeRooms.length; ++i){
+         _writeRooms[i] = new int[]{rooms.getInt(i, "hotelID"), rooms.getInt(i, "roomNumber"), rooms.getInt(i, "managerUserID")};
+      }
+      return steps;
+   }//end syntheticWorkload
+
+   static List<Step> readWorkload(File file) throws IOException {
+      List<Step> steps = new ArrayList<Step>();
+      try (BufferedReader in = new BufferedReader(new FileReader(file))){
+         String line;
+         while ((line = in.readLine()) != null){
+            if (line.trim().isEmpty() || line.trim().startsWith("#")) continue;
+            steps.add(Step.parse(line));
+         }
+      }
+      return steps;
+   }
+
+   static void saveWorkload(List<Step> steps, File file) throws IOException {
+      try (PrintWriter out = new PrintWriter(file)){
+         out.println("# query<TAB>parameters..., as read by IndexAdvisor");
+         for (Step step : steps) out.println(step.format());
+      }
+   }
+
+   // ------------------------------------------------------------------
+   // measuring
+
+   /**
+    * Replays the workload hotel.advisor.rounds times after one warm-up
+    * round and runs the write mix.
+    */
+   Measurement measure(List<Step> workload) throws SQLException {
+      replay(workload, null);
+      Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+      for (int r = 0; r < _rounds; ++r){
+         replay(workload, totals);
+      }
+      Measurement m = new Measurement();
+      for (Map.Entry<String, long[]> e : totals.entrySet()){
+         double mean = e.getValue()[0] / (double) e.getValue()[1];
+         m.meanByQuery.put(e.getKey(), mean);
+         m.workloadNanos += e.getValue()[0] / (double) _rounds;
+      }
+      m.writeNanos = writeMix();
+      return m;
+   }//end measure
+
+   private void replay(List<Step> workload, Map<String, long[]> totals) throws SQLException {
+      for (Step step : workload){
+         long start = System.nanoTime();
+         PreparedStatement stmt = _statements.prepare(step.query, step.params);
+         try (ResultSet rs = stmt.executeQuery()){
+            while (rs.next()){
+               // read every row, as the application does
+            }
+         }
+         long nanos = System.nanoTime() - start;
+         if (totals != null){
+            long[] t = totals.computeIfAbsent(step.query.name(), k -> new long[2]);
+            t[0] += nanos;
+            t[1]++;
+         }
+      }
+   }//end replay
+
+   /**
+    * Times WRITES bookings, room updates and log entries, undone afterwards.
+    *
+    * @return the mean time of one booking, update and log entry together
+    */
+   private double writeMix() throws SQLException {
+      if (_writeRooms == null || _writeRooms.length == 0) return 0;
+      execute("SAVEPOINT advisor_writes");
+      try{
+         ResultTable ids = table("SELECT COALESCE(MAX(bookingID), 0) AS bookings FROM RoomBookings");
+         ResultTable updates = table("SELECT COALESCE(MAX(updateNumber), 0) AS updates FROM RoomUpdatesLog");
+         int booking = (int) ids.getLong(0, "bookings") + 1000000;
+         int update = (int) updates.getLong(0, "updates") + 1000000;
+         LocalDate day = LocalDate.of(3000, 1, 1);
+         java.sql.Timestamp now = new java.sql.Timestamp(System.currentTimeMillis());
+         long start = System.nanoTime();
+         for (int i = 0; i < WRITES; ++i){
+            int[] room = _writeRooms[i % _writeRooms.length];
+            try (ResultSet rs = _statements.prepare(HotelQuery.BOOK_ROOM, booking + i, _writeCustomer, room[0], room[1],
+                  day.plusDays(i).toString()).executeQuery()){
+               rs.next();
+            }
+            ResultTable price = table(HotelQuery.ROOM_DETAILS, room[1], room[0]);
+            _statements.prepare(HotelQuery.UPDATE_ROOM, price.getInt(0, "price") + 1, price.getString(0, "imageURL"),
+               room[0], room[1]).executeUpdate();
+            _statements.prepare(HotelQuery.INSERT_ROOM_UPDATE, update + i, room[2], room[0], room[1], now).executeUpdate();
+         }
+         return (System.nanoTime() - start) / (double) WRITES;
+      }finally{
+         execute("ROLLBACK TO SAVEPOINT advisor_writes");
+      }
+   }//end writeMix
+
+   // ------------------------------------------------------------------
+   // proposals
+
+   /**
+    * Replays the workload outside any transaction and reads the scan
+    * counters it left in the statistics views, as the difference from
+    * their values before the replay.
+    */
+   Usage indexUsage(List<Step> workload) throws SQLException, InterruptedException {
+      Map<String, Long> before = indexScans();
+      Map<String, long[]> tablesBefore = tableScans();
+      replay(workload, null);
+      // the counters reach the views shortly after the statements end
+      Thread.sleep(1500);
+      Map<String, Long> after = indexScans();
+      Map<String, long[]> tablesAfter = tableScans();
+
+      Usage usage = new Usage();
+      for (Map.Entry<String, Long> e : after.entrySet()){
+         Long b = before.get(e.getKey());
+         usage.indexScans.put(e.getKey(), e.getValue() - (b == null ? 0 : b));
+      }
+
+      System.out.println("scans by table during the workload:");
+      for (Map.Entry<String, long[]> e : tablesAfter.entrySet()){
+         long[] a = e.getValue();
+         long[] b = tablesBefore.get(e.getKey());
+         long seqScans = a[0] - (b == null ? 0 : b[0]);
+         long seqRows = a[1] - (b == null ? 0 : b[1]);
+         long indexScans = a[2] - (b == null ? 0 : b[2]);
+         if (seqScans == 0 && indexScans == 0) continue;
+         usage.tablesRead.add(e.getKey().toLowerCase());
+         System.out.println(String.format("   %-20s %,10d seq scans %,14d rows read %,10d index scans %,12d rows",
+            e.getKey(), seqScans, seqRows, indexScans, a[3]));
+      }
+      return usage;
+   }//end indexUsage
+
+   private Map<String, Long> indexScans() throws SQLException {
+      table("SELECT pg_stat_clear_snapshot() IS NULL AS cleared");
+      ResultTable scans = table("SELECT indexrelname, idx_scan FROM pg_stat_user_indexes");
+      Map<String, Long> result = new HashMap<String, Long>();
+      for (int i = 0; i < scans.size(); ++i){
+         result.put(scans.getString(i, "indexrelname").toLowerCase(), scans.getLong(i, "idx_scan"));
+      }
+      return result;
+   }
+
+   // table name to seq_scan, seq_tup_read, idx_scan and n_live_tup, most rows read sequentially first
+   private Map<String, long[]> tableScans() throws SQLException {
+      ResultTable tables = table("SELECT relname, seq_scan, seq_tup_read, idx_scan, n_live_tup FROM pg_stat_user_tables ORDER BY seq_tup_read DESC");
+      Map<String, long[]> result = new LinkedHashMap<String, long[]>();
+      for (int i = 0; i < tables.size(); ++i){
+         result.put(tables.getString(i, "relname"), new long[]{tables.getLong(i, "seq_scan"), tables.getLong(i, "seq_tup_read"),
+            tables.isNull(i, "idx_scan") ? 0 : tables.getLong(i, "idx_scan"), tables.getLong(i, "n_live_tup")});
+      }
+      return result;
+   }
+
+   /**
+    * @return the proposed new indexes and drops
+    */
+   List<Candidate> propose(Usage usage) throws SQLException {
+      ResultTable indexes = table(
+         "SELECT c.relname AS index_name, t.relname AS table_name, pg_get_indexdef(ix.indexrelid) AS def, " +
+         "CAST(ix.indkey AS text) AS keys, CAST(ix.indisprimary OR ix.indisunique OR " +
+         "EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = ix.indexrelid) AS integer) AS constrained " +
+         "FROM pg_index ix JOIN pg_class c ON c.oid = ix.indexrelid JOIN pg_class t ON t.oid = ix.indrelid " +
+         "JOIN pg_namespace n ON n.oid = t.relnamespace WHERE n.nspname = current_schema()");
+
+      Set<String> existing = new HashSet<String>();
+      Map<String, Set<String>> constraintLeads = new HashMap<String, Set<String>>();
+      for (int i = 0; i < indexes.size(); ++i){
+         String def = indexes.getString(i, "def").toLowerCase();
+         existing.add(def.substring(def.indexOf(" using ")));
+         if (indexes.getInt(i, "constrained") != 0){
+            String lead = indexes.getString(i, "keys").split(" ")[0];
+            constraintLeads.computeIfAbsent(indexes.getString(i, "table_name").toLowerCase(), k -> new HashSet<String>()).add(lead);
+         }
+      }
+
+      List<Candidate> candidates = new ArrayList<Candidate>();
+      for (String[] p : PROPOSALS){
+         // pg_get_indexdef prints the definition the way the proposals are written
+         if (existing.contains(" using btree " + p[2].toLowerCase())) continue;
+         candidates.add(new Candidate(true, p[0], "CREATE INDEX " + p[1] + " ON " + p[0] + " USING btree " + p[2],
+            "DROP INDEX " + p[1], p[3]));
+      }
+
+      for (int i = 0; i < indexes.size(); ++i){
+         if (indexes.getInt(i, "constrained") != 0) continue;
+         String name = indexes.getString(i, "index_name");
+         String table = indexes.getString(i, "table_name");
+         // the workload cannot measure, and so cannot justify, dropping an index of a table it never reads
+         if (!usage.tablesRead.contains(table.toLowerCase())) continue;
+         String[] keys = indexes.getString(i, "keys").split(" ");
+         Set<String> leads = constraintLeads.get(table.toLowerCase());
+         Long scans = usage.indexScans.get(name.toLowerCase());
+         String reason;
+         if (keys.length == 1 && leads != null && leads.contains(keys[0])){
+            reason = "duplicates the leading column of a primary key or unique constraint";
+         }else if (scans != null && scans == 0){
+            reason = "not used by the workload";
+         }else{
+            continue;
+         }
+         candidates.add(new Candidate(false, table, "DROP INDEX " + name, indexes.getString(i, "def"), reason));
+      }
+      return candidates;
+   }//end propose
+
+   /**
+    * Applies the candidate inside a savepoint, measures, and rolls back.
+    */
+   void tryCandidate(Candidate candidate, List<Step> workload) throws SQLException {
+      execute("SAVEPOINT advisor_candidate");
+      try{
+         long start = System.nanoTime();
+         execute(candidate.ddl);
+         candidate.buildMillis = (System.nanoTime() - start) / 1e6;
+         if (candidate.create){
+            String name = candidate.ddl.split(" ")[2];
+            candidate.sizeBytes = table("SELECT pg_relation_size(CAST('" + name + "' AS regclass)) AS size").getLong(0, "size");
+         }
+         candidate.effect = measure(workload);
+      }finally{
+         execute("ROLLBACK TO SAVEPOINT advisor_candidate");
+      }
+   }//end tryCandidate
+
+   private static double change(double before, double after){
+      return before == 0 ? 0 : (after - before) * 100.0 / before;
+   }
+
+   /**
+    * @return whether the measured effect justifies the change
+    */
+   boolean recommended(Candidate c, Measurement baseline){
+      double workload = change(baseline.workloadNanos, c.effect.workloadNanos);
+      if (!c.create){
+         return workload <= _minGain;
+      }
+      if (workload <= -_minGain) return true;
+      for (Map.Entry<String, Double> e : c.effect.meanByQuery.entrySet()){
+         Double before = baseline.meanByQuery.get(e.getKey());
+         if (before != null && e.getValue() * 2 <= before) return true;
+      }
+      return false;
+   }//end recommended
+
+   private static String bestQuery(Candidate c, Measurement baseline){
+      String best = "-";
+      double bestChange = 0;
+      for (Map.Entry<String, Double> e : c.effect.meanByQuery.entrySet()){
+         double ch = change(baseline.meanByQuery.get(e.getKey()), e.getValue());
+         if (Math.abs(ch) > Math.abs(bestChange)){
+            bestChange = ch;
+            best = String.format("%s %+.0f%%", e.getKey(), ch);
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Runs the whole analysis and prints the report and the script.
+    */
+   public void run(List<Step> workload) throws Exception {
+      System.out.println("workload: " + workload.size() + " queries, " + _rounds + " rounds per measurement");
+      Usage usage = indexUsage(workload);
+
+      _connection.setAutoCommit(false);
+      try{
+         Measurement baseline = measure(workload);
+         System.out.println(String.format("%nbaseline: workload %.1f ms, writes %.1f us per booking + update", baseline.workloadNanos / 1e6, baseline.writeNanos / 1e3));
+         for (Map.Entry<String, Double> e : baseline.meanByQuery.entrySet()){
+            System.out.println(String.format("   %-26s %10.1f us", e.getKey(), e.getValue() / 1e3));
+         }
+
+         List<Candidate> candidates = propose(usage);
+         System.out.println(String.format("%n%-8s %-62s %9s %9s %10s  %s", "", "change", "workload", "writes", "size", "largest query effect"));
+         List<Candidate> accepted = new ArrayList<Candidate>();
+         for (Candidate c : candidates){
+            tryCandidate(c, workload);
+            boolean ok = recommended(c, baseline);
+            if (ok) accepted.add(c);
+            System.out.println(String.format("%-8s %-62s %+8.1f%% %+8.1f%% %10s  %s", ok ? "YES" : "no",
+               c.ddl.length() > 62 ? c.ddl.substring(0, 59) + "..." : c.ddl,
+               change(baseline.workloadNanos, c.effect.workloadNanos), change(baseline.writeNanos, c.effect.writeNanos),
+               c.create ? (c.sizeBytes / 1024) + " KB" : "", bestQuery(c, baseline)));
+         }
+
+         System.out.println("\n-- recommended by IndexAdvisor; each change was measured on its own");
+         for (Candidate c : accepted){
+            System.out.println(String.format("-- %s: workload %+.1f%%, writes %+.1f%%", c.reason,
+               change(baseline.workloadNanos, c.effect.workloadNanos), change(baseline.writeNanos, c.effect.writeNanos)));
+            System.out.println(c.ddl + ";");
+         }
+      }finally{
+         _connection.rollback();
+         _connection.setAutoCommit(true);
+      }
+   }//end run
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3 || args.length > 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            IndexAdvisor.class.getName () +
+            " <dbname> <port> <user> [workload file]");
+         return;
+      }//end if
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      try (Connection connection = DriverManager.getConnection(url, args[2], "")){
+         IndexAdvisor advisor = new IndexAdvisor(connection, Integer.getInteger("hotel.advisor.rounds", 3),
+            Double.parseDouble(System.getProperty("hotel.advisor.minGain", "5")));
+         List<Step> synthetic = advisor.syntheticWorkload(Integer.getInteger("hotel.advisor.samples", 200));
+         List<Step> workload = args.length == 4 ? readWorkload(new File(args[3])) : synthetic;
+         String save = System.getProperty("hotel.advisor.save");
+         if (save != null){
+            saveWorkload(workload, new File(save));
+         }
+         advisor.run(workload);
+      }
+   }//end main
+
+}//end IndexAdvisor
@@ -0,0 +1,151 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with log-linear buckets, in the
+ * manner of HdrHistogram.
+ *
+ * Values below 128 get a bucket each; above that every power of two is
+ * split into 64 buckets, so any recorded value is reported within 1/64
+ * (about 1.6%) of its true size, from nanoseconds to days, in a fixed
+ * 30 KB of counters. Recording is one atomic increment and is safe from
+ * any number of threads; percentiles are read from a snapshot of the
+ * counters.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 7;
+   private static final int SUB = 1 << SUB_BITS;        // 128 exact buckets
+   private static final int HALF = SUB >>> 1;           // 64 buckets per power of two
+   private static final int BUCKETS = SUB + (63 - SUB_BITS) * HALF;
+
+   private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+   private final LongAdder _count = new LongAdder();
+   private final LongAdder _total = new LongAdder();
+   private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+   private final LongAccumulator _min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+   static int index(long value){
+      if (value < SUB) return (int) Math.max(0, value);
+      int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+      return SUB + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+   }
+
+   // the largest value that falls into the bucket
+   static long highestEquivalent(int index){
+      if (index < SUB) return index;
+      int k = index - SUB;
+      int shift = k / HALF + 1;
+      long sub = k % HALF + HALF;
+      return ((sub + 1) << shift) - 1;
+   }
+
+   /**
+    * Records one duration.
+    *
+    * @param nanos the duration in nanoseconds; negative values count as 0
+    */
+   public void record(long nanos){
+      long value = Math.max(0, nanos);
+      _counts.incrementAndGet(index(value));
+      _count.increment();
+      _total.add(value);
+      _max.accumulate(value);
+      _min.accumulate(value);
+   }
+
+   /**
+    * Records the time passed since startNanos, as returned by System.nanoTime().
+    */
+   public void recordSince(long startNanos){
+      record(System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Adds every value recorded by the other histogram to this one.
+    */
+   public void add(LatencyHistogram other){
+      for (int i = 0; i < BUCKETS; ++i){
+         long n = other._counts.get(i);
+         if (n != 0) _counts.addAndGet(i, n);
+      }
+      _count.add(other._count.sum());
+      _total.add(other._total.sum());
+      _max.accumulate(other._max.get());
+      _min.accumulate(other._min.get());
+   }
+
+   public long getCount(){
+      return _count.sum();
+   }
+
+   /**
+    * @return the sum of all recorded durations in nanoseconds
+    */
+   public long getTotal(){
+      return _total.sum();
+   }
+
+   public long getMax(){
+      return _max.get();
+   }
+
+   public long getMin(){
+      long min = _min.get();
+      return min == Long.MAX_VALUE ? 0 : min;
+   }
+
+   public double getMean(){
+      long count = getCount();
+      return count == 0 ? 0 : getTotal() / (double) count;
+   }
+
+   /**
+    * @param percentile between 0 and 100
+    * @return the value below which the given share of the recorded values
+    *         fall, to the histogram's precision; 0 when nothing was recorded
+    */
+   public long getPercentile(double percentile){
+      long[] counts = new long[BUCKETS];
+      long count = 0;
+      for (int i = 0; i < BUCKETS; ++i){
+         counts[i] = _counts.get(i);
+         count += counts[i];
+      }
+      if (count == 0) return 0;
+      long rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i){
+         seen += counts[i];
+         if (seen >= rank){
+            return Math.min(highestEquivalent(i), getMax());
+         }
+      }
+      return getMax();
+   }//end getPercentile
+
+   /**
+    * Forgets every recorded value.
+    */
+   public void reset(){
+      for (int i = 0; i < BUCKETS; ++i){
+         _counts.set(i, 0);
+      }
+      _count.reset();
+      _total.reset();
+      _max.reset();
+      _min.reset();
+   }
+
+   /**
+    * @return count, mean and the usual percentiles in microseconds
+    */
+   @Override
+   public String toString(){
+      return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+         getCount(), getMean() / 1000.0, getPercentile(50) / 1000.0, getPercentile(90) / 1000.0,
+         getPercentile(99) / 1000.0, getPercentile(99.9) / 1000.0, getMax() / 1000.0);
+   }
+
+}//end LatencyHistogram
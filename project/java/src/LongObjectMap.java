@@ -0,0 +1,126 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive long keys to objects.
+ *
+ * Keys are stored unboxed in a long[] with linear probing, which keeps
+ * large in-memory indexes (millions of entries) far smaller than a
+ * HashMap<Long, V>. Null values are not allowed; a null slot marks an empty
+ * one. Removal shifts the following entries of the probe sequence back, so
+ * no tombstones are left behind. Not thread safe.
+ */
+public class LongObjectMap<V> {
+
+   private long[] _keys;
+   private Object[] _values;
+   private int _size = 0;
+   private int _mask;
+
+   public LongObjectMap(){
+      this(16);
+   }
+
+   public LongObjectMap(int expectedSize){
+      int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+      _keys = new long[capacity];
+      _values = new Object[capacity];
+      _mask = capacity - 1;
+   }
+
+   private static int hash(long key){
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+   }
+
+   @SuppressWarnings("unchecked")
+   public V get(long key){
+      int i = hash(key) & _mask;
+      Object v;
+      while ((v = _values[i]) != null){
+         if (_keys[i] == key) return (V) v;
+         i = (i + 1) & _mask;
+      }
+      return null;
+   }
+
+   /**
+    * @return the previous value for the key, or null
+    */
+   @SuppressWarnings("unchecked")
+   public V put(long key, V value){
+      if (value == null){
+         throw new IllegalArgumentException("null values are not supported");
+      }
+      if ((_size + 1) * 2 > _values.length){
+         resize(_values.length * 2);
+      }
+      int i = hash(key) & _mask;
+      Object v;
+      while ((v = _values[i]) != null){
+         if (_keys[i] == key){
+            _values[i] = value;
+            return (V) v;
+         }
+         i = (i + 1) & _mask;
+      }
+      _keys[i] = key;
+      _values[i] = value;
+      _size++;
+      return null;
+   }//end put
+
+   /**
+    * @return the removed value for the key, or null
+    */
+   @SuppressWarnings("unchecked")
+   public V remove(long key){
+      int i = hash(key) & _mask;
+      Object v;
+      while ((v = _values[i]) != null){
+         if (_keys[i] == key) break;
+         i = (i + 1) & _mask;
+      }
+      if (v == null) return null;
+      _values[i] = null;
+      _size--;
+      // move back every later entry of the run that could no longer be reached
+      int hole = i;
+      for (int j = (i + 1) & _mask; _values[j] != null; j = (j + 1) & _mask){
+         int home = hash(_keys[j]) & _mask;
+         if (((j - home) & _mask) >= ((j - hole) & _mask)){
+            _keys[hole] = _keys[j];
+            _values[hole] = _values[j];
+            _values[j] = null;
+            hole = j;
+         }
+      }
+      return (V) v;
+   }//end remove
+
+   public int size(){
+      return _size;
+   }
+
+   public void clear(){
+      Arrays.fill(_values, null);
+      _size = 0;
+   }
+
+   private void resize(int capacity){
+      long[] keys = _keys;
+      Object[] values = _values;
+      _keys = new long[capacity];
+      _values = new Object[capacity];
+      _mask = capacity - 1;
+      for (int j = 0; j < values.length; ++j){
+         if (values[j] == null) continue;
+         int i = hash(keys[j]) & _mask;
+         while (_values[i] != null){
+            i = (i + 1) & _mask;
+         }
+         _keys[i] = keys[j];
+         _values[i] = values[j];
+      }
+   }//end resize
+
+}//end LongObjectMap
@@ -0,0 +1,487 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Bounded cache of the results of read queries, keyed by the query and its
+ * parameters.
+ *
+ * Only the queries named in hotel.cache.queries are cached (by default the
+ * repair history, company and hotel lists), for at most hotel.cache.ttl
+ * seconds (default 30). Every entry is tagged with the tables its SQL
+ * reads. Hotel calls invalidate() with the tables of every
+ * update it makes, which drops the results of those tables: a table's
+ * generation is bumped, and entries read under an older generation are no
+ * longer returned. The generations are taken before the query runs, so a
+ * result that raced with an update is never served. Changes made by other
+ * processes are only seen through the TTL and, for Hotel, Rooms and
+ * RoomBookings, through the CatalogCache listener, which calls
+ * invalidate() with the table a notification names.
+ *
+ * The cache holds at most hotel.cache.maxBytes (default 8 MB) of results,
+ * as estimated by ResultTable.estimateBytes(). Eviction follows W-TinyLFU:
+ * new entries go to a small LRU window (1% of the bytes); an entry pushed
+ * out of the window only enters the main segmented LRU if it was asked for
+ * more often than each entry it would evict, by a count-min sketch of recent
+ * key frequencies that is halved periodically so that it ages. One-off
+ * queries thus never push out the popular ones. Entries hit in the main
+ * probation segment move to the protected segment (80% of the main bytes).
+ *
+ * Hit ratio and footprint are published as the MXBean hotel:type=Cache,
+ * name=results, unless hotel.metrics.jmx is false.
+ */
+public class QueryResultCache {
+
+   /**
+    * What JMX shows of the cache.
+    */
+   public interface ResultCacheMXBean {
+      long getHits();
+      long getMisses();
+      double getHitRatio();
+      int getEntries();
+      long getBytes();
+      long getMaxBytes();
+      long getEvictions();
+      long getRejections();
+      long getInvalidations();
+      void clear();
+   }//end ResultCacheMXBean
+
+   // the tables of the schema, found as words in the SQL of a query
+   private static final String[] TABLES = {
+      "users", "hotel", "rooms", "roombookings", "maintenancecompany", "roomrepairs", "roomrepairrequests", "roomupdateslog"
+   };
+   // functions and the tables they write
+   private static final String[][] FUNCTION_WRITES = {
+      {"book_room", "roombookings"},
+   };
+   private static final Pattern WORD = Pattern.compile("[A-Za-z_][A-Za-z_0-9]*");
+   private static final String DEFAULT_QUERIES = "REPAIR_HISTORY,ALL_COMPANIES,ALL_HOTELS";
+
+   // what an entry costs besides its rows: key, node and bookkeeping
+   private static final int ENTRY_OVERHEAD = 160;
+
+   private static class Key {
+      final HotelQuery query;
+      final Object[] params;
+      final int hash;
+
+      Key(HotelQuery query, Object[] params){
+         this.query = query;
+         this.params = params.clone();
+         this.hash = 31 * query.hashCode() + Arrays.hashCode(params);
+      }
+
+      @Override
+      public int hashCode(){
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object o){
+         return o instanceof Key && ((Key) o).query == query && Arrays.equals(((Key) o).params, params);
+      }
+   }//end Key
+
+   private static class Entry {
+      final ResultTable table;
+      final long[] generations;
+      final long expires;
+      final long weight;
+
+      Entry(ResultTable table, long[] generations, long expires, long weight){
+         this.table = table;
+         this.generations = generations;
+         this.expires = expires;
+         this.weight = weight;
+      }
+   }//end Entry
+
+   /**
+    * Count-min sketch of 4-bit counters, 4 per key, halved after every
+    * 10 * width increments.
+    */
+   private static class FrequencySketch {
+      final byte[] counters;
+      final int mask;
+      final int sampleSize;
+      int additions = 0;
+
+      FrequencySketch(int expectedEntries){
+         int width = Integer.highestOneBit(Math.max(64, Math.min(1 << 22, expectedEntries)) - 1) << 1;
+         counters = new byte[width * 4];
+         mask = width - 1;
+         sampleSize = 10 * width;
+      }
+
+      private int index(int hash, int row){
+         int h = (hash ^ (hash >>> 16)) * (0x9E3779B1 + 2 * row);
+         return row * (mask + 1) + ((h ^ (h >>> 15)) & mask);
+      }
+
+      void increment(int hash){
+         boolean added = false;
+         for (int row = 0; row < 4; ++row){
+            int i = index(hash, row);
+            if (counters[i] < 15){
+               counters[i]++;
+               added = true;
+            }
+         }
+         if (added && ++additions >= sampleSize){
+            for (int i = 0; i < counters.length; ++i){
+               counters[i] >>= 1;
+            }
+            additions /= 2;
+         }
+      }//end increment
+
+      int frequency(int hash){
+         int min = 15;
+         for (int row = 0; row < 4; ++row){
+            min = Math.min(min, counters[index(hash, row)]);
+         }
+         return min;
+      }
+   }//end FrequencySketch
+
+   private final Set<HotelQuery> _cached = new HashSet<HotelQuery>();
+   private final long _ttlNanos;
+   private final long _maxBytes;
+   private final long _windowMax;
+   private final long _protectedMax;
+   // read tables of each query, as indexes into TABLES and _generations
+   private final int[][] _reads = new int[HotelQuery.values().length][];
+   private final AtomicLongArray _generations = new AtomicLongArray(TABLES.length);
+
+   // all guarded by this
+   private final LinkedHashMap<Key, Entry> _window = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+   private final LinkedHashMap<Key, Entry> _probation = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+   private final LinkedHashMap<Key, Entry> _protected = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+   private long _windowBytes, _probationBytes, _protectedBytes;
+   private final FrequencySketch _sketch;
+   private long _hits, _misses, _evictions, _rejections, _invalidations;
+
+   public QueryResultCache(){
+      this(System.getProperty("hotel.cache.queries", DEFAULT_QUERIES),
+         TimeUnit.SECONDS.toNanos(Long.getLong("hotel.cache.ttl", 30)),
+         Long.getLong("hotel.cache.maxBytes", 8L * 1024 * 1024));
+   }
+
+   /**
+    * @param queries comma separated names of the queries to cache; empty
+    *        turns the cache off
+    */
+   public QueryResultCache(String queries, long ttlNanos, long maxBytes){
+      for (String name : queries.split(",")){
+         if (!name.trim().isEmpty()){
+            _cached.add(HotelQuery.valueOf(name.trim().toUpperCase()));
+         }
+      }
+      this._ttlNanos = ttlNanos;
+      this._maxBytes = maxBytes;
+      this._windowMax = Math.max(1, maxBytes / 100);
+      this._protectedMax = (maxBytes - _windowMax) * 8 / 10;
+      this._sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxBytes / 512));
+      for (HotelQuery query : HotelQuery.values()){
+         _reads[query.ordinal()] = tables(query.getSql(HotelQuery.Shape.ROWS));
+      }
+      register();
+   }//end QueryResultCache
+
+   /**
+    * @return the indexes into TABLES of the tables named in the SQL, and of
+    *         those written by the functions it calls
+    */
+   static int[] tables(String sql){
+      Set<String> words = new HashSet<String>();
+      Matcher m = WORD.matcher(sql);
+      while (m.find()){
+         words.add(m.group().toLowerCase(Locale.ROOT));
+      }
+      for (String[] f : FUNCTION_WRITES){
+         if (words.contains(f[0])) words.add(f[1]);
+      }
+      int[] found = new int[TABLES.length];
+      int n = 0;
+      for (int i = 0; i < TABLES.length; ++i){
+         if (words.contains(TABLES[i])) found[n++] = i;
+      }
+      return Arrays.copyOf(found, n);
+   }//end tables
+
+   public boolean isCached(HotelQuery query){
+      return _cached.contains(query);
+   }
+
+   // ------------------------------------------------------------------
+   // lookups
+
+   /**
+    * @return the generations of the query's tables, to be taken before the
+    *         query runs and passed to put()
+    */
+   public long[] generations(HotelQuery query){
+      int[] reads = _reads[query.ordinal()];
+      long[] generations = new long[reads.length];
+      for (int i = 0; i < reads.length; ++i){
+         generations[i] = _generations.get(reads[i]);
+      }
+      return generations;
+   }
+
+   private boolean isValid(HotelQuery query, Entry entry, long now){
+      return now < entry.expires && Arrays.equals(entry.generations, generations(query));
+   }
+
+   /**
+    * @return the cached result, or null
+    */
+   public synchronized ResultTable get(HotelQuery query, Object[] params){
+      Key key = new Key(query, params);
+      _sketch.increment(key.hash);
+      long now = System.nanoTime();
+      Entry entry = _window.get(key);
+      if (entry == null){
+         entry = _protected.get(key);
+      }
+      if (entry == null && (entry = _probation.get(key)) != null && isValid(query, entry, now)){
+         // a second hit earns a place in the protected segment
+         _probation.remove(key);
+         _probationBytes -= entry.weight;
+         _protected.put(key, entry);
+         _protectedBytes += entry.weight;
+         demoteProtected();
+      }
+      if (entry == null){
+         _misses++;
+         return null;
+      }
+      if (!isValid(query, entry, now)){
+         remove(key);
+         _misses++;
+         return null;
+      }
+      _hits++;
+      return entry.table;
+   }//end get
+
+   /**
+    * Caches a result that was read under the given generations.
+    */
+   public synchronized void put(HotelQuery query, Object[] params, ResultTable table, long[] generations){
+      if (!Arrays.equals(generations, generations(query))){
+         return; // an update came in while the query ran
+      }
+      long weight = table.estimateBytes() + ENTRY_OVERHEAD + 16L * params.length;
+      if (weight > _maxBytes / 4){
+         _rejections++;
+         return;
+      }
+      Key key = new Key(query, params);
+      remove(key);
+      _window.put(key, new Entry(table, generations, System.nanoTime() + _ttlNanos, weight));
+      _windowBytes += weight;
+      while (_windowBytes > _windowMax && !_window.isEmpty()){
+         Map.Entry<Key, Entry> oldest = _window.entrySet().iterator().next();
+         _window.remove(oldest.getKey());
+         _windowBytes -= oldest.getValue().weight;
+         admit(oldest.getKey(), oldest.getValue());
+      }
+   }//end put
+
+   // moves a window entry into probation if it is more popular than every
+   // entry it would displace; nothing is evicted until the candidate has won
+   private void admit(Key candidate, Entry entry){
+      long mainMax = _maxBytes - _windowMax;
+      long needed = _probationBytes + _protectedBytes + entry.weight - mainMax;
+      if (needed > 0){
+         int frequency = _sketch.frequency(candidate.hash);
+         List<Key> victims = new ArrayList<Key>();
+         Iterator<Map.Entry<Key, Entry>> it = _probation.entrySet().iterator();
+         boolean inProbation = true;
+         while (needed > 0){
+            if (!it.hasNext()){
+               if (!inProbation){
+                  _rejections++;
+                  return;
+               }
+               it = _protected.entrySet().iterator();
+               inProbation = false;
+               continue;
+            }
+            Map.Entry<Key, Entry> victim = it.next();
+            if (_sketch.frequency(victim.getKey().hash) >= frequency){
+               _rejections++;
+               return;
+            }
+            victims.add(victim.getKey());
+            needed -= victim.getValue().weight;
+         }
+         for (Key victim : victims){
+            remove(victim);
+            _evictions++;
+         }
+      }
+      _probation.put(candidate, entry);
+      _probationBytes += entry.weight;
+   }//end admit
+
+   private void demoteProtected(){
+      while (_protectedBytes > _protectedMax){
+         Map.Entry<Key, Entry> oldest = _protected.entrySet().iterator().next();
+         _protected.remove(oldest.getKey());
+         _protectedBytes -= oldest.getValue().weight;
+         _probation.put(oldest.getKey(), oldest.getValue());
+         _probationBytes += oldest.getValue().weight;
+      }
+   }
+
+   private void remove(Key key){
+      Entry e;
+      if ((e = _window.remove(key)) != null) _windowBytes -= e.weight;
+      if ((e = _probation.remove(key)) != null) _probationBytes -= e.weight;
+      if ((e = _protected.remove(key)) != null) _protectedBytes -= e.weight;
+   }
+
+   // ------------------------------------------------------------------
+   // invalidation
+
+   /**
+    * Drops the results that read any table the SQL of an update names.
+    */
+   public void invalidate(String sql){
+      int[] tables = tables(sql);
+      if (tables.length == 0){
+         // not a table we know: be safe
+         for (int i = 0; i < TABLES.length; ++i) _generations.incrementAndGet(i);
+      }
+      for (int t : tables){
+         _generations.incrementAndGet(t);
+      }
+      synchronized (this){
+         _invalidations++;
+      }
+   }//end invalidate
+
+   /**
+    * Drops the results that read the update's tables.
+    */
+   public void invalidate(HotelQuery update){
+      invalidate(update.getSql(HotelQuery.Shape.ROWS));
+   }
+
+   /**
+    * Drops everything.
+    */
+   public synchronized void clear(){
+      _window.clear();
+      _probation.clear();
+      _protected.clear();
+      _windowBytes = _probationBytes = _protectedBytes = 0;
+   }
+
+   /**
+    * Removes the entries that are expired or invalidated, so that the
+    * footprint reflects only live results.
+    */
+   public synchronized void purge(){
+      long now = System.nanoTime();
+      for (LinkedHashMap<Key, Entry> segment : Arrays.asList(_window, _probation, _protected)){
+         for (Iterator<Map.Entry<Key, Entry>> it = segment.entrySet().iterator(); it.hasNext(); ){
+            Map.Entry<Key, Entry> e = it.next();
+            if (!isValid(e.getKey().query, e.getValue(), now)){
+               it.remove();
+               if (segment == _window) _windowBytes -= e.getValue().weight;
+               else if (segment == _probation) _probationBytes -= e.getValue().weight;
+               else _protectedBytes -= e.getValue().weight;
+            }
+         }
+      }
+   }//end purge
+
+   // ------------------------------------------------------------------
+   // statistics
+
+   private void register(){
+      if (!Boolean.parseBoolean(System.getProperty("hotel.metrics.jmx", "true"))) return;
+      final QueryResultCache cache = this;
+      try{
+         MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName("hotel:type=Cache,name=results");
+         if (mbeans.isRegistered(name)) mbeans.unregisterMBean(name);
+         mbeans.registerMBean(new ResultCacheMXBean(){
+            public long getHits(){ return cache.getHits(); }
+            public long getMisses(){ return cache.getMisses(); }
+            public double getHitRatio(){ return cache.getHitRatio(); }
+            public int getEntries(){ return cache.getEntries(); }
+            public long getBytes(){ return cache.getBytes(); }
+            public long getMaxBytes(){ return _maxBytes; }
+            public long getEvictions(){ return cache.getEvictions(); }
+            public long getRejections(){ return cache.getRejections(); }
+            public long getInvalidations(){ return cache.getInvalidations(); }
+            public void clear(){ cache.clear(); }
+         }, name);
+      }catch (JMException e){
+         System.err.println("result cache: cannot register with JMX: " + e.getMessage());
+      }
+   }//end register
+
+   public synchronized long getHits(){
+      return _hits;
+   }
+
+   public synchronized long getMisses(){
+      return _misses;
+   }
+
+   public synchronized double getHitRatio(){
+      long total = _hits + _misses;
+      return total == 0 ? 0 : _hits / (double) total;
+   }
+
+   public synchronized int getEntries(){
+      return _window.size() + _probation.size() + _protected.size();
+   }
+
+   /**
+    * @return the estimated memory held by the cached results
+    */
+   public synchronized long getBytes(){
+      return _windowBytes + _probationBytes + _protectedBytes;
+   }
+
+   public synchronized long getEvictions(){
+      return _evictions;
+   }
+
+   public synchronized long getRejections(){
+      return _rejections;
+   }
+
+   public synchronized long getInvalidations(){
+      return _invalidations;
+   }
+
+   @Override
+   public synchronized String toString(){
+      return String.format("result cache: %d entries, %,d of %,d bytes, %d hits, %d misses, %.1f%% hit ratio, %d evictions, %d rejected, %d invalidations",
+         getEntries(), getBytes(), _maxBytes, _hits, _misses, getHitRatio() * 100, _evictions, _rejections, _invalidations);
+   }
+
+}//end QueryResultCache
@@ -0,0 +1,225 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Groups the database round trips of one user action and reports them.
+ *
+ * An action is opened with begin(), on the thread that serves it: the
+ * console opens one per menu choice, and every HotelService operation
+ * opens one of its own unless an action is already open, in which case it
+ * joins it. Each primitive of Hotel records its round trip into the open
+ * action with the shape of its SQL (the HotelQuery name, or the text with
+ * its literals replaced by '?'), its parameters, rows, approximate bytes
+ * and time.
+ *
+ * When the outermost begin() is closed the action is summarized, with
+ * warnings for
+ *  - a query run more than once with the same parameters, which the
+ *    action could have kept from the first time;
+ *  - the same query shape run more than hotel.trace.budget times with
+ *    different parameters, the N+1 pattern;
+ *  - more round trips in total than hotel.trace.budget (default 3).
+ *
+ * hotel.trace selects what is printed: off (the default; nothing is
+ * recorded), flagged (only actions with a warning) or all. Summaries are
+ * appended to hotel.trace.file when it is set, as the console clears the
+ * screen after each menu choice, and go to standard error otherwise.
+ */
+public class QueryTracer {
+
+   enum Mode {
+      OFF, FLAGGED, ALL
+   }
+
+   private static final Mode MODE = Mode.valueOf(System.getProperty("hotel.trace", "off").toUpperCase());
+   private static final int BUDGET = Integer.getInteger("hotel.trace.budget", 3);
+   private static final String FILE = System.getProperty("hotel.trace.file");
+   private static final ThreadLocal<Action> CURRENT = new ThreadLocal<Action>();
+   private static final Pattern LITERALS = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+
+   /**
+    * One round trip.
+    */
+   static class Call {
+      final String shape;
+      final String key;
+      final int rows;
+      final long bytes;
+      final long nanos;
+
+      Call(String shape, String key, int rows, long bytes, long nanos){
+         this.shape = shape;
+         this.key = key;
+         this.rows = rows;
+         this.bytes = bytes;
+         this.nanos = nanos;
+      }
+   }//end Call
+
+   /**
+    * The round trips of one user action. Closing the outermost begin() of
+    * the thread ends the action and reports it.
+    */
+   public static class Action implements AutoCloseable {
+      final String name;
+      final long start = System.nanoTime();
+      final List<Call> calls = new ArrayList<Call>();
+      int depth = 1;
+
+      Action(String name){
+         this.name = name;
+      }
+
+      @Override
+      public void close(){
+         if (this == NONE || --depth > 0) return;
+         CURRENT.remove();
+         String text = report();
+         if (text != null) write(text);
+      }
+
+      /**
+       * @return the warnings about this action, empty when it looks fine
+       */
+      List<String> warnings(){
+         List<String> warnings = new ArrayList<String>();
+         Map<String, Integer> sameCall = new LinkedHashMap<String, Integer>();
+         Map<String, Set<String>> sameShape = new LinkedHashMap<String, Set<String>>();
+         for (Call call : calls){
+            sameCall.merge(call.key, 1, Integer::sum);
+            sameShape.computeIfAbsent(call.shape, s -> new HashSet<String>()).add(call.key);
+         }
+         for (Map.Entry<String, Integer> e : sameCall.entrySet()){
+            if (e.getValue() > 1){
+               warnings.add("repeated " + e.getValue() + " times: " + e.getKey());
+            }
+         }
+         for (Map.Entry<String, Set<String>> e : sameShape.entrySet()){
+            if (e.getValue().size() > BUDGET){
+               warnings.add("N+1: " + e.getValue().size() + " calls of " + e.getKey() + " with different parameters");
+            }
+         }
+         if (calls.size() > BUDGET){
+            warnings.add(calls.size() + " round trips, over the budget of " + BUDGET);
+         }
+         return warnings;
+      }//end warnings
+
+      /**
+       * @return the summary, or null when there is nothing to print
+       */
+      String report(){
+         List<String> warnings = warnings();
+         if (MODE != Mode.ALL && warnings.isEmpty()) return null;
+         long rows = 0, bytes = 0, nanos = 0;
+         for (Call call : calls){
+            rows += call.rows;
+            bytes += Math.max(0, call.bytes);
+            nanos += call.nanos;
+         }
+         StringBuilder text = new StringBuilder();
+         text.append(String.format("trace %s: %d round trips, %d rows, %d bytes, %.2f ms in the database, %.2f ms in all%n",
+            name, calls.size(), rows, bytes, nanos / 1e6, (System.nanoTime() - start) / 1e6));
+         for (Call call : calls){
+            text.append(String.format("   %8.2f ms %6d rows %8s  %s%n", call.nanos / 1e6, call.rows,
+               call.bytes < 0 ? "?" : call.bytes + " B", call.key));
+         }
+         for (String warning : warnings){
+            text.append("   ! ").append(warning).append(System.lineSeparator());
+         }
+         return text.toString();
+      }//end report
+   }//end Action
+
+   private static synchronized void write(String text){
+      if (FILE == null){
+         System.err.print(text);
+         return;
+      }
+      try (Writer out = new FileWriter(FILE, true)){
+         out.write(text);
+      }catch (IOException e){
+         System.err.print(text);
+      }
+   }
+
+   private static final Action NONE = new Action("none");
+
+   /**
+    * Opens an action on this thread, or joins the one already open. Use
+    * with try-with-resources.
+    */
+   public static Action begin(String name){
+      if (MODE == Mode.OFF) return NONE;
+      Action action = CURRENT.get();
+      if (action != null){
+         action.depth++;
+         return action;
+      }
+      action = new Action(name);
+      CURRENT.set(action);
+      return action;
+   }//end begin
+
+   /**
+    * @return whether a round trip on this thread would be recorded, to skip
+    *         measuring bytes when it would not
+    */
+   public static boolean isTracing(){
+      return MODE != Mode.OFF && CURRENT.get() != null;
+   }
+
+   /**
+    * Records a round trip of a named query.
+    *
+    * @param bytes approximate size of the result, negative when unknown
+    */
+   public static void record(HotelQuery query, HotelQuery.Shape shape, Object[] params, int rows, long bytes, long startNanos){
+      if (MODE == Mode.OFF) return;
+      Action action = CURRENT.get();
+      if (action == null) return;
+      String name = shape == HotelQuery.Shape.ROWS ? query.name() : query.name() + " (" + shape + ")";
+      action.calls.add(new Call(name, name + " " + Arrays.toString(params), rows, bytes, System.nanoTime() - startNanos));
+   }
+
+   /**
+    * Records a round trip of plain SQL.
+    */
+   public static void record(String sql, int rows, long bytes, long startNanos){
+      if (MODE == Mode.OFF) return;
+      Action action = CURRENT.get();
+      if (action == null) return;
+      action.calls.add(new Call(shape(sql), sql.trim(), rows, bytes, System.nanoTime() - startNanos));
+   }
+
+   /**
+    * @return the SQL with its string and number literals replaced by '?'
+    */
+   static String shape(String sql){
+      return LITERALS.matcher(sql.trim()).replaceAll("?");
+   }
+
+   /**
+    * @return the number of characters in the records, as an estimate of
+    *         their size
+    */
+   static long bytes(List<List<String>> records){
+      long n = 0;
+      for (List<String> record : records){
+         for (String value : record){
+            if (value != null) n += value.length();
+         }
+      }
+      return n;
+   }
+
+}//end QueryTracer
@@ -0,0 +1,307 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A query result stored column by column with typed storage.
+ *
+ * Integer, date and timestamp columns are kept in primitive arrays (dates
+ * and timestamps as epoch milliseconds), numeric columns as doubles, and
+ * text columns as Strings trimmed once when they are read, so char(n)
+ * padding never reaches the caller. Cells are addressed by row number and
+ * column name (case insensitive, as Postgres folds unquoted names), or by
+ * column index; loops over many rows can resolve the name once with
+ * columnIndex().
+ */
+public class ResultTable {
+
+   private abstract static class Column {
+      final String name;
+      final int sqlType;
+      final BitSet nulls = new BitSet();
+
+      Column(String name, int sqlType){
+         this.name = name;
+         this.sqlType = sqlType;
+      }
+
+      abstract void read(ResultSet rs, int index, int row) throws SQLException;
+      abstract void grow(int capacity);
+      abstract String format(int row);
+      // approximate size of the values of the first rows
+      abstract long bytes(int rows);
+   }//end Column
+
+   private static class IntColumn extends Column {
+      int[] values;
+      IntColumn(String name, int sqlType, int capacity){ super(name, sqlType); values = new int[capacity]; }
+      void read(ResultSet rs, int index, int row) throws SQLException {
+         if (sqlType == Types.BIT || sqlType == Types.BOOLEAN){
+            values[row] = rs.getBoolean(index) ? 1 : 0;
+         }else{
+            values[row] = rs.getInt(index);
+         }
+         if (rs.wasNull()) nulls.set(row);
+      }
+      void grow(int capacity){ values = Arrays.copyOf(values, capacity); }
+      String format(int row){ return Integer.toString(values[row]); }
+      long bytes(int rows){ return 4L * rows; }
+   }
+
+   private static class LongColumn extends Column {
+      long[] values;
+      LongColumn(String name, int sqlType, int capacity){ super(name, sqlType); values = new long[capacity]; }
+      void read(ResultSet rs, int index, int row) throws SQLException {
+         if (sqlType == Types.DATE){
+            java.sql.Date d = rs.getDate(index);
+            if (d == null) nulls.set(row); else values[row] = d.getTime();
+         }else if (sqlType == Types.TIMESTAMP){
+            Timestamp t = rs.getTimestamp(index);
+            if (t == null) nulls.set(row); else values[row] = t.getTime();
+         }else{
+            values[row] = rs.getLong(index);
+            if (rs.wasNull()) nulls.set(row);
+         }
+      }
+      void grow(int capacity){ values = Arrays.copyOf(values, capacity); }
+      String format(int row){
+         if (sqlType == Types.DATE) return new java.sql.Date(values[row]).toString();
+         if (sqlType == Types.TIMESTAMP) return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new java.util.Date(values[row]));
+         return Long.toString(values[row]);
+      }
+      long bytes(int rows){ return 8L * rows; }
+   }
+
+   private static class DoubleColumn extends Column {
+      double[] values;
+      DoubleColumn(String name, int sqlType, int capacity){ super(name, sqlType); values = new double[capacity]; }
+      void read(ResultSet rs, int index, int row) throws SQLException {
+         values[row] = rs.getDouble(index);
+         if (rs.wasNull()) nulls.set(row);
+      }
+      void grow(int capacity){ values = Arrays.copyOf(values, capacity); }
+      String format(int row){ return Double.toString(values[row]); }
+      long bytes(int rows){ return 8L * rows; }
+   }
+
+   private static class StringColumn extends Column {
+      String[] values;
+      StringColumn(String name, int sqlType, int capacity){ super(name, sqlType); values = new String[capacity]; }
+      void read(ResultSet rs, int index, int row) throws SQLException {
+         String s = rs.getString(index);
+         if (s == null) nulls.set(row); else values[row] = s.trim();
+      }
+      void grow(int capacity){ values = Arrays.copyOf(values, capacity); }
+      String format(int row){ return values[row]; }
+      long bytes(int rows){
+         long n = 0;
+         for (int i = 0; i < rows; ++i) if (values[i] != null) n += values[i].length();
+         return n;
+      }
+   }
+
+   private final Column[] _columns;
+   // lower-cased column name to index; the first of duplicate names wins
+   private final Map<String, Integer> _index;
+   private int _rows = 0;
+   private int _capacity;
+
+   private ResultTable(Column[] columns, int capacity){
+      this._columns = columns;
+      this._capacity = capacity;
+      this._index = new HashMap<String, Integer>(columns.length * 2);
+      for (int i = 0; i < columns.length; ++i){
+         _index.putIfAbsent(columns[i].name.toLowerCase(Locale.ROOT), i);
+      }
+   }
+
+   /**
+    * Reads every remaining row of the result set. The result set is closed
+    * afterwards.
+    *
+    * @param rs the result set to read
+    * @return the rows as a table
+    * @throws java.sql.SQLException when reading fails
+    */
+   public static ResultTable read(ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData ();
+      int numCol = rsmd.getColumnCount ();
+      int capacity = 16;
+      Column[] columns = new Column[numCol];
+      for (int i = 0; i < numCol; ++i){
+         columns[i] = column(rsmd.getColumnName(i + 1), rsmd.getColumnType(i + 1), capacity);
+      }
+
+      ResultTable table = new ResultTable(columns, capacity);
+      while (rs.next()){
+         if (table._rows == table._capacity){
+            table._capacity *= 2;
+            for (Column c : columns) c.grow(table._capacity);
+         }
+         for (int i = 0; i < numCol; ++i){
+            columns[i].read(rs, i + 1, table._rows);
+         }
+         table._rows++;
+      }//end while
+      rs.close ();
+      return table;
+   }//end read
+
+   private static Column column(String name, int sqlType, int capacity){
+      switch (sqlType){
+         case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT: case Types.BIT: case Types.BOOLEAN:
+            return new IntColumn(name, sqlType, capacity);
+         case Types.BIGINT: case Types.DATE: case Types.TIMESTAMP:
+            return new LongColumn(name, sqlType, capacity);
+         case Types.NUMERIC: case Types.DECIMAL: case Types.DOUBLE: case Types.FLOAT: case Types.REAL:
+            return new DoubleColumn(name, sqlType, capacity);
+         default:
+            return new StringColumn(name, sqlType, capacity);
+      }
+   }//end column
+
+   /**
+    * @return the number of rows
+    */
+   public int size(){
+      return _rows;
+   }
+
+   public boolean isEmpty(){
+      return _rows == 0;
+   }
+
+   /**
+    * @return the approximate size of the values in bytes: 4 or 8 per
+    *         number and date, one per character of text
+    */
+   public long estimateBytes(){
+      long n = 0;
+      for (Column c : _columns) n += c.bytes(_rows);
+      return n;
+   }
+
+   public int getColumnCount(){
+      return _columns.length;
+   }
+
+   /**
+    * @param column zero based column index
+    * @return the column name or alias as reported by the driver
+    */
+   public String getColumnName(int column){
+      return _columns[column].name;
+   }
+
+   /**
+    * @param column zero based column index
+    * @return whether the column holds numbers rather than text or dates
+    */
+   public boolean isNumeric(int column){
+      Column c = _columns[column];
+      return c instanceof IntColumn || c instanceof DoubleColumn
+         || (c instanceof LongColumn && c.sqlType != Types.DATE && c.sqlType != Types.TIMESTAMP);
+   }
+
+   /**
+    * @param name the column name or alias
+    * @return the zero based index of the column
+    * @throws IllegalArgumentException when there is no such column
+    */
+   public int columnIndex(String name){
+      Integer index = _index.get(name.toLowerCase(Locale.ROOT));
+      if (index == null){
+         throw new IllegalArgumentException("no column named " + name);
+      }
+      return index;
+   }
+
+   private Column cell(int row, int column){
+      if (row < 0 || row >= _rows){
+         throw new IndexOutOfBoundsException("row " + row + " of " + _rows);
+      }
+      return _columns[column];
+   }
+
+   public boolean isNull(int row, String column){
+      return isNull(row, columnIndex(column));
+   }
+
+   public boolean isNull(int row, int column){
+      return cell(row, column).nulls.get(row);
+   }
+
+   public int getInt(int row, String column){
+      return getInt(row, columnIndex(column));
+   }
+
+   public int getInt(int row, int column){
+      Column c = cell(row, column);
+      if (c instanceof IntColumn) return ((IntColumn) c).values[row];
+      if (c instanceof LongColumn) return (int) ((LongColumn) c).values[row];
+      return Integer.parseInt(c.format(row));
+   }
+
+   public long getLong(int row, String column){
+      return getLong(row, columnIndex(column));
+   }
+
+   public long getLong(int row, int column){
+      Column c = cell(row, column);
+      if (c instanceof LongColumn) return ((LongColumn) c).values[row];
+      if (c instanceof IntColumn) return ((IntColumn) c).values[row];
+      return Long.parseLong(c.format(row));
+   }
+
+   public double getDouble(int row, String column){
+      return getDouble(row, columnIndex(column));
+   }
+
+   public double getDouble(int row, int column){
+      Column c = cell(row, column);
+      if (c instanceof DoubleColumn) return ((DoubleColumn) c).values[row];
+      if (c instanceof IntColumn) return ((IntColumn) c).values[row];
+      if (c instanceof LongColumn) return ((LongColumn) c).values[row];
+      return Double.parseDouble(c.format(row));
+   }
+
+   /**
+    * @return the date of a DATE or TIMESTAMP column, or null
+    */
+   public java.sql.Date getDate(int row, String column){
+      return getDate(row, columnIndex(column));
+   }
+
+   /**
+    * @return the date of a DATE or TIMESTAMP column, or null
+    */
+   public java.sql.Date getDate(int row, int column){
+      Column c = cell(row, column);
+      if (c.nulls.get(row)) return null;
+      return new java.sql.Date(((LongColumn) c).values[row]);
+   }
+
+   /**
+    * @return the cell as text, already trimmed; null for SQL NULL
+    */
+   public String getString(int row, String column){
+      return getString(row, columnIndex(column));
+   }
+
+   /**
+    * @return the cell as text, already trimmed; null for SQL NULL
+    */
+   public String getString(int row, int column){
+      Column c = cell(row, column);
+      return c.nulls.get(row) ? null : c.format(row);
+   }
+
+}//end ResultTable
@@ -0,0 +1,342 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of which rooms are booked on which day.
+ *
+ * For every (hotelID, bookingDate) that has bookings it keeps a bitset with
+ * one bit per room of the hotel, the bit position being the room's rank
+ * among the hotel's room numbers. Listing the free rooms of a hotel on a
+ * day is then a walk over the complement of one bitset, with the prices
+ * taken from the CatalogCache, instead of a NOT IN subquery over
+ * RoomBookings.
+ *
+ * The index is built from Rooms and RoomBookings on first use, streamed
+ * through a cursor without holding the monitor, and kept current by
+ * markBooked(), which BookingEngine calls after each booking it makes or
+ * finds taken. Changes made by other processes reach it through the
+ * CatalogCache listener: a room_bookings or Rooms notification naming a
+ * hotel marks that hotel out of date, one naming none marks them all, and
+ * an out-of-date hotel's rooms and bookings are read again on its next
+ * use, so a booking elsewhere costs a read of one hotel rather than a
+ * rebuild. Code of this process that deletes bookings calls invalidate()
+ * itself.
+ */
+public class RoomAvailabilityIndex {
+
+   /**
+    * A free room and its price per night.
+    */
+   public static class Room {
+      public final int roomNumber;
+      public final int price;
+
+      Room(int roomNumber, int price){
+         this.roomNumber = roomNumber;
+         this.price = price;
+      }
+   }//end Room
+
+   // the rooms of one hotel, sorted by room number, and which are booked on which day
+   private static class HotelRooms {
+      int[] numbers = new int[8];
+      int count = 0;
+      // epoch day -> bitset of booked room positions
+      final LongObjectMap<long[]> booked = new LongObjectMap<long[]>();
+      long bookings = 0;
+      // the index's epoch when this hotel was read, -1 once it is known to have changed
+      long epoch;
+
+      HotelRooms(long epoch){
+         this.epoch = epoch;
+      }
+
+      void add(int roomNumber){
+         if (count == numbers.length){
+            numbers = Arrays.copyOf(numbers, count * 2);
+         }
+         numbers[count] = roomNumber;
+         count++;
+      }
+
+      int position(int roomNumber){
+         return Arrays.binarySearch(numbers, 0, count, roomNumber);
+      }
+
+      // marks the room booked on the day; rooms are fixed once loaded, so every bitset fits them all
+      void set(int roomNumber, long epochDay){
+         int position = position(roomNumber);
+         if (position < 0) return;
+         long[] bits = booked.get(epochDay);
+         if (bits == null){
+            bits = new long[(count + 63) >>> 6];
+            booked.put(epochDay, bits);
+         }
+         if ((bits[position >>> 6] & (1L << position)) == 0){
+            bits[position >>> 6] |= 1L << position;
+            bookings++;
+         }
+      }
+   }//end HotelRooms
+
+   private static final DateTimeFormatter US_DATE = DateTimeFormatter.ofPattern("M/d/yyyy");
+
+   private final Hotel _esql;
+   // only one load streams at a time; held without the monitor, which bookings need
+   private final Object _reloadLock = new Object();
+   private Map<Integer, HotelRooms> _rooms = null;
+   // bumped by invalidate(): every hotel read before is out of date
+   private long _epoch = 0;
+   // the epoch the index was built in; a hotel it lacks is only known to have no rooms until then
+   private long _builtEpoch = 0;
+   // while a load streams, the bookings marked {hotelID, roomNumber, epochDay} and the hotels
+   // invalidated meanwhile, applied to what it read; null when none does
+   private List<long[]> _pending = null;
+   private Set<Integer> _changed = null;
+
+   public RoomAvailabilityIndex(Hotel esql){
+      this._esql = esql;
+   }
+
+   /**
+    * Converts a booking date as typed by the user (MM/DD/YYYY, the order
+    * Postgres assumes for such input) or in ISO form to an epoch day.
+    *
+    * @throws IllegalArgumentException when the date cannot be parsed
+    */
+   public static long epochDay(String date){
+      String text = date.trim();
+      try{
+         return LocalDate.parse(text, US_DATE).toEpochDay();
+      }catch (DateTimeParseException e){
+         try{
+            return LocalDate.parse(text).toEpochDay();
+         }catch (DateTimeParseException e2){
+            throw new IllegalArgumentException("Invalid date: " + date);
+         }
+      }
+   }//end epochDay
+
+   /**
+    * Marks every hotel out of date, e.g. after another process changed
+    * bookings of hotels it did not name. Each is read again on its next
+    * use; until then the index keeps marking the bookings of this process.
+    */
+   public synchronized void invalidate(){
+      _epoch++;
+   }
+
+   /**
+    * Marks one hotel out of date, after its rooms or bookings changed. It
+    * is read again on its next use.
+    */
+   public synchronized void invalidate(int hotelID){
+      if (_changed != null) _changed.add(hotelID);
+      if (_rooms != null) outdate(_rooms, hotelID);
+   }
+
+   private void outdate(Map<Integer, HotelRooms> rooms, int hotelID){
+      HotelRooms hotel = rooms.get(hotelID);
+      if (hotel == null){
+         // a hotel the index did not know of; remembered so that it is read
+         hotel = new HotelRooms(-1);
+         rooms.put(hotelID, hotel);
+      }
+      hotel.epoch = -1;
+   }
+
+   /**
+    * Rebuilds the index from Rooms and RoomBookings. Both tables are
+    * streamed into a new index without holding the monitor, so bookings
+    * and listings go on meanwhile; the bookings marked in the meantime are
+    * applied to it before it replaces the old one.
+    *
+    * @throws java.sql.SQLException when failed to read the tables
+    */
+   public void reload() throws SQLException {
+      synchronized (_reloadLock){
+         rebuild();
+      }
+   }
+
+   // the caller holds _reloadLock
+   private void rebuild() throws SQLException {
+      final long epoch = beginLoad();
+      final Map<Integer, HotelRooms> rooms = new HashMap<Integer, HotelRooms>();
+      try{
+         _esql.executeQueryAndStream(HotelQuery.ALL_ROOMS, row -> {
+            int hotelID = row.getInt(1);
+            HotelRooms hotel = rooms.get(hotelID);
+            if (hotel == null){
+               hotel = new HotelRooms(epoch);
+               rooms.put(hotelID, hotel);
+            }
+            hotel.add(row.getInt(2));
+         });
+         _esql.executeQueryAndStream(HotelQuery.ALL_BOOKED_ROOMS, row -> {
+            HotelRooms hotel = rooms.get(row.getInt(1));
+            if (hotel != null){
+               hotel.set(row.getInt(2), row.getDate(3).toLocalDate().toEpochDay());
+            }
+         });
+      }catch (SQLException e){
+         endLoad();
+         throw e;
+      }
+
+      synchronized (this){
+         for (long[] booking : _pending){
+            HotelRooms hotel = rooms.get((int) booking[0]);
+            if (hotel != null) hotel.set((int) booking[1], booking[2]);
+         }
+         for (int hotelID : _changed) outdate(rooms, hotelID);
+         endLoad();
+         _rooms = rooms;
+         _builtEpoch = epoch;
+      }
+   }//end rebuild
+
+   // reads one hotel again, unless another caller just did; the caller holds _reloadLock
+   private void refresh(int hotelID) throws SQLException {
+      synchronized (this){
+         if (!isOutdated(_rooms.get(hotelID))) return;
+      }
+      final HotelRooms hotel = new HotelRooms(beginLoad());
+      try{
+         _esql.executeQuery(HotelQuery.HOTEL_ROOMS, row -> hotel.add(row.getInt(1)), hotelID);
+         _esql.executeQueryAndStream(HotelQuery.HOTEL_BOOKED_ROOMS,
+            row -> hotel.set(row.getInt(1), row.getDate(2).toLocalDate().toEpochDay()), hotelID);
+      }catch (SQLException e){
+         endLoad();
+         throw e;
+      }
+
+      synchronized (this){
+         for (long[] booking : _pending){
+            if (booking[0] == hotelID) hotel.set((int) booking[1], booking[2]);
+         }
+         if (_changed.contains(hotelID)) hotel.epoch = -1;
+         endLoad();
+         _rooms.put(hotelID, hotel);
+      }
+   }//end refresh
+
+   private synchronized long beginLoad(){
+      _pending = new ArrayList<long[]>();
+      _changed = new HashSet<Integer>();
+      return _epoch;
+   }
+
+   private synchronized void endLoad(){
+      _pending = null;
+      _changed = null;
+   }
+
+   // the caller holds the monitor; hotel is null when the index has none by that ID
+   private boolean isOutdated(HotelRooms hotel){
+      return hotel == null ? _builtEpoch != _epoch : hotel.epoch != _epoch;
+   }
+
+   /**
+    * @return the hotel's rooms and bookings, read first when the index has
+    *         not been built or the hotel is out of date; null when it has
+    *         no rooms. Only to be read under the monitor.
+    */
+   private HotelRooms current(int hotelID) throws SQLException {
+      synchronized (this){
+         if (_rooms != null && !isOutdated(_rooms.get(hotelID))) return _rooms.get(hotelID);
+      }
+      synchronized (_reloadLock){
+         boolean built;
+         synchronized (this){
+            built = _rooms != null;
+         }
+         if (!built){
+            rebuild();
+         }
+         refresh(hotelID);
+      }
+      synchronized (this){
+         return _rooms.get(hotelID);
+      }
+   }//end current
+
+   /**
+    * Lists the rooms of the hotel that have no booking on the day, in room
+    * number order.
+    *
+    * @throws java.sql.SQLException when the index has to be built, or the
+    *         hotel's prices loaded, and that fails
+    */
+   public List<Room> available(int hotelID, long epochDay) throws SQLException {
+      HotelRooms hotel = current(hotelID);
+      if (hotel == null) return new ArrayList<Room>();
+      int[] numbers;
+      int count = 0;
+      synchronized (this){
+
+         long[] bits = hotel.booked.get(epochDay);
+         numbers = new int[hotel.count];
+         for (int i = 0; i < hotel.count; ++i){
+            boolean booked = bits != null && (bits[i >>> 6] & (1L << i)) != 0;
+            if (!booked){
+               numbers[count++] = hotel.numbers[i];
+            }
+         }
+      }
+
+      // the catalog hears of every price change, so prices are taken from it, outside the lock
+      CatalogCache catalog = _esql.getCatalog();
+      List<Room> free = new ArrayList<Room>(count);
+      for (int i = 0; i < count; ++i){
+         CatalogCache.Room room = catalog.room(hotelID, numbers[i]);
+         if (room != null){
+            free.add(new Room(numbers[i], room.price));
+         }
+      }
+      return free;
+   }//end available
+
+   /**
+    * Records a booking that was just inserted into RoomBookings.
+    */
+   public synchronized void markBooked(int hotelID, int roomNumber, long epochDay){
+      if (_pending != null){
+         _pending.add(new long[]{hotelID, roomNumber, epochDay});
+      }
+      if (_rooms != null){
+         HotelRooms hotel = _rooms.get(hotelID);
+         if (hotel != null) hotel.set(roomNumber, epochDay);
+      }
+   }
+
+   /**
+    * @return the number of (room, day) bookings held by the index
+    */
+   public long bookingCount() throws SQLException {
+      synchronized (_reloadLock){
+         boolean built;
+         synchronized (this){
+            built = _rooms != null;
+         }
+         if (!built){
+            rebuild();
+         }
+      }
+      synchronized (this){
+         long bookings = 0;
+         for (HotelRooms hotel : _rooms.values()) bookings += hotel.bookings;
+         return bookings;
+      }
+   }
+
+}//end RoomAvailabilityIndex
@@ -0,0 +1,17 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Callback for queries read with Hotel.executeQuery or streamed with
+ * Hotel.executeQueryAndStream. It is called once per row with the result set positioned on that row; the row
+ * is only valid for the duration of the call and must not be kept.
+ */
+public interface RowHandler {
+
+   /**
+    * @param row the result set positioned on the current row
+    * @throws java.sql.SQLException when reading the row fails
+    */
+   void handle(ResultSet row) throws SQLException;
+
+}//end RowHandler
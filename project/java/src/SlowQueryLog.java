@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the queries of Hotel that take longer than a threshold to a log
+ * file, each with the plan the database chose for it.
+ *
+ * The log is on when hotel.slowlog.threshold (milliseconds) is set. Each
+ * entry has the time, the query name, the duration, the parameterized SQL,
+ * the parameters and the output of EXPLAIN (ANALYZE, BUFFERS). Statements
+ * other than SELECT get a plain EXPLAIN, which does not run them; the
+ * EXPLAIN always runs in a transaction that is rolled back, so a SELECT
+ * that writes, such as book_room(), leaves nothing behind. Since ANALYZE
+ * runs the query again, a query is explained at most once every
+ * hotel.slowlog.planInterval seconds (default 60); the entries in between
+ * have no plan.
+ *
+ * Plans are captured and entries written on a background thread with a
+ * connection of its own from the pool, so a slow query costs its caller
+ * nothing more; when that thread falls behind by more than 100 entries,
+ * new ones are dropped and counted.
+ *
+ * The file is hotel.slowlog.file (default slow_queries.log). It is rotated
+ * when it would grow over hotel.slowlog.maxBytes (default 10 MB), keeping
+ * hotel.slowlog.files old files (default 5) as file.1 (newest) to file.N.
+ */
+public class SlowQueryLog {
+
+   private final Hotel _esql;
+   private final long _thresholdNanos;
+   private final long _planIntervalNanos;
+   private final File _file;
+   private final long _maxBytes;
+   private final int _files;
+   private final ThreadPoolExecutor _writer;
+   private final ConcurrentHashMap<String, Long> _lastPlan = new ConcurrentHashMap<String, Long>();
+   private final AtomicLong _logged = new AtomicLong();
+   private final AtomicLong _dropped = new AtomicLong();
+
+   // touched only by the writer thread
+   private Writer _out;
+   private long _size;
+
+   public SlowQueryLog(Hotel esql){
+      this._esql = esql;
+      String threshold = System.getProperty("hotel.slowlog.threshold");
+      this._thresholdNanos = threshold == null ? -1 : (long) (Double.parseDouble(threshold) * 1e6);
+      this._planIntervalNanos = TimeUnit.SECONDS.toNanos(Long.getLong("hotel.slowlog.planInterval", 60));
+      this._file = new File(System.getProperty("hotel.slowlog.file", "slow_queries.log"));
+      this._maxBytes = Long.getLong("hotel.slowlog.maxBytes", 10L * 1024 * 1024);
+      this._files = Integer.getInteger("hotel.slowlog.files", 5);
+      if (_thresholdNanos < 0){
+         this._writer = null;
+         return;
+      }
+      this._writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(100), r -> {
+         Thread t = new Thread(r, "slow-query-log");
+         t.setDaemon(true);
+         return t;
+      }, (r, executor) -> _dropped.incrementAndGet());
+   }//end SlowQueryLog
+
+   public boolean isEnabled(){
+      return _writer != null;
+   }
+
+   /**
+    * Logs a named query that started at startNanos if it was slow.
+    */
+   public void record(HotelQuery query, HotelQuery.Shape shape, Object[] params, long startNanos){
+      if (_writer == null) return;
+      long nanos = System.nanoTime() - startNanos;
+      if (nanos < _thresholdNanos) return;
+      String name = shape == HotelQuery.Shape.ROWS ? query.name() : query.name() + " (" + shape + ")";
+      Object[] values = params.clone();
+      _writer.execute(() -> write(name, query.getSql(shape), nanos, Arrays.toString(values),
+         stmt -> StatementCache.bind(stmt, query, values)));
+   }
+
+   /**
+    * Logs a plain SQL statement that started at startNanos if it was slow.
+    */
+   public void record(String sql, long startNanos){
+      if (_writer == null) return;
+      long nanos = System.nanoTime() - startNanos;
+      if (nanos < _thresholdNanos) return;
+      _writer.execute(() -> write(QueryTracer.shape(sql), sql, nanos, "[]", stmt -> {}));
+   }
+
+   // binds the logged query's parameters to the EXPLAIN statement
+   private interface Binder {
+      void bind(PreparedStatement stmt) throws SQLException;
+   }
+
+   private void write(String name, String sql, long nanos, String params, Binder binder){
+      StringBuilder entry = new StringBuilder();
+      entry.append("# ").append(LocalDateTime.now()).append(' ').append(name)
+         .append(String.format(" %.1f ms", nanos / 1e6)).append('\n');
+      entry.append("sql: ").append(sql.trim()).append('\n');
+      entry.append("params: ").append(params).append('\n');
+
+      long now = System.nanoTime();
+      Long last = _lastPlan.get(name);
+      if (last != null && now - last < _planIntervalNanos){
+         entry.append("plan: explained less than ").append(TimeUnit.NANOSECONDS.toSeconds(_planIntervalNanos)).append(" s ago\n");
+      }else{
+         _lastPlan.put(name, now);
+         entry.append(explain(sql, binder));
+      }
+      entry.append('\n');
+
+      try{
+         append(entry.toString());
+         _logged.incrementAndGet();
+      }catch (IOException e){
+         System.err.println("slow query log: cannot write " + _file + ": " + e.getMessage());
+      }
+   }//end write
+
+   private String explain(String sql, Binder binder){
+      String upper = sql.trim().toUpperCase();
+      boolean select = upper.startsWith("SELECT") || upper.startsWith("WITH");
+      String explain = (select ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql;
+      StringBuilder plan = new StringBuilder(select ? "plan (analyze, buffers):\n" : "plan (not run):\n");
+
+      ConnectionPool.PooledConnection pc = null;
+      try{
+         pc = _esql.getPool().borrow();
+         Connection connection = pc.getConnection();
+         boolean autoCommit = connection.getAutoCommit();
+         connection.setAutoCommit(false);
+         try (PreparedStatement stmt = connection.prepareStatement(explain)){
+            binder.bind(stmt);
+            try (ResultSet rs = stmt.executeQuery()){
+               while (rs.next()){
+                  plan.append("   ").append(rs.getString(1)).append('\n');
+               }
+            }
+         }finally{
+            // whatever the statement did is undone
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+         }
+      }catch (SQLException e){
+         if (pc != null) pc.markBroken();
+         plan.append("   not available: ").append(e.getMessage()).append('\n');
+      }finally{
+         if (pc != null) _esql.getPool().release(pc);
+      }
+      return plan.toString();
+   }//end explain
+
+   private void append(String entry) throws IOException {
+      byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+      if (_out != null && _size + bytes.length > _maxBytes){
+         _out.close();
+         _out = null;
+         rotate();
+      }
+      if (_out == null){
+         _out = new OutputStreamWriter(new FileOutputStream(_file, true), StandardCharsets.UTF_8);
+         _size = _file.length();
+      }
+      _out.write(entry);
+      _out.flush();
+      _size += bytes.length;
+   }//end append
+
+   // file.N-1 -> file.N, ..., file -> file.1; the oldest is deleted
+   private void rotate(){
+      new File(_file.getPath() + "." + _files).delete();
+      for (int i = _files - 1; i >= 1; --i){
+         File from = new File(_file.getPath() + "." + i);
+         if (from.exists()) from.renameTo(new File(_file.getPath() + "." + (i + 1)));
+      }
+      if (_files > 0){
+         _file.renameTo(new File(_file.getPath() + ".1"));
+      }else{
+         _file.delete();
+      }
+   }//end rotate
+
+   public long getLoggedCount(){
+      return _logged.get();
+   }
+
+   public long getDroppedCount(){
+      return _dropped.get();
+   }
+
+   /**
+    * Writes the entries still queued and closes the file.
+    */
+   public void close(){
+      if (_writer == null) return;
+      _writer.shutdown();
+      try{
+         _writer.awaitTermination(10, TimeUnit.SECONDS);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+      try{
+         if (_out != null) _out.close();
+      }catch (IOException e){
+         // ignored.
+      }
+   }//end close
+
+}//end SlowQueryLog
@@ -0,0 +1,139 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import org.postgresql.PGStatement;
+
+/**
+ * Caches one PreparedStatement per HotelQuery and shape for a single
+ * connection.
+ *
+ * The first use of a query prepares it (server side when the driver supports
+ * it) and every later use only binds new parameters, so Postgres parses and
+ * plans each statement once per connection instead of once per call.
+ * A cache is not thread safe; it belongs to whoever holds the connection.
+ */
+public class StatementCache {
+
+   private final Connection _connection;
+   // indexed by query ordinal and shape
+   private final PreparedStatement[] _statements =
+      new PreparedStatement[HotelQuery.values().length * HotelQuery.Shape.values().length];
+   private int _size = 0;
+
+   public StatementCache(Connection connection){
+      this._connection = connection;
+   }
+
+   /**
+    * Returns the cached statement for the query with its parameters bound.
+    *
+    * @param query the named query
+    * @param params the parameter values, in order
+    * @return a statement ready to execute
+    * @throws java.sql.SQLException when preparing or binding fails
+    */
+   public PreparedStatement prepare(HotelQuery query, Object... params) throws SQLException {
+      return prepare(query, HotelQuery.Shape.ROWS, params);
+   }//end prepare
+
+   /**
+    * Returns the cached statement for the query in the given shape with its
+    * parameters bound.
+    *
+    * @param query the named query
+    * @param shape whether to fetch the rows, test for existence or count
+    * @param params the parameter values, in order
+    * @return a statement ready to execute
+    * @throws java.sql.SQLException when preparing or binding fails
+    */
+   public PreparedStatement prepare(HotelQuery query, HotelQuery.Shape shape, Object... params) throws SQLException {
+      int slot = query.ordinal() * HotelQuery.Shape.values().length + shape.ordinal();
+      PreparedStatement stmt = _statements[slot];
+      if (stmt == null){
+         stmt = this._connection.prepareStatement(query.getSql(shape));
+         // a DECLARE cannot be PREPAREd on the server
+         if (stmt instanceof PGStatement && shape != HotelQuery.Shape.CURSOR){
+            // ask for a named server-side statement so the plan is reused too
+            ((PGStatement) stmt).setUseServerPrepare(true);
+         }
+         _statements[slot] = stmt;
+         _size++;
+      }
+      bind(stmt, query, params);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Binds the parameters to the statement using the setter that matches
+    * the type declared by the query.
+    */
+   static void bind(PreparedStatement stmt, HotelQuery query, Object... params) throws SQLException {
+      if (params.length != query.getParameterCount()){
+         throw new SQLException(String.format("%s expects %d parameter(s) but got %d",
+            query, query.getParameterCount(), params.length));
+      }
+      stmt.clearParameters();
+      for (int i = 0; i < params.length; ++i){
+         Class<?> type = query.getParameterType(i);
+         Object value = params[i];
+         int index = i + 1;
+
+         if (value == null){
+            stmt.setNull(index, sqlType(type));
+         }else if (!type.isInstance(value)){
+            throw new SQLException(String.format("%s parameter %d must be a %s, not a %s",
+               query, index, type.getSimpleName(), value.getClass().getSimpleName()));
+         }else if (type == Integer.class){
+            stmt.setInt(index, (Integer) value);
+         }else if (type == Long.class){
+            stmt.setLong(index, (Long) value);
+         }else if (type == Double.class){
+            stmt.setDouble(index, (Double) value);
+         }else if (type == String.class){
+            stmt.setString(index, (String) value);
+         }else if (type == java.sql.Date.class){
+            stmt.setDate(index, (java.sql.Date) value);
+         }else if (type == Timestamp.class){
+            stmt.setTimestamp(index, (Timestamp) value);
+         }else{
+            stmt.setObject(index, value);
+         }
+      }//end for
+   }//end bind
+
+   private static int sqlType(Class<?> type){
+      if (type == Integer.class) return Types.INTEGER;
+      if (type == Long.class) return Types.BIGINT;
+      if (type == Double.class) return Types.DOUBLE;
+      if (type == java.sql.Date.class) return Types.DATE;
+      if (type == Timestamp.class) return Types.TIMESTAMP;
+      return Types.VARCHAR;
+   }
+
+   /**
+    * @return the number of statements prepared on this connection so far
+    */
+   public int size(){
+      return _size;
+   }
+
+   /**
+    * Closes every cached statement. The connection itself is left open.
+    */
+   public void close(){
+      for (int i = 0; i < _statements.length; ++i){
+         if (_statements[i] == null) continue;
+         try{
+            _statements[i].close();
+         }catch (SQLException e){
+            // ignored.
+         }
+         _statements[i] = null;
+      }
+      _size = 0;
+   }//end close
+
+}//end StatementCache
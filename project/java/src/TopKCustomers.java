@@ -0,0 +1,446 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory ranking of the customers with the most bookings at each hotel.
+ *
+ * The number of bookings of each customer of a hotel is kept in an
+ * open-addressing map from customerID to an int, and each hotel
+ * keeps its top K customers (hotel.topk.k, default 5) in two small arrays
+ * sorted by bookings, then by customerID. A booking only adds one to a
+ * count, so a customer outside a hotel's top K can only enter it by
+ * passing the last one; recordBooking() therefore keeps the lists exact
+ * in O(K), and reading a list is O(K) as well, instead of grouping every
+ * booking of the hotel.
+ *
+ * Customers are ranked by userID, so two customers of the same name are
+ * two entries. Names are kept for the customers in some list only, and
+ * read from Users when a customer first enters one.
+ *
+ * The ranking is built from RoomBookings at startup, streamed through a
+ * cursor, and kept current by recordBooking(), which BookingEngine calls
+ * after each successful booking. A rebuild streams without holding the
+ * monitor, so bookings are never held up by it. Bookings made or deleted
+ * by other processes reach it through the CatalogCache listener: a
+ * room_bookings notification naming a hotel marks that hotel out of date,
+ * one naming none marks them all, and an out-of-date hotel's counts are
+ * read again, grouped by customer, on its next use. Code of this process
+ * that deletes bookings calls invalidate() itself.
+ */
+public class TopKCustomers {
+
+   /**
+    * A customer and their number of bookings at a hotel.
+    */
+   public static class Customer {
+      public final int customerID;
+      public final String name;
+      public final int bookings;
+
+      Customer(int customerID, String name, int bookings){
+         this.customerID = customerID;
+         this.name = name;
+         this.bookings = bookings;
+      }
+   }//end Customer
+
+   // the top customers of one hotel, best first
+   private static class Ranking {
+      final int[] ids;
+      final int[] counts;
+      int size = 0;
+
+      Ranking(int k){
+         ids = new int[k];
+         counts = new int[k];
+      }
+
+      private boolean before(int i, int id, int count){
+         return counts[i] > count || (counts[i] == count && ids[i] < id);
+      }
+
+      /**
+       * Takes a customer's new count into account.
+       */
+      void offer(int id, int count){
+         int i = 0;
+         while (i < size && ids[i] != id) ++i;
+         if (i == size){
+            if (size < ids.length){
+               size++;
+            }else if (before(size - 1, id, count)){
+               return;
+            }else{
+               i = size - 1;
+            }
+         }
+         // move up past everyone the customer now ranks before
+         while (i > 0 && !before(i - 1, id, count)){
+            ids[i] = ids[i - 1];
+            counts[i] = counts[i - 1];
+            --i;
+         }
+         ids[i] = id;
+         counts[i] = count;
+      }//end offer
+   }//end Ranking
+
+   /**
+    * Open-addressing map from long keys to positive ints; 0 means absent.
+    */
+   private static class LongIntMap {
+      long[] keys;
+      int[] values;
+      int size = 0;
+
+      // capacity must be a power of two
+      LongIntMap(int capacity){
+         keys = new long[capacity];
+         values = new int[capacity];
+      }
+
+      private static int hash(long key){
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int) (h ^ (h >>> 32));
+      }
+
+      int get(long key){
+         int mask = keys.length - 1;
+         for (int i = hash(key) & mask; values[i] != 0; i = (i + 1) & mask){
+            if (keys[i] == key) return values[i];
+         }
+         return 0;
+      }
+
+      int add(long key, int delta){
+         if ((size + 1) * 2 > keys.length) resize();
+         int mask = keys.length - 1;
+         int i = hash(key) & mask;
+         for (; values[i] != 0; i = (i + 1) & mask){
+            if (keys[i] == key) return values[i] += delta;
+         }
+         keys[i] = key;
+         size++;
+         return values[i] = delta;
+      }
+
+      private void resize(){
+         long[] oldKeys = keys;
+         int[] oldValues = values;
+         keys = new long[oldKeys.length * 2];
+         values = new int[oldKeys.length * 2];
+         int mask = keys.length - 1;
+         for (int j = 0; j < oldKeys.length; ++j){
+            if (oldValues[j] == 0) continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (values[i] != 0) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+         }
+      }//end resize
+   }//end LongIntMap
+
+   // the counts of one hotel's customers, as read from RoomBookings plus the bookings recorded since
+   private static class HotelCounts {
+      final LongIntMap counts = new LongIntMap(16);
+      // the newest bookingID of each customer that the snapshot counted
+      final LongIntMap newest = new LongIntMap(16);
+      final Ranking ranking;
+      // the ranking's epoch when this hotel was read, -1 once it is known to have changed
+      long epoch;
+
+      HotelCounts(int k, long epoch){
+         ranking = new Ranking(k);
+         this.epoch = epoch;
+      }
+
+      // counts the bookings of a customer as read from RoomBookings
+      void read(int customerID, int count, int newestBookingID){
+         counts.add(customerID, count);
+         newest.add(customerID, newestBookingID);
+         ranking.offer(customerID, count);
+      }
+
+      // counts a booking, unless the snapshot already did
+      void record(int customerID, int bookingID){
+         if (bookingID <= newest.get(customerID)) return;
+         ranking.offer(customerID, counts.add(customerID, 1));
+      }
+   }//end HotelCounts
+
+   private final Hotel _esql;
+   private final int _k;
+   // only one load streams at a time; held without the monitor, which bookings need
+   private final Object _reloadLock = new Object();
+   private LongObjectMap<HotelCounts> _hotels = null;
+   private LongObjectMap<String> _names = null;
+   // bumped by invalidate(): every hotel read before is out of date
+   private long _epoch = 0;
+   // the epoch the ranking was built in; a hotel it lacks is only known to have no bookings until then
+   private long _builtEpoch = 0;
+   // while a load streams, the bookings recorded {hotelID, customerID, bookingID} and the hotels
+   // invalidated meanwhile, applied to what it read; null when none does
+   private List<int[]> _pending = null;
+   private Set<Integer> _changed = null;
+
+   public TopKCustomers(Hotel esql){
+      this(esql, Integer.getInteger("hotel.topk.k", 5));
+   }
+
+   public TopKCustomers(Hotel esql, int k){
+      if (k < 1){
+         throw new IllegalArgumentException("k must be at least 1");
+      }
+      this._esql = esql;
+      this._k = k;
+   }
+
+   /**
+    * Marks every hotel out of date, e.g. after another process changed
+    * bookings of hotels it did not name. Each is read again on its next
+    * use; until then the ranking keeps counting the bookings of this
+    * process.
+    */
+   public synchronized void invalidate(){
+      _epoch++;
+   }
+
+   /**
+    * Marks one hotel out of date, after its bookings changed. It is read
+    * again on its next use.
+    */
+   public synchronized void invalidate(int hotelID){
+      if (_changed != null) _changed.add(hotelID);
+      if (_hotels != null) outdate(_hotels, hotelID);
+   }
+
+   private void outdate(LongObjectMap<HotelCounts> hotels, int hotelID){
+      HotelCounts h = hotels.get(hotelID);
+      if (h == null){
+         // a hotel the ranking did not know of; remembered so that it is read
+         h = new HotelCounts(_k, -1);
+         hotels.put(hotelID, h);
+      }
+      h.epoch = -1;
+   }
+
+   /**
+    * Builds the ranking on a background thread, so it is ready before the
+    * first manager asks for it.
+    */
+   public void startLoading(){
+      Thread loader = new Thread(() -> {
+         try{
+            reload();
+         }catch (SQLException e){
+            System.err.println("top customers: initial build failed, building on first use: " + e.getMessage());
+         }
+      }, "topk-loader");
+      loader.setDaemon(true);
+      loader.start();
+   }
+
+   /**
+    * Rebuilds the ranking from RoomBookings, then reads the names of the
+    * ranked customers from Users. Both are streamed without holding the
+    * monitor; bookings recorded meanwhile are applied to the new ranking
+    * before it replaces the old one, unless it already counted them.
+    *
+    * @throws java.sql.SQLException when failed to read the tables
+    */
+   public void reload() throws SQLException {
+      synchronized (_reloadLock){
+         rebuild();
+      }
+   }
+
+   // the caller holds _reloadLock
+   private void rebuild() throws SQLException {
+      final long epoch = beginLoad();
+      final LongObjectMap<HotelCounts> hotels = new LongObjectMap<HotelCounts>();
+      final List<HotelCounts> all = new ArrayList<HotelCounts>();
+      final LongObjectMap<String> names = new LongObjectMap<String>();
+      try{
+         _esql.executeQueryAndStream(HotelQuery.CUSTOMER_BOOKING_COUNTS, row -> {
+            int hotelID = row.getInt(1);
+            HotelCounts h = hotels.get(hotelID);
+            if (h == null){
+               h = new HotelCounts(_k, epoch);
+               hotels.put(hotelID, h);
+               all.add(h);
+            }
+            h.read(row.getInt(2), row.getInt(3), row.getInt(4));
+         });
+
+         final LongObjectMap<Boolean> ranked = new LongObjectMap<Boolean>();
+         for (HotelCounts h : all){
+            for (int i = 0; i < h.ranking.size; ++i){
+               ranked.put(h.ranking.ids[i], Boolean.TRUE);
+            }
+         }
+         _esql.executeQueryAndStream(HotelQuery.ALL_USER_NAMES, row -> {
+            int userID = row.getInt(1);
+            if (ranked.get(userID) != null){
+               names.put(userID, row.getString(2).trim());
+            }
+         });
+      }catch (SQLException e){
+         endLoad();
+         throw e;
+      }
+
+      synchronized (this){
+         for (int[] booking : _pending){
+            record(hotels, epoch, booking[0], booking[1], booking[2]);
+         }
+         for (int hotelID : _changed) outdate(hotels, hotelID);
+         endLoad();
+         _hotels = hotels;
+         _names = names;
+         _builtEpoch = epoch;
+      }
+   }//end rebuild
+
+   // reads one hotel again, unless another caller just did; the caller holds _reloadLock
+   private void refresh(int hotelID) throws SQLException {
+      synchronized (this){
+         if (!isOutdated(_hotels.get(hotelID))) return;
+      }
+      final HotelCounts h = new HotelCounts(_k, beginLoad());
+      try{
+         _esql.executeQueryAndStream(HotelQuery.HOTEL_CUSTOMER_BOOKING_COUNTS,
+            row -> h.read(row.getInt(1), row.getInt(2), row.getInt(3)), hotelID);
+      }catch (SQLException e){
+         endLoad();
+         throw e;
+      }
+
+      synchronized (this){
+         for (int[] booking : _pending){
+            if (booking[0] == hotelID) h.record(booking[1], booking[2]);
+         }
+         if (_changed.contains(hotelID)) h.epoch = -1;
+         endLoad();
+         _hotels.put(hotelID, h);
+      }
+   }//end refresh
+
+   private synchronized long beginLoad(){
+      _pending = new ArrayList<int[]>();
+      _changed = new HashSet<Integer>();
+      return _epoch;
+   }
+
+   private synchronized void endLoad(){
+      _pending = null;
+      _changed = null;
+   }
+
+   // the caller holds the monitor; h is null when the ranking has no bookings of the hotel
+   private boolean isOutdated(HotelCounts h){
+      return h == null ? _builtEpoch != _epoch : h.epoch != _epoch;
+   }
+
+   // absentEpoch: the epoch up to which a hotel missing from hotels had no bookings
+   private void record(LongObjectMap<HotelCounts> hotels, long absentEpoch, int hotelID, int customerID, int bookingID){
+      HotelCounts h = hotels.get(hotelID);
+      if (h == null){
+         h = new HotelCounts(_k, absentEpoch);
+         hotels.put(hotelID, h);
+      }
+      h.record(customerID, bookingID);
+   }
+
+   /**
+    * @return the hotel's counts, read first when the ranking has not been
+    *         built or the hotel is out of date; null when it has no
+    *         bookings. Only to be read under the monitor.
+    */
+   private HotelCounts current(int hotelID) throws SQLException {
+      synchronized (this){
+         if (_hotels != null && !isOutdated(_hotels.get(hotelID))) return _hotels.get(hotelID);
+      }
+      synchronized (_reloadLock){
+         boolean built;
+         synchronized (this){
+            built = _hotels != null;
+         }
+         if (!built){
+            rebuild();
+         }
+         refresh(hotelID);
+      }
+      synchronized (this){
+         return _hotels.get(hotelID);
+      }
+   }//end current
+
+   /**
+    * Records a booking that was just inserted into RoomBookings. A rebuild
+    * that started after the insert committed already counted it, which its
+    * bookingID tells: the snapshot keeps the newest bookingID it counted
+    * for every customer of every hotel. Only two bookings of one customer
+    * at one hotel that commit out of ID order across a rebuild's snapshot
+    * can fool it, and then by one booking until the next rebuild.
+    */
+   public synchronized void recordBooking(int hotelID, int customerID, int bookingID){
+      if (_pending != null){
+         _pending.add(new int[]{hotelID, customerID, bookingID});
+      }
+      if (_hotels != null){
+         record(_hotels, _builtEpoch, hotelID, customerID, bookingID);
+      }
+   }
+
+   /**
+    * @return the hotel's top customers, most bookings first
+    * @throws java.sql.SQLException when the ranking has to be built, or a
+    *         newly ranked customer's name read, and that fails
+    */
+   public List<Customer> top(int hotelID) throws SQLException {
+      HotelCounts h = current(hotelID);
+      if (h == null) return new ArrayList<Customer>();
+      int[] ids;
+      int[] counts;
+      String[] names;
+      synchronized (this){
+         Ranking r = h.ranking;
+         ids = Arrays.copyOf(r.ids, r.size);
+         counts = Arrays.copyOf(r.counts, r.size);
+         names = new String[r.size];
+         for (int i = 0; i < r.size; ++i){
+            names[i] = _names.get(ids[i]);
+         }
+      }
+
+      // read outside the lock, which recordBooking() needs while BookingEngine holds a stripe
+      List<Customer> top = new ArrayList<Customer>();
+      for (int i = 0; i < ids.length; ++i){
+         if (names[i] == null){
+            ResultTable user = _esql.executeQueryAndReturnTable(HotelQuery.USER_NAME, ids[i]);
+            names[i] = user.isEmpty() ? "" : user.getString(0, "name");
+            synchronized (this){
+               if (_names != null) _names.put(ids[i], names[i]);
+            }
+         }
+         top.add(new Customer(ids[i], names[i], counts[i]));
+      }
+      return top;
+   }//end top
+
+   /**
+    * @return the number of bookings of the customer at the hotel
+    * @throws java.sql.SQLException when the ranking has to be built and that fails
+    */
+   public int bookings(int hotelID, int customerID) throws SQLException {
+      HotelCounts h = current(hotelID);
+      synchronized (this){
+         return h == null ? 0 : h.counts.get(customerID);
+      }
+   }
+
+}//end TopKCustomers
@@ -1,5 +1,11 @@
 #!/bin/bash
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_tables.sql
-psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_indexes.sql
-psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/load_data.sql
\ No newline at end of file
+if ( source $DIR/../../java/scripts/java_env.sh ); then
+   #loads the data, then builds the indexes of create_indexes.sql
+   $DIR/../../java/scripts/load_data.sh
+else
+   echo "loading the data with psql instead of BulkLoader" >&2
+   (cd $DIR/../../data && psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/load_data.sql)
+   psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_indexes.sql
+fi
@@ -24,6 +24,7 @@ DROP INDEX IF EXISTS roombooking_customerid_index;
 DROP INDEX IF EXISTS roombooking_hotelid_index;
 DROP INDEX IF EXISTS roombooking_roomnumber_index;
 DROP INDEX IF EXISTS roombooking_bookingdate_index;
+DROP INDEX IF EXISTS roombooking_hotel_history_index;
 
 DROP INDEX IF EXISTS roomrepair_repairid_index;
 DROP INDEX IF EXISTS roomrepair_companyid_index;
@@ -40,6 +41,7 @@ DROP INDEX IF EXISTS roomupdatelog_managerid_index;
 DROP INDEX IF EXISTS roomupdatelog_hotelid_index;
 DROP INDEX IF EXISTS roomupdatelog_roomnumber_index;
 DROP INDEX IF EXISTS roomupdatelog_updateon_index;
+DROP INDEX IF EXISTS roomupdatelog_manager_history_index;
 
 /* Users 
 Index is needed here due to the amount of potential user we can have
@@ -89,6 +91,12 @@ CREATE INDEX roombooking_customerid_index ON RoomBookings USING btree(customerID
 CREATE INDEX roombooking_hotelid_index ON RoomBookings USING btree(hotelID);
 CREATE INDEX roombooking_roomnumber_index ON RoomBookings USING btree(roomNumber);
 CREATE INDEX roombooking_bookingdate_index ON RoomBookings USING btree(bookingDate);
+/* The booking history is read a page at a time, newest first, by seeking
+to the (bookingDate, bookingID) of the last row shown. With this index each
+of the manager's hotels gives its next page straight from the index, so any
+page is as fast as the first however long the history is.
+*/
+CREATE INDEX roombooking_hotel_history_index ON RoomBookings USING btree(hotelID, bookingDate, bookingID);
 
 /* Room Repair 
 Index will not be used
@@ -112,4 +120,9 @@ CREATE INDEX roomupdatelog_managerid_index ON RoomUpdatesLog USING btree(manager
 CREATE INDEX roomupdatelog_hotelid_index ON RoomUpdatesLog USING btree(hotelID);
 CREATE INDEX roomupdatelog_roomnumber_index ON RoomUpdatesLog USING btree(roomNumber);
 CREATE INDEX roomupdatelog_updateon_index ON RoomUpdatesLog USING btree(updatedOn);
+/* The room updates log is read a page at a time, newest first, by seeking
+to the (updatedOn, updateNumber) of the last row shown; this also gives the
+last five updates of a manager.
+*/
+CREATE INDEX roomupdatelog_manager_history_index ON RoomUpdatesLog USING btree(managerID, updatedOn, updateNumber);
 
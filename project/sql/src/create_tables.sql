@@ -49,6 +49,8 @@ CREATE TABLE RoomBookings (
                     roomNumber integer NOT NULL, 
                     bookingDate date NOT NULL, 
                     PRIMARY KEY(bookingID),
+                    --a room can only be booked once per day; concurrent double bookings fail with unique_violation
+                    CONSTRAINT roombookings_room_day_unique UNIQUE(hotelID, roomNumber, bookingDate),
                     FOREIGN KEY(customerID) REFERENCES Users(userID),
                     FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
 );
@@ -93,5 +95,95 @@ BEGIN RETURN sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - lon
 END;
 $dist$ LANGUAGE plpgsql;
 
+---Books a room in a single round trip: checks the room exists, checks it is free on that day
+---and inserts the booking under p_booking_id, which the application reserves from
+---RoomBookings_bookingID_seq. status is 0 when booked, 1 when there is no such room and 2 when
+---the room is already booked for that day.
+DROP FUNCTION IF EXISTS book_room(integer, integer, integer, date);
+CREATE OR REPLACE FUNCTION book_room(p_booking_id integer, p_customer integer, p_hotel integer, p_room integer, p_date date)
+RETURNS TABLE(status integer, booking_id integer, room_price integer) AS $book$
+DECLARE
+   v_price integer;
+   v_constraint text;
+BEGIN
+   SELECT r.price INTO v_price FROM Rooms r WHERE r.hotelID = p_hotel AND r.roomNumber = p_room;
+   IF NOT FOUND THEN
+      RETURN QUERY SELECT 1, NULL::integer, NULL::integer;
+      RETURN;
+   END IF;
 
+   PERFORM 1 FROM RoomBookings b WHERE b.hotelID = p_hotel AND b.roomNumber = p_room AND b.bookingDate = p_date;
+   IF FOUND THEN
+      RETURN QUERY SELECT 2, NULL::integer, v_price;
+      RETURN;
+   END IF;
 
+   BEGIN
+      INSERT INTO RoomBookings(bookingID, customerID, hotelID, roomNumber, bookingDate)
+      VALUES (p_booking_id, p_customer, p_hotel, p_room, p_date);
+   EXCEPTION WHEN unique_violation THEN
+      --a concurrent booking of the same room and day committed first; any other
+      --violation, such as a bookingID already in use, is an error
+      GET STACKED DIAGNOSTICS v_constraint = CONSTRAINT_NAME;
+      IF v_constraint IS DISTINCT FROM 'roombookings_room_day_unique' THEN
+         RAISE;
+      END IF;
+      RETURN QUERY SELECT 2, NULL::integer, v_price;
+      RETURN;
+   END;
+   RETURN QUERY SELECT 0, p_booking_id, v_price;
+END;
+$book$ LANGUAGE plpgsql;
+
+---Tells the applications' catalog caches which hotel changed, on the hotel_catalog channel, as
+---'<table>:<hotelID>', or '<table>:*' when the table was truncated. Notifications are sent when
+---the transaction commits, and repeats of the same one within a transaction are sent once, so
+---bulk loads send one per hotel.
+CREATE OR REPLACE FUNCTION notify_catalog() RETURNS trigger AS $notify$
+BEGIN
+   IF TG_OP = 'TRUNCATE' THEN
+      PERFORM pg_notify('hotel_catalog', TG_TABLE_NAME || ':*');
+      RETURN NULL;
+   END IF;
+   IF TG_OP <> 'INSERT' THEN
+      PERFORM pg_notify('hotel_catalog', TG_TABLE_NAME || ':' || OLD.hotelID);
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM pg_notify('hotel_catalog', TG_TABLE_NAME || ':' || NEW.hotelID);
+   END IF;
+   RETURN NULL;
+END;
+$notify$ LANGUAGE plpgsql;
+
+CREATE TRIGGER hotel_catalog_notify AFTER INSERT OR UPDATE OR DELETE ON Hotel
+   FOR EACH ROW EXECUTE PROCEDURE notify_catalog();
+CREATE TRIGGER rooms_catalog_notify AFTER INSERT OR UPDATE OR DELETE ON Rooms
+   FOR EACH ROW EXECUTE PROCEDURE notify_catalog();
+CREATE TRIGGER hotel_catalog_truncate AFTER TRUNCATE ON Hotel
+   FOR EACH STATEMENT EXECUTE PROCEDURE notify_catalog();
+CREATE TRIGGER rooms_catalog_truncate AFTER TRUNCATE ON Rooms
+   FOR EACH STATEMENT EXECUTE PROCEDURE notify_catalog();
+
+---Tells the applications' booking indexes which hotels' bookings changed, on the room_bookings
+---channel, as the hotelID, or '*' when the table was truncated. Repeats of the same one within a
+---transaction are sent once, so a transaction sends one per hotel whatever the number of rows.
+CREATE OR REPLACE FUNCTION notify_bookings() RETURNS trigger AS $notify$
+BEGIN
+   IF TG_OP = 'TRUNCATE' THEN
+      PERFORM pg_notify('room_bookings', '*');
+      RETURN NULL;
+   END IF;
+   IF TG_OP <> 'INSERT' THEN
+      PERFORM pg_notify('room_bookings', CAST(OLD.hotelID AS text));
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM pg_notify('room_bookings', CAST(NEW.hotelID AS text));
+   END IF;
+   RETURN NULL;
+END;
+$notify$ LANGUAGE plpgsql;
+
+CREATE TRIGGER roombookings_notify AFTER INSERT OR UPDATE OR DELETE ON RoomBookings
+   FOR EACH ROW EXECUTE PROCEDURE notify_bookings();
+CREATE TRIGGER roombookings_truncate AFTER TRUNCATE ON RoomBookings
+   FOR EACH STATEMENT EXECUTE PROCEDURE notify_bookings();
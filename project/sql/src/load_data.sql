@@ -1,36 +1,23 @@
-COPY Users
-FROM '/extra/emira035/cs166_project/project/data/users.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE users_userID_seq RESTART 101; 
+-- Fallback for create_db.sh when no Java 8 is available to run BulkLoader.
+-- \copy reads the CSVs on the client, relative to the directory psql runs
+-- in, so run it from project/data.
+\copy Users FROM 'users.csv' WITH DELIMITER ',' CSV HEADER
+SELECT setval(pg_get_serial_sequence('users', 'userid'), (SELECT max(userID) FROM Users));
 
-COPY Hotel
-FROM '/extra/emira035/cs166_project/project/data/hotels.csv'
-WITH DELIMITER ',' CSV HEADER;   
+\copy Hotel FROM 'hotels.csv' WITH DELIMITER ',' CSV HEADER
 
-COPY Rooms
-FROM '/extra/emira035/cs166_project/project/data/rooms.csv'
-WITH DELIMITER ',' CSV HEADER;
+\copy Rooms FROM 'rooms.csv' WITH DELIMITER ',' CSV HEADER
 
-COPY MaintenanceCompany
-FROM '/extra/emira035/cs166_project/project/data/company.csv'
-WITH DELIMITER ',' CSV HEADER;
+\copy MaintenanceCompany FROM 'company.csv' WITH DELIMITER ',' CSV HEADER
 
-COPY RoomBookings
-FROM '/extra/emira035/cs166_project/project/data/bookings.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE RoomBookings_bookingID_seq RESTART 501; 
+\copy RoomBookings FROM 'bookings.csv' WITH DELIMITER ',' CSV HEADER
+SELECT setval(pg_get_serial_sequence('roombookings', 'bookingid'), (SELECT max(bookingID) FROM RoomBookings));
 
-COPY RoomRepairs
-FROM '/extra/emira035/cs166_project/project/data/roomRepairs.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomRepairs_repairID_seq RESTART 11;
+\copy RoomRepairs FROM 'roomRepairs.csv' WITH DELIMITER ',' CSV HEADER
+SELECT setval(pg_get_serial_sequence('roomrepairs', 'repairid'), (SELECT max(repairID) FROM RoomRepairs));
 
-COPY RoomRepairRequests
-FROM '/extra/emira035/cs166_project/project/data/roomRepairRequests.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomRepairRequests_requestNumber_seq RESTART 11;
+\copy RoomRepairRequests FROM 'roomRepairRequests.csv' WITH DELIMITER ',' CSV HEADER
+SELECT setval(pg_get_serial_sequence('roomrepairrequests', 'requestnumber'), (SELECT max(requestNumber) FROM RoomRepairRequests));
 
-COPY RoomUpdatesLog
-FROM '/extra/emira035/cs166_project/project/data/roomUpdatesLog.csv'
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomUpdatesLog_updateNumber_seq RESTART 51;
\ No newline at end of file
+\copy RoomUpdatesLog FROM 'roomUpdatesLog.csv' WITH DELIMITER ',' CSV HEADER
+SELECT setval(pg_get_serial_sequence('roomupdateslog', 'updatenumber'), (SELECT max(updateNumber) FROM RoomUpdatesLog));